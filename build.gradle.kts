@@ -55,6 +55,8 @@ allprojects {
     val okHttpVersion: String by properties
     val discordWebhookVersion: String by properties
     val copyDownVersion: String by properties
+    val caffeineVersion: String by properties
+    val junitVersion: String by properties
 
     repositories {
         mavenCentral()
@@ -105,9 +107,16 @@ allprojects {
 
         implementation("io.github.furstenheim:copy_down:$copyDownVersion")
 
+        implementation("com.github.ben-manes.caffeine:caffeine:$caffeineVersion")
+
         //Spring
         implementation("org.springframework.boot:spring-boot-starter-webflux:$springVersion")
         implementation("org.springframework.boot:spring-boot-starter-data-r2dbc:$springVersion")
+        implementation("org.springframework.boot:spring-boot-starter-actuator:$springVersion")
+
+        //Tests
+        testImplementation("org.junit.jupiter:junit-jupiter:$junitVersion")
+        testImplementation("io.projectreactor:reactor-test")
     }
 
     kotlin {
@@ -130,6 +139,10 @@ subprojects {
                 jvmTarget = targetCompatibility
             }
         }
+
+        withType<Test> {
+            useJUnitPlatform()
+        }
     }
 }
 
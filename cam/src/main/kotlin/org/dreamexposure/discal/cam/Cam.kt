@@ -3,6 +3,9 @@ package org.dreamexposure.discal.cam
 import org.dreamexposure.discal.Application
 import org.dreamexposure.discal.cam.google.GoogleInternalAuthHandler
 import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.cache.InvalidationBus
+import org.dreamexposure.discal.core.cache.RemoteCache
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal
@@ -20,6 +23,8 @@ class Cam {
     fun onShutdown() {
         LOGGER.info(GlobalVal.STATUS, "CAM shutting down.")
         DatabaseManager.disconnectFromMySQL()
+        DiscalCache.disconnectInvalidationBus()
+        DiscalCache.disconnectRemoteCache()
     }
 
     companion object {
@@ -30,6 +35,10 @@ class Cam {
             p.load(FileReader("settings.properties"))
             BotSettings.init(p)
 
+            //Share cached data with other nodes, and evict what they write to
+            DiscalCache.connectRemoteCache(RemoteCache.fromSettings())
+            DiscalCache.connectInvalidationBus(InvalidationBus.fromSettings())
+
             //Handle generating new google auth credentials for discal accounts
             if (args.size > 1 && args[0].equals("-forceNewGoogleAuth", true)) {
                 //This will automatically kill this instance once finished
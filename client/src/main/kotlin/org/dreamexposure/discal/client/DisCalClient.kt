@@ -6,6 +6,10 @@ import discord4j.core.DiscordClientBuilder
 import discord4j.core.GatewayDiscordClient
 import discord4j.core.`object`.presence.ClientActivity
 import discord4j.core.`object`.presence.ClientPresence
+import discord4j.core.event.domain.channel.NewsChannelDeleteEvent
+import discord4j.core.event.domain.channel.TextChannelDeleteEvent
+import discord4j.core.event.domain.guild.GuildDeleteEvent
+import discord4j.core.event.domain.guild.MemberLeaveEvent
 import discord4j.core.event.domain.interaction.ChatInputInteractionEvent
 import discord4j.core.event.domain.lifecycle.ReadyEvent
 import discord4j.core.event.domain.message.MessageCreateEvent
@@ -28,6 +32,9 @@ import org.dreamexposure.discal.client.message.Messages
 import org.dreamexposure.discal.client.module.command.AddCalendarCommand
 import org.dreamexposure.discal.client.module.command.CommandExecutor
 import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.cache.InvalidationBus
+import org.dreamexposure.discal.core.cache.RemoteCache
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
@@ -36,6 +43,7 @@ import org.springframework.boot.builder.SpringApplicationBuilder
 import org.springframework.stereotype.Component
 import reactor.core.publisher.Mono
 import java.io.FileReader
+import java.time.Duration
 import java.util.*
 import javax.annotation.PreDestroy
 import kotlin.system.exitProcess
@@ -55,6 +63,16 @@ class DisCalClient {
             p.load(FileReader("settings.properties"))
             BotSettings.init(p)
 
+            //Share cached data with other nodes, and evict what they write to
+            DiscalCache.connectRemoteCache(RemoteCache.fromSettings())
+            DiscalCache.connectInvalidationBus(InvalidationBus.fromSettings())
+
+            //Shard reads only see routed rows, the server may not have stored the shard count yet
+            DatabaseManager.rebucketShards(Application.getShardCount()).block()
+
+            //Come back with what was cached before the last restart
+            DiscalCache.loadSnapshot()
+
             //Load lang files
             Messages.reloadLangs().subscribe()
 
@@ -92,6 +110,28 @@ class DisCalClient {
                                 .on(RoleDeleteEvent::class.java, RoleDeleteListener::handle)
                                 .then()
 
+                        val onGuildDelete = client
+                                .on(GuildDeleteEvent::class.java, GuildDeleteListener::handle)
+                                .then()
+
+                        val onTextChannelDelete = client
+                                .on(TextChannelDeleteEvent::class.java, ChannelDeleteListener::handle)
+                                .then()
+
+                        val onNewsChannelDelete = client
+                                .on(NewsChannelDeleteEvent::class.java, ChannelDeleteListener::handle)
+                                .then()
+
+                        val onMemberLeave = client.eventDispatcher
+                                .on(MemberLeaveEvent::class.java)
+                                .bufferTimeout(100, Duration.ofSeconds(5))
+                                .concatMap { events ->
+                                    // A failed batch mustn't end the listener, and with it every other listener
+                                    MemberLeaveListener.handle(events).doOnError {
+                                        LOGGER.error(DEFAULT, "Failed to handle member leave batch", it)
+                                    }.onErrorResume { Mono.empty() }
+                                }.then()
+
                         val onCommand = client
                                 .on(MessageCreateEvent::class.java, MessageCreateListener::handle)
                                 .then()
@@ -105,7 +145,16 @@ class DisCalClient {
                                 .on(ChatInputInteractionEvent::class.java, slashCommandListener::handle)
                                 .then()
 
-                        Mono.`when`(onReady, onRoleDelete, onCommand, onSlashCommand)
+                        Mono.`when`(
+                                onReady,
+                                onRoleDelete,
+                                onGuildDelete,
+                                onTextChannelDelete,
+                                onNewsChannelDelete,
+                                onMemberLeave,
+                                onCommand,
+                                onSlashCommand
+                        )
                     }.block()
         }
     }
@@ -115,7 +164,10 @@ class DisCalClient {
     fun onShutdown() {
         LOGGER.info(STATUS, "Shutting down shard")
 
+        DiscalCache.saveSnapshot()
         DatabaseManager.disconnectFromMySQL()
+        DiscalCache.disconnectInvalidationBus()
+        DiscalCache.disconnectRemoteCache()
 
         client?.logout()?.subscribe()
     }
@@ -0,0 +1,17 @@
+package org.dreamexposure.discal.client.listeners.discord
+
+import discord4j.core.event.domain.channel.NewsChannelDeleteEvent
+import discord4j.core.event.domain.channel.TextChannelDeleteEvent
+import org.dreamexposure.discal.core.database.DatabaseManager
+import reactor.core.publisher.Mono
+
+object ChannelDeleteListener {
+
+    fun handle(event: TextChannelDeleteEvent): Mono<Void> {
+        return DatabaseManager.cleanUpDeletedChannel(event.channel.guildId, event.channel.id).then()
+    }
+
+    fun handle(event: NewsChannelDeleteEvent): Mono<Void> {
+        return DatabaseManager.cleanUpDeletedChannel(event.channel.guildId, event.channel.id).then()
+    }
+}
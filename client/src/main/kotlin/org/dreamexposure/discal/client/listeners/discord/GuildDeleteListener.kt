@@ -0,0 +1,19 @@
+package org.dreamexposure.discal.client.listeners.discord
+
+import discord4j.core.event.domain.guild.GuildDeleteEvent
+import org.dreamexposure.discal.core.cache.CacheInvalidation
+import org.dreamexposure.discal.core.cache.DiscalCache
+import reactor.core.publisher.Mono
+
+object GuildDeleteListener {
+
+    fun handle(event: GuildDeleteEvent): Mono<Void> {
+        return Mono.defer {
+            // Unavailable means a discord outage, we are still in the guild
+            if (event.isUnavailable) return@defer Mono.empty<Void>()
+
+            // Only drop what is cached, data is kept so nothing is lost if the bot is invited back
+            DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.GUILD, event.guildId))
+        }
+    }
+}
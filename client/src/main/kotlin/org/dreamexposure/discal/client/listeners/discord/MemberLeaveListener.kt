@@ -0,0 +1,15 @@
+package org.dreamexposure.discal.client.listeners.discord
+
+import discord4j.core.event.domain.guild.MemberLeaveEvent
+import org.dreamexposure.discal.core.database.DatabaseManager
+import reactor.core.publisher.Mono
+
+object MemberLeaveListener {
+
+    /**
+     * Handles a batch of leaves at once, members tend to leave in bursts (prunes, raids) and each needs two writes.
+     */
+    fun handle(events: List<MemberLeaveEvent>): Mono<Void> {
+        return DatabaseManager.cleanUpLeftMembers(events.map { it.guildId to it.user.id }).then()
+    }
+}
@@ -2,16 +2,24 @@ package org.dreamexposure.discal.client.listeners.discord
 
 import discord4j.core.event.domain.lifecycle.ReadyEvent
 import discord4j.rest.util.Image
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
 import org.dreamexposure.discal.client.message.Messages
+import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
 import org.dreamexposure.discal.core.utils.GlobalVal.STATUS
 import org.dreamexposure.discal.core.utils.GlobalVal.iconUrl
 import reactor.core.publisher.Mono
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 object ReadyEventListener {
+    private val warmUpPending = Metrics.gauge("discal.cache.warmup.pending", AtomicInteger())!!
+
     fun handle(event: ReadyEvent): Mono<Void> {
-        return event.client.applicationInfo
+        val ready = event.client.applicationInfo
               .doOnNext { iconUrl = it.getIconUrl(Image.Format.PNG).get() }
               .doOnNext { LOGGER.info(STATUS, "Ready event success!") }
               .then(Messages.reloadLangs())
@@ -19,5 +27,41 @@ object ReadyEventListener {
                   LOGGER.error(DEFAULT, "Failed to handle ready event")
                   Mono.empty()
               }.then()
+
+        return Mono.`when`(ready, warmSettings(event))
+    }
+
+    /**
+     * Loads settings for every guild on the shard in bulk, rather than one query per guild as they get used.
+     */
+    private fun warmSettings(event: ReadyEvent): Mono<Void> {
+        return Mono.defer {
+            val shard = event.shardInfo.index.toString()
+            val guildIds = event.guilds.map { it.id }.filterNot(DiscalCache::hasSettings)
+            if (guildIds.isEmpty()) return@defer Mono.empty()
+
+            val warmed = Metrics.counter("discal.cache.warmup.guilds", "shard", shard)
+            val start = System.nanoTime()
+            warmUpPending.addAndGet(guildIds.size)
+
+            DatabaseManager.getManySettings(guildIds)
+                .doOnNext {
+                    warmed.increment()
+                    warmUpPending.decrementAndGet()
+                }.count()
+                .doOnNext { count ->
+                    val nanos = System.nanoTime() - start
+                    Timer.builder("discal.cache.warmup.duration")
+                          .tag("shard", shard)
+                          .register(Metrics.globalRegistry)
+                          .record(nanos, TimeUnit.NANOSECONDS)
+
+                    // Guilds that failed to load are left to load on demand
+                    warmUpPending.addAndGet(-(guildIds.size - count.toInt()))
+
+                    LOGGER.info(STATUS, "Warmed settings for $count/${guildIds.size} guilds on shard $shard in " +
+                          "${TimeUnit.NANOSECONDS.toMillis(nanos)}ms")
+                }.then()
+        }
     }
 }
@@ -7,6 +7,7 @@ import discord4j.core.`object`.entity.channel.GuildMessageChannel
 import discord4j.core.spec.MessageCreateSpec
 import discord4j.rest.http.client.ClientException
 import io.netty.handler.codec.http.HttpResponseStatus
+import org.dreamexposure.discal.Application.Companion.getShardIndex
 import org.dreamexposure.discal.client.DisCalClient
 import org.dreamexposure.discal.client.message.embed.AnnouncementEmbed
 import org.dreamexposure.discal.core.`object`.announcement.Announcement
@@ -20,19 +21,22 @@ import org.dreamexposure.discal.core.extensions.discord4j.getCalendar
 import org.dreamexposure.discal.core.extensions.messageContentSafe
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal
+import org.dreamexposure.discal.core.utils.LongConcurrentMap
 import org.springframework.boot.ApplicationArguments
 import org.springframework.boot.ApplicationRunner
 import org.springframework.stereotype.Component
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import java.time.Duration
-import java.util.concurrent.ConcurrentHashMap
+import java.time.Instant
 
 @Component
 class AnnouncementService : ApplicationRunner {
     private val maxDifferenceMs = Duration.ofMinutes(5).toMillis()
+    private val maxSleep = Duration.ofMinutes(30)
+    private val maxConcurrentGuilds = 32
 
-    private val cached = ConcurrentHashMap<Snowflake, AnnouncementCache>()
+    private val cached = LongConcurrentMap<AnnouncementCache>()
 
     // Start
     override fun run(args: ApplicationArguments?) {
@@ -48,32 +52,15 @@ class AnnouncementService : ApplicationRunner {
         //TODO: This should come in through DI once other legacy is removed/rewritten
         if (DisCalClient.client == null) return Mono.empty()
 
-        return DisCalClient.client!!.guilds.flatMap { guild ->
-            DatabaseManager.getEnabledAnnouncements(guild.id).flatMapMany { Flux.fromIterable(it) }.flatMap { announcement ->
-                when (announcement.modifier) {
-                    AnnouncementModifier.BEFORE -> handleBeforeModifier(guild, announcement)
-                    AnnouncementModifier.DURING -> handleDuringModifier(guild, announcement)
-                    AnnouncementModifier.END -> handleEndModifier(guild, announcement)
-                }
-            }.doOnError {
-                LOGGER.error(GlobalVal.DEFAULT, "Announcement error", it)
-            }.onErrorResume { Mono.empty() }
-        }.doOnError {
-            LOGGER.error(GlobalVal.DEFAULT, "Announcement error", it)
-        }.onErrorResume {
-            Mono.empty()
-        }.doFinally {
-            cached.clear()
-        }.then()
-        /*
-        // Get announcements for this shard, then group by guild to make caching easier
-        return DatabaseManager.getAnnouncementsForShard(Application.getShardCount(), getShardIndex().toInt()).map { list ->
-            list.groupBy { it.guildId }
-        }.flatMapMany { groupedAnnouncements ->
-            Flux.fromIterable(groupedAnnouncements.entries).flatMap { entry ->
-                DisCalClient.client!!.getGuildById(entry.key).flatMapMany { guild ->
-                    val announcements = groupedAnnouncements[guild.id] ?: emptyList()
+        val dueBy = Instant.now().plusMillis(maxDifferenceMs)
+
+        // Only announcements due within this cycle's window are streamed, one guild at a time to make caching easier
+        return DatabaseManager.getDueAnnouncementsForShard(getShardIndex().toInt(), dueBy)
+            .bufferUntilChanged(Announcement::guildId)
+            .flatMap({ announcements ->
+                val guildId = announcements.first().guildId
 
+                DisCalClient.client!!.getGuildById(guildId).flatMapMany { guild ->
                     Flux.fromIterable(announcements).flatMap { announcement ->
                         when (announcement.modifier) {
                             AnnouncementModifier.BEFORE -> handleBeforeModifier(guild, announcement)
@@ -84,73 +71,85 @@ class AnnouncementService : ApplicationRunner {
                         LOGGER.error(GlobalVal.DEFAULT, "Announcement error", it)
                     }.onErrorResume { Mono.empty() }
                 }.onErrorResume(ClientException.isStatusCode(403)) {
-                    //FIXME: great way to wipe the database, not sure what the fuck happened here.
-                    // DisCal is no longer in the guild, remove all it's from the database
-
-                    //DatabaseManager.deleteAllDataForGuild(entry.key).then()
+                    // Not in the guild anymore, data will be cleaned up when we are told we were removed
                     Mono.empty()
+                }.doFinally {
+                    // Guilds are streamed in order, nothing will need this guild's cached calendars again this cycle
+                    cached.remove(guildId)
                 }
-            }
-        */
+            }, maxConcurrentGuilds)
+            .doOnError { LOGGER.error(GlobalVal.DEFAULT, "Announcement error", it) }
+            .onErrorResume { Mono.empty() }
+            .doFinally { cached.clear() }
+            .then()
     }
 
     // Modifier handling
     private fun handleBeforeModifier(guild: Guild, announcement: Announcement): Mono<Void> {
-        when (announcement.type) {
-            SPECIFIC -> {
-                return getCalendar(guild, announcement)
-                    .flatMap { it.getEvent(announcement.eventId) }
-                    //Event announcement is tied to was deleted -- This should now be handled at a lower level
-                    //.switchIfEmpty(DatabaseManager.deleteAnnouncement(announcement.id.toString()).then(Mono.empty()))
-                    .filterWhen { isInRange(announcement, it) }
-                    .flatMap { sendAnnouncement(guild, announcement, it) }
-                    // Delete specific announcement after posted
-                    .flatMap { DatabaseManager.deleteAnnouncement(announcement.id) }
-                    .then()
-            }
-            UNIVERSAL -> {
-                return getEvents(guild, announcement)
-                    .filterWhen { isInRange(announcement, it) }
-                    .flatMap { sendAnnouncement(guild, announcement, it) }
-                    .then()
-            }
-            COLOR -> {
-                return getEvents(guild, announcement)
-                    .filter { it.color == announcement.eventColor }
-                    .filterWhen { isInRange(announcement, it) }
-                    .flatMap { sendAnnouncement(guild, announcement, it) }
-                    .then()
-            }
-            RECUR -> {
-                return getEvents(guild, announcement)
-                    .filter { it.eventId.contains("_") && it.eventId.split("_")[0] == announcement.eventId }
-                    .filterWhen { isInRange(announcement, it) }
-                    .flatMap { sendAnnouncement(guild, announcement, it) }
-                    .then()
-            }
+        val events = when (announcement.type) {
+            SPECIFIC -> getCalendar(guild, announcement)
+                .flatMap { it.getEvent(announcement.eventId) }
+                .flux()
+                .cache()
+            UNIVERSAL -> getEvents(guild, announcement)
+            COLOR -> getEvents(guild, announcement)
+                .filter { it.color == announcement.eventColor }
+            RECUR -> getEvents(guild, announcement)
+                .filter { it.eventId.contains("_") && it.eventId.split("_")[0] == announcement.eventId }
         }
+
+        return events
+            .filterWhen { isInRange(announcement, it) }
+            .flatMap { sendAnnouncement(guild, announcement, it) }
+            .collectList()
+            .flatMap { sent ->
+                // Delete specific announcement after posted
+                if (announcement.type == SPECIFIC && sent.isNotEmpty())
+                    DatabaseManager.deleteAnnouncement(announcement.id).then()
+                else scheduleNextFire(announcement, events)
+            }
     }
 
     @Suppress("UNUSED_PARAMETER")
     private fun handleDuringModifier(guild: Guild, announcement: Announcement): Mono<Void> {
         //TODO: Not yet implemented
 
-        return Mono.empty()
+        return scheduleNextFire(announcement, Flux.empty())
     }
 
     @Suppress("UNUSED_PARAMETER")
     private fun handleEndModifier(guild: Guild, announcement: Announcement): Mono<Void> {
         //TODO: Not yet implemented
 
-        return Mono.empty()
+        return scheduleNextFire(announcement, Flux.empty())
     }
 
     // Utility
-    private fun isInRange(announcement: Announcement, event: Event): Mono<Boolean> {
-        val announcementTime = Duration
+    private fun announcementOffset(announcement: Announcement): Duration {
+        return Duration
             .ofHours(announcement.hoursBefore.toLong())
             .plusMinutes(announcement.minutesBefore.toLong())
-            .toMillis()
+    }
+
+    /**
+     * Stores when the announcement next needs to be looked at: the earliest time one of the matching events will come
+     * into range after this cycle's window, capped so events created or edited outside of DisCal are still picked up.
+     */
+    private fun scheduleNextFire(announcement: Announcement, events: Flux<Event>): Mono<Void> {
+        val now = Instant.now()
+        val windowEnd = now.plusMillis(maxDifferenceMs)
+        val latest = now.plus(maxSleep)
+
+        return events
+            .map { it.start.minus(announcementOffset(announcement)) }
+            .filter { it.isAfter(windowEnd) }
+            .reduce(latest) { a, b -> minOf(a, b) }
+            .flatMap { DatabaseManager.updateAnnouncementNextFire(announcement.id, it) }
+            .then()
+    }
+
+    private fun isInRange(announcement: Announcement, event: Event): Mono<Boolean> {
+        val announcementTime = announcementOffset(announcement).toMillis()
         val timeUntilEvent = event.start.minusMillis(System.currentTimeMillis()).toEpochMilli()
 
         val difference = timeUntilEvent - announcementTime
@@ -194,7 +193,7 @@ class AnnouncementService : ApplicationRunner {
     private fun getCalendar(guild: Guild, announcement: Announcement): Mono<Calendar> {
         val cached = getCached(announcement.guildId)
 
-        return if (!cached.calendars.contains(announcement.calendarNumber)) {
+        return if (!cached.calendars.containsKey(announcement.calendarNumber)) {
             guild.getCalendar(announcement.calendarNumber)
                 .doOnNext { cached.calendars[it.calendarNumber] = it }
         } else Mono.justOrEmpty(cached.calendars[announcement.calendarNumber])
@@ -203,17 +202,14 @@ class AnnouncementService : ApplicationRunner {
     private fun getEvents(guild: Guild, announcement: Announcement): Flux<Event> {
         val cached = getCached(announcement.guildId)
 
-        return if (!cached.events.contains(announcement.calendarNumber)) {
+        return cached.events.computeIfAbsent(announcement.calendarNumber) {
             getCalendar(guild, announcement).flatMapMany {
-                it.getUpcomingEvents(20).cache()
-            }
-        } else cached.events[announcement.calendarNumber]!!
+                it.getUpcomingEvents(20)
+            }.cache()
+        }
     }
 
     private fun getCached(guildId: Snowflake): AnnouncementCache {
-        if (!cached.contains(guildId))
-            cached[guildId] = AnnouncementCache(guildId)
-
-        return cached[guildId]!!
+        return cached.computeIfAbsent(guildId) { AnnouncementCache(guildId) }
     }
 }
@@ -3,7 +3,6 @@ package org.dreamexposure.discal.client.service
 import discord4j.core.`object`.entity.Guild
 import discord4j.core.spec.MessageEditSpec
 import discord4j.rest.http.client.ClientException
-import org.dreamexposure.discal.Application
 import org.dreamexposure.discal.Application.Companion.getShardIndex
 import org.dreamexposure.discal.client.DisCalClient
 import org.dreamexposure.discal.client.message.embed.CalendarEmbed
@@ -41,8 +40,7 @@ class StaticMessageService : ApplicationRunner {
     private fun doMessageUpdateLogic(): Mono<Void> {
         if (DisCalClient.client == null) return Mono.empty()
 
-        return DatabaseManager.getStaticMessagesForShard(Application.getShardCount(), getShardIndex().toInt())
-                .flatMapMany { Flux.fromIterable(it) }
+        return DatabaseManager.getStaticMessagesForShard(getShardIndex().toInt())
                 //We have no interest in updating the message so close to its last update
                 .filter { Duration.between(Instant.now(), it.lastUpdate).abs().toMinutes() >= 30 }
                 // Only update messages in range
@@ -0,0 +1,175 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementStyle
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.dreamexposure.discal.core.enums.time.TimeFormat
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.time.Instant
+import java.util.*
+
+/**
+ * Compact binary encoding of the values stored in the [remote cache][RemoteCache] and the [CacheSnapshot].
+ *
+ * Every value starts with a format version. Values written in another version decode to null and are treated as a
+ * miss, so a deploy that changes the layout just reloads from the database.
+ */
+internal object CacheCodec {
+    private const val SETTINGS_VERSION: Byte = 1
+    private const val CALENDARS_VERSION: Byte = 1
+    private const val PUBLIC_CALENDARS_VERSION: Byte = 1
+    private const val INVALIDATED_VERSION: Byte = 0
+
+    /**
+     * A marker left in place of an invalidated value. It decodes to null like any other version, and is unique so a
+     * fill that read the key before this invalidation can't replace it.
+     */
+    fun invalidated(): ByteArray {
+        val id = UUID.randomUUID()
+
+        return ByteBuffer.allocate(17)
+            .put(INVALIDATED_VERSION)
+            .putLong(id.mostSignificantBits)
+            .putLong(id.leastSignificantBits)
+            .array()
+    }
+
+    fun encodeSettings(settings: GuildSettings): ByteArray = write { out ->
+        out.writeByte(SETTINGS_VERSION.toInt())
+        out.writeLong(settings.guildID.asLong())
+        out.writeUTF(settings.controlRole)
+        out.writeInt(settings.announcementStyle.value)
+        out.writeInt(settings.timeFormat.value)
+        out.writeUTF(settings.lang)
+        out.writeUTF(settings.prefix)
+        out.writeBoolean(settings.patronGuild)
+        out.writeBoolean(settings.devGuild)
+        out.writeInt(settings.maxCalendars)
+        out.writeBoolean(settings.branded)
+
+        out.writeInt(settings.dmAnnouncements.size)
+        settings.dmAnnouncements.forEach(out::writeUTF)
+    }
+
+    fun decodeSettings(bytes: ByteArray): GuildSettings? = read(bytes) { input ->
+        if (input.readByte() != SETTINGS_VERSION) return@read null
+
+        val settings = GuildSettings(
+            guildID = Snowflake.of(input.readLong()),
+            controlRole = input.readUTF(),
+            announcementStyle = AnnouncementStyle.fromValue(input.readInt()),
+            timeFormat = TimeFormat.fromValue(input.readInt()),
+            lang = input.readUTF(),
+            prefix = input.readUTF(),
+            patronGuild = input.readBoolean(),
+            devGuild = input.readBoolean(),
+            maxCalendars = input.readInt(),
+            branded = input.readBoolean(),
+        )
+
+        repeat(input.readInt()) { settings.dmAnnouncements.add(input.readUTF()) }
+
+        settings
+    }
+
+    fun encodeCalendars(calendars: List<CalendarData>): ByteArray = write { out ->
+        out.writeByte(CALENDARS_VERSION.toInt())
+        out.writeInt(calendars.size)
+
+        calendars.forEach {
+            out.writeLong(it.guildId.asLong())
+            out.writeInt(it.calendarNumber)
+            out.writeUTF(it.host.name)
+            out.writeUTF(it.calendarId)
+            out.writeUTF(it.calendarAddress)
+            out.writeBoolean(it.external)
+            out.writeInt(it.credentialId)
+            out.writeUTF(it.privateKey)
+            out.writeUTF(it.encryptedAccessToken)
+            out.writeUTF(it.encryptedRefreshToken)
+            out.writeLong(it.expiresAt.toEpochMilli())
+        }
+    }
+
+    fun decodeCalendars(bytes: ByteArray): List<CalendarData>? = read(bytes) { input ->
+        if (input.readByte() != CALENDARS_VERSION) return@read null
+
+        List(input.readInt()) {
+            CalendarData(
+                guildId = Snowflake.of(input.readLong()),
+                calendarNumber = input.readInt(),
+                host = CalendarHost.valueOf(input.readUTF()),
+                calendarId = input.readUTF(),
+                calendarAddress = input.readUTF(),
+                external = input.readBoolean(),
+                credentialId = input.readInt(),
+                privateKey = input.readUTF(),
+                encryptedAccessToken = input.readUTF(),
+                encryptedRefreshToken = input.readUTF(),
+                expiresAt = Instant.ofEpochMilli(input.readLong()),
+            )
+        }
+    }
+
+    /**
+     * Encodes calendars without their private key, tokens or token expiry, for values written to local disk.
+     */
+    fun encodePublicCalendars(calendars: List<CalendarData>): ByteArray = write { out ->
+        out.writeByte(PUBLIC_CALENDARS_VERSION.toInt())
+        out.writeInt(calendars.size)
+
+        calendars.forEach {
+            out.writeLong(it.guildId.asLong())
+            out.writeInt(it.calendarNumber)
+            out.writeUTF(it.host.name)
+            out.writeUTF(it.calendarId)
+            out.writeUTF(it.calendarAddress)
+            out.writeBoolean(it.external)
+            out.writeInt(it.credentialId)
+        }
+    }
+
+    /**
+     * Decodes calendars written by [encodePublicCalendars]. The secrets left out of them get [CalendarData]'s
+     * defaults, so only calendars that don't use them, the ones not [external][CalendarData.external], are usable.
+     */
+    fun decodePublicCalendars(bytes: ByteArray): List<CalendarData>? = read(bytes) { input ->
+        if (input.readByte() != PUBLIC_CALENDARS_VERSION) return@read null
+
+        List(input.readInt()) {
+            CalendarData(
+                guildId = Snowflake.of(input.readLong()),
+                calendarNumber = input.readInt(),
+                host = CalendarHost.valueOf(input.readUTF()),
+                calendarId = input.readUTF(),
+                calendarAddress = input.readUTF(),
+                external = input.readBoolean(),
+                credentialId = input.readInt(),
+            )
+        }
+    }
+
+    private fun write(block: (DataOutputStream) -> Unit): ByteArray {
+        val bytes = ByteArrayOutputStream(128)
+        DataOutputStream(bytes).use(block)
+
+        return bytes.toByteArray()
+    }
+
+    private fun <T> read(bytes: ByteArray, block: (DataInputStream) -> T?): T? {
+        return try {
+            DataInputStream(ByteArrayInputStream(bytes)).use(block)
+        } catch (e: IOException) {
+            null
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+
+/**
+ * Tells every node which cached keys were changed by a write, so they can be evicted instead of served until they expire.
+ *
+ * @param calendarNumber Only used by [Kind.EVENTS]
+ * @param origin The node that made the write, set by [DiscalCache] when publishing
+ */
+data class CacheInvalidation(
+    val kind: Kind,
+    val guildId: Snowflake,
+    val calendarNumber: Int = 0,
+    val origin: String = "",
+) {
+    fun encode() = "$origin|${kind.name}|${guildId.asString()}|$calendarNumber"
+
+    enum class Kind {
+        /** The guild's settings */
+        SETTINGS,
+
+        /** The guild's calendars, and with them every calendar's events */
+        CALENDARS,
+
+        /** One calendar's events */
+        EVENTS,
+
+        /** Everything cached for the guild */
+        GUILD,
+    }
+
+    companion object {
+        /**
+         * @return The decoded invalidation, or null if the message is not one
+         */
+        fun decode(message: String): CacheInvalidation? {
+            val parts = message.split('|')
+            if (parts.size != 4) return null
+
+            return try {
+                CacheInvalidation(
+                    kind = Kind.valueOf(parts[1]),
+                    guildId = Snowflake.of(parts[2]),
+                    calendarNumber = parts[3].toInt(),
+                    origin = parts[0],
+                )
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.utils.LongConcurrentMap
+import java.io.BufferedOutputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.BufferUnderflowException
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.nio.file.attribute.PosixFilePermissions
+import java.time.Duration
+
+/**
+ * Cache contents written to local disk when a node shuts down, so it comes back with a warm cache after a restart.
+ *
+ * The file is memory-mapped on load and only indexed, each guild's values are decoded (with [CacheCodec]) when they are
+ * asked for. It is only a fallback for when the database can't be reached, and can still be behind writes other nodes
+ * made while this one was down. A snapshot older than its max age is never read.
+ */
+internal class CacheSnapshot private constructor(
+    private val buffer: MappedByteBuffer,
+    private val writtenAt: Long,
+    private val maxAge: Duration,
+    private val settings: LongConcurrentMap<Int>,
+    private val calendars: LongConcurrentMap<Int>,
+) {
+    val settingsCount: Int
+        get() = settings.size
+
+    val calendarsCount: Int
+        get() = calendars.size
+
+    val age: Duration
+        get() = Duration.ofMillis(System.currentTimeMillis() - writtenAt)
+
+    val isStale: Boolean
+        get() = age > maxAge
+
+    val isEmpty: Boolean
+        get() = settings.isEmpty() && calendars.isEmpty()
+
+    fun getSettings(guildId: Snowflake): GuildSettings? {
+        val position = settings[guildId] ?: return null
+
+        return CacheCodec.decodeSettings(read(position))
+    }
+
+    fun getCalendars(guildId: Snowflake): List<CalendarData>? {
+        val position = calendars[guildId] ?: return null
+
+        return CacheCodec.decodePublicCalendars(read(position))
+    }
+
+    fun forget(invalidation: CacheInvalidation) {
+        val guildId = invalidation.guildId
+
+        when (invalidation.kind) {
+            CacheInvalidation.Kind.SETTINGS -> settings.remove(guildId)
+            CacheInvalidation.Kind.CALENDARS -> calendars.remove(guildId)
+            CacheInvalidation.Kind.EVENTS -> {}
+            CacheInvalidation.Kind.GUILD -> {
+                settings.remove(guildId)
+                calendars.remove(guildId)
+            }
+        }
+    }
+
+    private fun read(position: Int): ByteArray {
+        val bytes = ByteArray(buffer.getInt(position))
+        buffer.get(position + Int.SIZE_BYTES, bytes)
+
+        return bytes
+    }
+
+    companion object {
+        private const val MAGIC = 0x4443534E // "DCSN"
+        private const val VERSION: Byte = 2
+
+        private val OWNER_ONLY = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))
+
+        /**
+         * Writes the snapshot next to [path] first and moves it into place, so a crash mid-write can't leave a torn
+         * file behind to be loaded. The file is only readable by its owner where the file system has permissions.
+         * Calendars are written without their secrets, see [CacheCodec.encodePublicCalendars].
+         */
+        fun write(path: Path, settings: Collection<GuildSettings>, calendars: Map<Snowflake, List<CalendarData>>) {
+            path.toAbsolutePath().parent?.let(Files::createDirectories)
+            val temp = path.resolveSibling("${path.fileName}.tmp")
+
+            Files.deleteIfExists(temp)
+            if ("posix" in temp.fileSystem.supportedFileAttributeViews()) Files.createFile(temp, OWNER_ONLY)
+
+            DataOutputStream(BufferedOutputStream(Files.newOutputStream(temp))).use { out ->
+                out.writeInt(MAGIC)
+                out.writeByte(VERSION.toInt())
+                out.writeLong(System.currentTimeMillis())
+
+                out.writeInt(settings.size)
+                settings.forEach { writeEntry(out, it.guildID, CacheCodec.encodeSettings(it)) }
+
+                out.writeInt(calendars.size)
+                calendars.forEach { (guildId, data) ->
+                    writeEntry(out, guildId, CacheCodec.encodePublicCalendars(data))
+                }
+            }
+
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        }
+
+        /**
+         * Maps and indexes the snapshot at [path], deleting the file so it is only ever loaded once.
+         *
+         * @return The snapshot, or null if there is none, it is too old, or it can't be read
+         */
+        fun open(path: Path, maxAge: Duration): CacheSnapshot? {
+            if (!Files.exists(path)) return null
+
+            try {
+                // The mapping outlives both the channel and the file
+                val buffer = FileChannel.open(path, StandardOpenOption.READ).use {
+                    it.map(FileChannel.MapMode.READ_ONLY, 0, it.size())
+                }
+                Files.delete(path)
+
+                if (buffer.int != MAGIC || buffer.get() != VERSION) return null
+
+                val writtenAt = buffer.long
+                if (System.currentTimeMillis() - writtenAt > maxAge.toMillis()) return null
+
+                val settings = index(buffer)
+                val calendars = index(buffer)
+
+                return CacheSnapshot(buffer, writtenAt, maxAge, settings, calendars)
+            } catch (e: BufferUnderflowException) {
+                throw IOException("Truncated cache snapshot", e)
+            } catch (e: IllegalArgumentException) {
+                throw IOException("Corrupt cache snapshot", e)
+            }
+        }
+
+        private fun writeEntry(out: DataOutputStream, guildId: Snowflake, value: ByteArray) {
+            out.writeLong(guildId.asLong())
+            out.writeInt(value.size)
+            out.write(value)
+        }
+
+        // Records where each guild's value starts, skipping over the values themselves
+        private fun index(buffer: MappedByteBuffer): LongConcurrentMap<Int> {
+            val count = buffer.int
+            val index = LongConcurrentMap<Int>(count)
+
+            repeat(count) {
+                val guildId = buffer.long
+                val position = buffer.position()
+
+                index[guildId] = position
+                buffer.position(position + Int.SIZE_BYTES + buffer.int)
+            }
+
+            return index
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.dreamexposure.discal.core.cache
+
+import org.dreamexposure.discal.core.extensions.google.asInstant
+import java.time.ZoneId
+import com.google.api.services.calendar.model.Event as GoogleEventModel
+
+/**
+ * A cached google event alongside its start and end as epoch millis in the calendar's timezone, and an estimate of
+ * its heap size.
+ *
+ * Google's models are mutable and callers edit the events they get, so every reader is handed its own [copy].
+ */
+internal class CachedEvent(val event: GoogleEventModel, val start: Long, val end: Long, val bytes: Int) {
+    fun copy(): GoogleEventModel = event.clone()
+
+    companion object {
+        fun of(event: GoogleEventModel, zone: ZoneId): CachedEvent {
+            val start = event.start?.asInstant(zone)?.toEpochMilli() ?: Long.MIN_VALUE
+            val end = event.end?.asInstant(zone)?.toEpochMilli() ?: Long.MAX_VALUE
+
+            return CachedEvent(event, start, end, estimateBytes(event))
+        }
+
+        // Rough heap footprint: google's models are maps of strings, numbers and nested maps/lists
+        fun estimateBytes(value: Any?): Int = when (value) {
+            null -> 0
+            is String -> 40 + value.length * 2
+            is Map<*, *> -> 64 + value.entries.sumOf { 32 + estimateBytes(it.key) + estimateBytes(it.value) }
+            is Collection<*> -> 32 + value.sumOf { 8 + estimateBytes(it) }
+            else -> 24
+        }
+    }
+}
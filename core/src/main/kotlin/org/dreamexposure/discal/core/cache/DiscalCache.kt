@@ -1,54 +1,623 @@
 package org.dreamexposure.discal.core.cache
 
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.google.api.services.calendar.model.Events
 import discord4j.common.util.Snowflake
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics
+import org.dreamexposure.discal.core.`object`.BotSettings
 import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
 import org.dreamexposure.discal.core.entities.Calendar
-import reactor.core.publisher.Flux
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import org.dreamexposure.discal.core.utils.GlobalVal.STATUS
+import reactor.core.Disposable
+import reactor.core.publisher.Mono
+import reactor.core.scheduler.Schedulers
+import reactor.util.retry.Retry
+import java.nio.file.Path
 import java.time.Duration
+import java.time.ZoneId
+import java.util.*
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+import com.google.api.services.calendar.model.Event as GoogleEventModel
 
-//TODO: Eventually use redis instead of in-memory so these can be shared across the whole discal network and need less time for eventual consistency.
 object DiscalCache {
-    //guild id -> settings
-    val guildSettings: MutableMap<Snowflake, GuildSettings> = ConcurrentHashMap()
+    const val SETTINGS_REGION = "guild_settings"
+    const val CALENDARS_REGION = "calendars"
+    const val EVENTS_REGION = "events"
+    const val MIRROR_REGION = "event_mirror"
+
+    //guild id -> settings, guilds without a settings row hold their defaults so they don't hit the database every time
+    private val guildSettings: Cache<Snowflake, GuildSettings> = Caffeine.newBuilder()
+        .maximumSize(100_000)
+        .expireAfter(JitteredExpiry<Snowflake, GuildSettings>(Duration.ofMinutes(15)))
+        .recordStats()
+        .build()
+
     //guild id -> cal num -> calendar
-    private val calendars: MutableMap<Snowflake, ConcurrentHashMap<Int, Calendar>> = ConcurrentHashMap()
+    private val calendars: Cache<Snowflake, GuildCalendars> = Caffeine.newBuilder()
+        .maximumSize(20_000)
+        .expireAfter(JitteredExpiry<Snowflake, GuildCalendars>(Duration.ofMinutes(15)))
+        .recordStats()
+        .build()
+
+    //guild id + cal num -> google event lists, only kept for a minute as events can be changed outside of discal
+    private val events = EventListCache(Duration.ofMinutes(1), 64L * 1024 * 1024)
+
+    //guild id + cal num -> every google event, synced incrementally. Off unless EVENT_MIRROR is true, reads go here first
+    private val mirror = if (BotSettings.EVENT_MIRROR.getOrDefault("false").toBoolean()) {
+        val staleness = BotSettings.EVENT_MIRROR_MAX_STALENESS_SECONDS.getOrDefault("60").toLong()
+        EventMirror(Duration.ofSeconds(staleness), 256L * 1024 * 1024)
+    } else null
+
+    //Identifies this node's invalidations on the bus, so it doesn't evict what it just wrote
+    private val nodeId = UUID.randomUUID().toString()
+    private var bus: InvalidationBus? = null
+    private var busSubscription: Disposable? = null
+
+    //Shared by every node, values are only read when missing from this node's cache
+    private var remote: RemoteCache? = null
+    private val REMOTE_SETTINGS_TTL = Duration.ofHours(6)
+    // Shorter as calendars aren't written through, every write leaves a miss for the next read to fill
+    private val REMOTE_CALENDARS_TTL = Duration.ofMinutes(30)
+
+    //Left on disk by the last shutdown, only read when the database fails, until it gets too old
+    @Volatile
+    private var snapshot: CacheSnapshot? = null
+
+    //Entries read within this long of expiring are reloaded in the background
+    private val REFRESH_AHEAD_WINDOW = Duration.ofMinutes(3)
+    private const val MAX_REFRESHES = 32
+    private val refreshScheduler = Schedulers.newBoundedElastic(4, MAX_REFRESHES, "discal-cache-refresh")
+    private val refreshing: MutableSet<FlightKey> = ConcurrentHashMap.newKeySet()
+
+    //Bumped by every write and eviction, so a load or refresh that started before one can't put back what it replaced
+    private const val GENERATION_STRIPES = 64
+    private val generations = AtomicLongArray(GENERATION_STRIPES)
+
+    private val loadTimers = ConcurrentHashMap<String, Timer>()
+    private val coalescedCounters = ConcurrentHashMap<String, Counter>()
+
+    //Loads currently running, shared by every caller that misses on the same key while they run
+    private val inFlight = ConcurrentHashMap<FlightKey, Mono<*>>()
 
     init {
-        //Automatically clear caches every so often...
-        Flux.interval(Duration.ofMinutes(15))
-            .doOnEach { invalidateAll() }
+        // Hit, miss, eviction and size stats are exported as cache.* meters tagged with the region name
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, guildSettings, SETTINGS_REGION)
+        CaffeineCacheMetrics.monitor(Metrics.globalRegistry, calendars, CALENDARS_REGION)
+    }
+
+    fun invalidateAll() {
+        for (i in 0 until GENERATION_STRIPES) generations.incrementAndGet(i)
+        guildSettings.invalidateAll()
+        calendars.invalidateAll()
+        events.invalidateAll()
+        mirror?.invalidateAll()
+    }
+
+    /**
+     * Starts evicting keys invalidated by writes on other nodes, and publishing this node's own invalidations to them.
+     */
+    fun connectInvalidationBus(bus: InvalidationBus) {
+        disconnectInvalidationBus()
+
+        this.bus = bus
+        busSubscription = bus.receive()
+            .filter { it.origin != nodeId }
+            .doOnNext(::evict)
+            .doOnError { LOGGER.error(DEFAULT, "Cache invalidation bus failure", it) }
+            .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofMinutes(1)))
             .subscribe()
     }
 
+    fun disconnectInvalidationBus() {
+        busSubscription?.dispose()
+        bus?.close()
 
-    fun invalidateAll() {
-        guildSettings.clear()
-        calendars.clear()
+        busSubscription = null
+        bus = null
+    }
+
+    /**
+     * Evicts the invalidated keys from the remote cache, this node and every other node on the bus. Completes once
+     * this node has evicted them, failures to reach the remote cache or the bus are logged and skipped.
+     */
+    fun invalidate(invalidation: CacheInvalidation): Mono<Void> {
+        // Nodes reload from the remote cache after evicting, so it has to be marked invalid first. Evicting after the
+        // mark also drops anything this node loaded from the remote cache before it
+        return evictRemote(invalidation)
+            .then(Mono.fromRunnable<Void> { evict(invalidation) })
+            .then(publish(invalidation))
+    }
+
+    /**
+     * Evicts the invalidated keys on every other node, for writes that already updated this node's cache.
+     */
+    fun publishInvalidation(invalidation: CacheInvalidation) {
+        publish(invalidation).subscribe()
+    }
+
+    private fun publish(invalidation: CacheInvalidation): Mono<Void> {
+        val bus = this.bus ?: return Mono.empty()
+
+        return bus.publish(invalidation.copy(origin = nodeId))
+            .doOnError { LOGGER.error(DEFAULT, "Failed to publish cache invalidation", it) }
+            .onErrorResume { Mono.empty() }
+    }
+
+    private fun evict(invalidation: CacheInvalidation) {
+        val guildId = invalidation.guildId
+        snapshot?.forget(invalidation)
+
+        when (invalidation.kind) {
+            CacheInvalidation.Kind.SETTINGS -> removeSettings(guildId)
+            CacheInvalidation.Kind.CALENDARS -> {
+                removeCalendars(guildId)
+                events.invalidateGuild(guildId)
+                mirror?.invalidateGuild(guildId)
+            }
+            CacheInvalidation.Kind.EVENTS -> {
+                events.invalidate(guildId, invalidation.calendarNumber)
+                mirror?.markStale(guildId, invalidation.calendarNumber)
+            }
+            CacheInvalidation.Kind.GUILD -> {
+                removeSettings(guildId)
+                removeCalendars(guildId)
+                events.invalidateGuild(guildId)
+                mirror?.invalidateGuild(guildId)
+            }
+        }
+    }
+
+    private fun evictRemote(invalidation: CacheInvalidation): Mono<Void> {
+        val guildId = invalidation.guildId
+
+        return when (invalidation.kind) {
+            CacheInvalidation.Kind.SETTINGS -> remoteInvalidate(settingsKey(guildId), REMOTE_SETTINGS_TTL)
+            CacheInvalidation.Kind.CALENDARS -> remoteInvalidate(calendarsKey(guildId), REMOTE_CALENDARS_TTL)
+            CacheInvalidation.Kind.EVENTS -> Mono.empty()
+            CacheInvalidation.Kind.GUILD -> remoteInvalidate(settingsKey(guildId), REMOTE_SETTINGS_TTL)
+                .then(remoteInvalidate(calendarsKey(guildId), REMOTE_CALENDARS_TTL))
+        }
+    }
+
+    /**
+     * Puts the remote cache between this node's cache and the database, null to only cache in memory.
+     */
+    fun connectRemoteCache(remote: RemoteCache?) {
+        disconnectRemoteCache()
+        this.remote = remote
+    }
+
+    fun disconnectRemoteCache() {
+        remote?.close()
+        remote = null
+    }
+
+    val remoteEnabled: Boolean
+        get() = remote != null
+
+    /**
+     * Reads the guild's settings from the remote cache. Callers keep a hit with [fillSettings], and pass a miss on to
+     * [fillRemoteSettings] once loaded from the database.
+     */
+    fun getRemoteSettings(guildId: Snowflake): Mono<RemoteRead<GuildSettings>> {
+        return remoteGet(SETTINGS_REGION, settingsKey(guildId), CacheCodec::decodeSettings)
+    }
+
+    /**
+     * Fills the remote cache with settings loaded from the database after [read] missed. Nothing is stored if the key
+     * changed since, as the settings may have been loaded before that write or invalidation.
+     */
+    fun fillRemoteSettings(settings: GuildSettings, read: RemoteRead<*>) {
+        remoteFill(settingsKey(settings.guildID), read, CacheCodec.encodeSettings(settings), REMOTE_SETTINGS_TTL)
+            .subscribe()
+    }
+
+    /**
+     * Writes saved settings through to the remote cache, then tells every other node to drop their copy.
+     */
+    fun storeSettings(settings: GuildSettings) {
+        val invalidation = CacheInvalidation(CacheInvalidation.Kind.SETTINGS, settings.guildID)
+
+        remoteSet(settingsKey(settings.guildID), CacheCodec.encodeSettings(settings), REMOTE_SETTINGS_TTL)
+            .then(publish(invalidation))
+            .subscribe()
+    }
+
+    fun getRemoteCalendars(guildId: Snowflake): Mono<RemoteRead<List<CalendarData>>> {
+        return remoteGet(CALENDARS_REGION, calendarsKey(guildId), CacheCodec::decodeCalendars)
+    }
+
+    /**
+     * Fills the remote cache with all of a guild's calendars loaded from the database after [read] missed, the same
+     * way as [fillRemoteSettings].
+     */
+    fun fillRemoteCalendars(guildId: Snowflake, calendars: List<CalendarData>, read: RemoteRead<*>) {
+        remoteFill(calendarsKey(guildId), read, CacheCodec.encodeCalendars(calendars), REMOTE_CALENDARS_TTL)
+            .subscribe()
+    }
+
+    private fun <T : Any> remoteGet(region: String, key: String, decode: (ByteArray) -> T?): Mono<RemoteRead<T>> {
+        val remote = this.remote ?: return Mono.just(RemoteRead(null, null))
+
+        return remote.get(key)
+            .map { RemoteRead(decode(it), it) }
+            .defaultIfEmpty(RemoteRead(null, null))
+            .doOnNext { remoteCounter(region, if (it.value != null) "hit" else "miss").increment() }
+            .doOnError { LOGGER.error(DEFAULT, "Failed to read from remote cache", it) }
+            // Filling expects an empty key, which only holds if nothing was written or invalidated for the TTL
+            .onErrorReturn(RemoteRead(null, null))
+    }
+
+    private fun remoteSet(key: String, value: ByteArray, ttl: Duration): Mono<Void> {
+        val remote = this.remote ?: return Mono.empty()
+
+        return remote.set(key, value, ttl)
+            .doOnError { LOGGER.error(DEFAULT, "Failed to write to remote cache", it) }
+            .onErrorResume { Mono.empty() }
+    }
+
+    private fun remoteFill(key: String, read: RemoteRead<*>, value: ByteArray, ttl: Duration): Mono<Void> {
+        val remote = this.remote ?: return Mono.empty()
+
+        return remote.compareAndSet(key, read.held, value, ttl)
+            .doOnError { LOGGER.error(DEFAULT, "Failed to write to remote cache", it) }
+            .onErrorResume { Mono.empty() }
+            .then()
+    }
+
+    // Overwrites rather than deletes, so a fill that read the key before this can't store what it loaded
+    private fun remoteInvalidate(key: String, ttl: Duration): Mono<Void> = remoteSet(key, CacheCodec.invalidated(), ttl)
+
+    private fun remoteCounter(region: String, result: String): Counter {
+        return Metrics.counter("discal.cache.remote", "cache", region, "result", result)
+    }
+
+    private fun settingsKey(guildId: Snowflake) = "discal:settings:${guildId.asString()}"
+
+    private fun calendarsKey(guildId: Snowflake) = "discal:calendars:${guildId.asString()}"
+
+    /**
+     * Writes the settings and complete calendar lists in this node's cache to the file at CACHE_SNAPSHOT_PATH, if
+     * set, for the next start to load. Calendars go to disk without their private key or tokens, and guilds with an
+     * external calendar, which can't be used without them, are left out of the snapshot.
+     */
+    fun saveSnapshot() {
+        val path = snapshotPath() ?: return
+
+        try {
+            val allCalendars = calendars.asMap()
+                .filterValues { guild -> guild.complete && guild.calendars.values.none { it.calendarData.external } }
+                .mapValues { (_, guild) -> guild.calendars.values.map(Calendar::calendarData) }
+
+            CacheSnapshot.write(path, guildSettings.asMap().values, allCalendars)
+            LOGGER.info(STATUS, "Saved cache snapshot of ${guildSettings.estimatedSize()} settings and " +
+                "${allCalendars.size} calendar lists")
+        } catch (e: Exception) {
+            LOGGER.error(DEFAULT, "Failed to save cache snapshot", e)
+        }
+    }
+
+    /**
+     * Loads the snapshot the last shutdown left at CACHE_SNAPSHOT_PATH, if set and no older than
+     * CACHE_SNAPSHOT_MAX_AGE_MINUTES (default 10). Values are only decoded when a guild can't be loaded from the
+     * database, the snapshot is never read ahead of it.
+     */
+    fun loadSnapshot() {
+        val path = snapshotPath() ?: return
+        val maxAge = Duration.ofMinutes(BotSettings.CACHE_SNAPSHOT_MAX_AGE_MINUTES.getOrDefault("10").toLong())
+
+        try {
+            val loaded = CacheSnapshot.open(path, maxAge) ?: return
+            snapshot = loaded
+
+            LOGGER.info(STATUS, "Loaded cache snapshot of ${loaded.settingsCount} settings and " +
+                "${loaded.calendarsCount} calendar lists, saved ${loaded.age.seconds}s ago")
+        } catch (e: Exception) {
+            LOGGER.error(DEFAULT, "Failed to load cache snapshot", e)
+        }
+    }
+
+    /**
+     * Reads the guild's settings from the snapshot, for when they can't be loaded from the database.
+     */
+    fun getSnapshotSettings(guildId: Snowflake): GuildSettings? {
+        val found = liveSnapshot()?.getSettings(guildId) ?: return null
+        snapshotCounter(SETTINGS_REGION).increment()
+
+        return found
+    }
+
+    /**
+     * Reads the guild's calendars from the snapshot, for when they can't be loaded from the database.
+     */
+    fun getSnapshotCalendars(guildId: Snowflake): List<CalendarData>? {
+        val found = liveSnapshot()?.getCalendars(guildId) ?: return null
+        snapshotCounter(CALENDARS_REGION).increment()
+
+        return found
+    }
+
+    // Drops the snapshot once it has nothing left to give or has gone stale
+    private fun liveSnapshot(): CacheSnapshot? {
+        val current = snapshot ?: return null
+
+        if (current.isStale || current.isEmpty) {
+            snapshot = null
+            return null
+        }
+        return current
+    }
+
+    private fun snapshotPath(): Path? {
+        return BotSettings.CACHE_SNAPSHOT_PATH.getOrDefault("").takeIf { it.isNotBlank() }?.let { Path.of(it) }
+    }
+
+    private fun snapshotCounter(region: String): Counter {
+        return Metrics.counter("discal.cache.snapshot", "cache", region)
+    }
+
+    /**
+     * Reloads a guild's cached entry in the background when it is read close to expiring, so entries that keep being
+     * used are replaced before they expire instead of the next reader paying for a cold load. Refreshes run on their
+     * own bounded scheduler, at most [MAX_REFRESHES] at a time, and are counted as discal.cache.refresh.
+     *
+     * @param reload Loads the entry and fills the cache with it, dropped if the entry was written while it loaded
+     */
+    fun refreshAhead(region: String, guildId: Snowflake, reload: () -> Mono<*>) {
+        val remaining = remainingTtl(region, guildId) ?: return
+        if (remaining > REFRESH_AHEAD_WINDOW.toNanos()) return
+
+        val key = FlightKey(region, guildId)
+        if (refreshing.size >= MAX_REFRESHES) {
+            refreshCounter(region, "skipped").increment()
+            return
+        }
+        if (!refreshing.add(key)) return
+
+        refreshCounter(region, "started").increment()
+        Mono.defer { reload() }
+            .subscribeOn(refreshScheduler)
+            .timeout(Duration.ofSeconds(30))
+            .doOnSuccess { refreshCounter(region, "succeeded").increment() }
+            .doOnError { refreshCounter(region, "failed").increment() }
+            .onErrorResume { Mono.empty() }
+            .doFinally { refreshing.remove(key) }
+            .subscribe()
+    }
+
+    private fun remainingTtl(region: String, guildId: Snowflake): Long? {
+        val cache: Cache<Snowflake, out Any> = when (region) {
+            SETTINGS_REGION -> guildSettings
+            CALENDARS_REGION -> calendars
+            else -> return null
+        }
+
+        val remaining = cache.policy().expireVariably().orElse(null)
+            ?.getExpiresAfter(guildId, TimeUnit.NANOSECONDS) ?: return null
+
+        return if (remaining.isPresent) remaining.asLong else null
+    }
+
+    private fun refreshCounter(region: String, result: String): Counter {
+        return Metrics.counter("discal.cache.refresh", "cache", region, "result", result)
+    }
+
+    /**
+     * Records how long [load] takes to fill a cache miss for the region, exported as discal.cache.load.
+     */
+    fun <T> timeLoad(region: String, load: Mono<T>): Mono<T> {
+        return Mono.defer {
+            val start = System.nanoTime()
+            load.doFinally { loadTimer(region).record(System.nanoTime() - start, TimeUnit.NANOSECONDS) }
+        }
+    }
+
+    private fun loadTimer(region: String): Timer = loadTimers.computeIfAbsent(region) {
+        Timer.builder("discal.cache.load")
+            .description("Time spent loading values missing from the cache")
+            .tag("cache", it)
+            .register(Metrics.globalRegistry)
+    }
+
+    /**
+     * Coalesces concurrent cache misses for the same key into a single load. The first caller starts [load] and every
+     * caller arriving before it finishes shares its result instead of loading again, counted as discal.cache.coalesced.
+     * Errors are shared with the callers already waiting, but not cached; the next miss loads again.
+     */
+    fun <T : Any> loadOnce(region: String, key: Any, load: () -> Mono<T>): Mono<T> {
+        return Mono.defer {
+            val flightKey = FlightKey(region, key)
+            var started: Mono<*>? = null
+
+            val flight = inFlight.computeIfAbsent(flightKey) {
+                lateinit var self: Mono<T>
+                self = timeLoad(region, load())
+                    .doFinally { inFlight.remove(flightKey, self) }
+                    .cache()
+
+                started = self
+                self
+            }
+
+            if (flight !== started) coalescedCounter(region).increment()
+
+            @Suppress("UNCHECKED_CAST")
+            flight as Mono<T>
+        }
+    }
+
+    private fun coalescedCounter(region: String): Counter = coalescedCounters.computeIfAbsent(region) {
+        Counter.builder("discal.cache.coalesced")
+            .description("Cache misses that joined an in-flight load instead of loading again")
+            .tag("cache", it)
+            .register(Metrics.globalRegistry)
+    }
+
+    /**
+     * The generation of the guild's entry in the region. Loads take it before reading and hand it back when putting
+     * what they read, which is dropped if the entry was written or evicted in the meantime.
+     */
+    fun generation(region: String, guildId: Snowflake): Long = generations[stripe(region, guildId)]
+
+    private fun bump(region: String, guildId: Snowflake) {
+        generations.incrementAndGet(stripe(region, guildId))
+    }
+
+    private fun stripe(region: String, guildId: Snowflake): Int {
+        return ((31 * region.hashCode() + guildId.hashCode()) and Int.MAX_VALUE) % GENERATION_STRIPES
     }
 
     //Functions to stop direct modification
-    fun getCalendar(guildId: Snowflake, calNum: Int): Calendar? = calendars[guildId]?.get(calNum)
+    fun getSettings(guildId: Snowflake): GuildSettings? = guildSettings.getIfPresent(guildId)
+
+    /**
+     * Checks for cached settings without counting towards the cache's hit/miss stats.
+     */
+    fun hasSettings(guildId: Snowflake): Boolean = guildSettings.asMap().containsKey(guildId)
+
+    /**
+     * Caches settings that were just written.
+     */
+    fun putSettings(settings: GuildSettings) {
+        bump(SETTINGS_REGION, settings.guildID)
+        guildSettings.put(settings.guildID, settings)
+    }
+
+    /**
+     * Caches loaded settings, unless they were written or evicted since [generation] was taken.
+     */
+    fun fillSettings(settings: GuildSettings, generation: Long) {
+        guildSettings.asMap().compute(settings.guildID) { guildId, old ->
+            if (generation(SETTINGS_REGION, guildId) == generation) settings else old
+        }
+    }
+
+    fun removeSettings(guildId: Snowflake) {
+        bump(SETTINGS_REGION, guildId)
+        guildSettings.invalidate(guildId)
+    }
+
+    fun getCalendar(guildId: Snowflake, calNum: Int): Calendar? = calendars.getIfPresent(guildId)?.calendars?.get(calNum)
 
-    fun getAllCalendars(guildId: Snowflake): Collection<Calendar>? = calendars[guildId]?.values
+    /**
+     * Only returns calendars when all of the guild's calendars were cached through [fillAllCalendars], otherwise a
+     * single cached calendar would be mistaken for the whole set.
+     */
+    fun getAllCalendars(guildId: Snowflake): Collection<Calendar>? {
+        return calendars.getIfPresent(guildId)?.takeIf { it.complete }?.calendars?.values
+    }
 
+    /**
+     * Caches a calendar that was just written.
+     */
     fun putCalendar(calendar: Calendar) {
-        if (calendars.containsKey(calendar.guildId))
-            calendars[calendar.guildId]!![calendar.calendarNumber] = calendar
-        else {
-            val map = ConcurrentHashMap<Int, Calendar>()
-            map[calendar.calendarNumber] = calendar
+        bump(CALENDARS_REGION, calendar.guildId)
+        calendars.asMap().computeIfAbsent(calendar.guildId) { GuildCalendars() }.put(calendar)
+    }
 
-            calendars[calendar.guildId] = map
+    /**
+     * Caches a loaded calendar, unless the guild's calendars were written or evicted since [generation] was taken.
+     */
+    fun fillCalendar(calendar: Calendar, generation: Long) {
+        calendars.asMap().compute(calendar.guildId) { guildId, old ->
+            if (generation(CALENDARS_REGION, guildId) != generation) old
+            else (old ?: GuildCalendars()).also { it.put(calendar) }
+        }
+    }
+
+    /**
+     * Caches all of a guild's loaded calendars, unless they were written or evicted since [generation] was taken.
+     *
+     * @param complete Whether every calendar the guild has loaded. A partial load never replaces a cached entry, so a
+     * refresh that hits a google error keeps the entry it was refreshing. With no entry it is cached as incomplete,
+     * so [getAllCalendars] doesn't answer with it.
+     */
+    fun fillAllCalendars(guildId: Snowflake, all: Collection<Calendar>, complete: Boolean, generation: Long) {
+        calendars.asMap().compute(guildId) { _, old ->
+            when {
+                generation(CALENDARS_REGION, guildId) != generation -> old
+                complete -> GuildCalendars(complete = true, all.associateBy(Calendar::calendarNumber))
+                old != null -> old
+                else -> GuildCalendars(complete = false, all.associateBy(Calendar::calendarNumber))
+            }
         }
     }
 
     fun handleCalendarDelete(guildId: Snowflake) {
         removeCalendars(guildId)
-        //Eventually other cached things will be here, like events, rsvp data, etc
+        events.invalidateGuild(guildId)
+        mirror?.invalidateGuild(guildId)
+        //Eventually other cached things will be here, like rsvp data, etc
     }
 
     fun removeCalendars(guildId: Snowflake) {
-        calendars.remove(guildId)
+        bump(CALENDARS_REGION, guildId)
+        calendars.invalidate(guildId)
+    }
+
+    /**
+     * Gets the calendar's google events between [start] and [end], from a cached window covering the range if there
+     * is one, otherwise [load] is called with the range widened to whole hours.
+     */
+    fun getEventsInRange(
+        guildId: Snowflake,
+        calNum: Int,
+        zone: ZoneId,
+        start: Long,
+        end: Long,
+        load: (Long, Long) -> Mono<List<GoogleEventModel>>,
+    ): Mono<List<GoogleEventModel>> = events.range(guildId, calNum, zone, start, end, load)
+
+    /**
+     * Gets the calendar's next [amount] google events. [load] is called with the amount to request from google, which
+     * can be more than asked for so the result can be shared by other lookups.
+     */
+    fun getUpcomingEvents(
+        guildId: Snowflake,
+        calNum: Int,
+        zone: ZoneId,
+        amount: Int,
+        load: (Int) -> Mono<List<GoogleEventModel>>,
+    ): Mono<List<GoogleEventModel>> = events.upcoming(guildId, calNum, zone, amount, load)
+
+    /**
+     * Gets the calendar's events from the local mirror, syncing it with google through [sync] when missing or stale.
+     *
+     * @return The mirrored events, or [empty][Mono.empty] when the mirror is turned off or can't serve the calendar
+     */
+    internal fun getMirroredEvents(
+        guildId: Snowflake,
+        calNum: Int,
+        zone: ZoneId,
+        sync: (syncToken: String?, pageToken: String?) -> Mono<Events>,
+    ): Mono<MirroredEvents> = mirror?.get(guildId, calNum, zone, sync) ?: Mono.empty()
+
+    fun invalidateEvents(guildId: Snowflake, calNum: Int): Mono<Void> {
+        return invalidate(CacheInvalidation(CacheInvalidation.Kind.EVENTS, guildId, calNum))
+    }
+
+    private data class FlightKey(val region: String, val key: Any)
+
+    // Most guilds have a single calendar, so hold a read-only map swapped on the rare write instead of a concurrent one
+    private class GuildCalendars(val complete: Boolean = false, initial: Map<Int, Calendar> = emptyMap()) {
+        @Volatile
+        var calendars: Map<Int, Calendar> = compact(initial)
+            private set
+
+        @Synchronized
+        fun put(calendar: Calendar) {
+            calendars = compact(calendars + (calendar.calendarNumber to calendar))
+        }
+
+        private fun compact(map: Map<Int, Calendar>) = if (map.size == 1) mapOf(map.entries.first().toPair()) else map
     }
 }
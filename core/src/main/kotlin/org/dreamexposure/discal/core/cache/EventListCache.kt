@@ -0,0 +1,217 @@
+package org.dreamexposure.discal.core.cache
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.github.benmanes.caffeine.cache.Weigher
+import discord4j.common.util.Snowflake
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.Metrics
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.ZoneId
+import java.util.concurrent.Executor
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+import kotlin.math.max
+import com.google.api.services.calendar.model.Event as GoogleEventModel
+
+/**
+ * Short-lived cache of google event lists, keyed by calendar.
+ *
+ * Range lookups are widened to whole hours before loading, so a cached window answers any range it covers. Upcoming
+ * lookups load at least [UPCOMING_MIN] events, so the different embeds and commands share one list. Windows are only
+ * served for [ttl] after they were loaded; anything DisCal writes to a calendar invalidates it straight away.
+ *
+ * Entries are weighed by an estimate of their heap size and bounded by [maxBytes]. Caffeine evicts down to that bound
+ * on [executor], after the write that went over it.
+ */
+internal class EventListCache(
+    private val ttl: Duration,
+    maxBytes: Long,
+    executor: Executor = ForkJoinPool.commonPool(),
+) {
+    private val calendars: Cache<CalendarKey, CalendarEvents> = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(Weigher<CalendarKey, CalendarEvents> { _, value -> value.bytes })
+        .expireAfterWrite(ttl.toNanos(), TimeUnit.NANOSECONDS)
+        .executor(executor)
+        .build()
+
+    // Bumped on invalidation so a load that started before a write can't cache what it read afterwards
+    private val generations = AtomicLongArray(GENERATION_STRIPES)
+
+    private val hits = Metrics.counter("discal.cache.events", "result", "hit")
+    private val misses = Metrics.counter("discal.cache.events", "result", "miss")
+
+    init {
+        Gauge.builder("discal.cache.events.bytes", this) { it.weightedSize().toDouble() }
+            .description("Estimated heap used by cached event lists")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry)
+
+        Gauge.builder("discal.cache.events.size", calendars) { it.estimatedSize().toDouble() }
+            .description("Calendars with cached event lists")
+            .register(Metrics.globalRegistry)
+    }
+
+    fun range(
+        guildId: Snowflake,
+        calNum: Int,
+        zone: ZoneId,
+        start: Long,
+        end: Long,
+        load: (Long, Long) -> Mono<List<GoogleEventModel>>,
+    ): Mono<List<GoogleEventModel>> {
+        return Mono.defer {
+            val key = CalendarKey(guildId, calNum)
+            val now = System.currentTimeMillis()
+
+            val window = calendars.asMap()[key]?.windows?.firstOrNull { it.isFresh(now) && it.covers(start, end) }
+            if (window != null) {
+                hits.increment()
+                return@defer Mono.just(window.between(start, end))
+            }
+            misses.increment()
+
+            val windowStart = floorHour(start)
+            val windowEnd = ceilHour(end)
+
+            DiscalCache.loadOnce(DiscalCache.EVENTS_REGION, RangeKey(key, windowStart, windowEnd)) {
+                val generation = generations[stripe(key)]
+
+                load(windowStart, windowEnd).map { events ->
+                    Window(windowStart, windowEnd, System.currentTimeMillis(), events.map { CachedEvent.of(it, zone) })
+                }.doOnNext { loaded ->
+                    // A full page means google may have more we didn't get, don't answer later lookups from it
+                    if (loaded.events.size < PAGE_SIZE) putWindow(key, generation, loaded)
+                }
+            }.map { it.between(start, end) }
+        }
+    }
+
+    fun upcoming(
+        guildId: Snowflake,
+        calNum: Int,
+        zone: ZoneId,
+        amount: Int,
+        load: (Int) -> Mono<List<GoogleEventModel>>,
+    ): Mono<List<GoogleEventModel>> {
+        return Mono.defer {
+            val key = CalendarKey(guildId, calNum)
+            val now = System.currentTimeMillis()
+
+            val upcoming = calendars.asMap()[key]?.upcoming?.takeIf { it.isFresh(now) }
+            if (upcoming != null) {
+                val remaining = upcoming.after(now)
+                if (remaining.size >= amount || upcoming.exhausted) {
+                    hits.increment()
+                    return@defer Mono.just(remaining.take(amount))
+                }
+            }
+            misses.increment()
+
+            val fetchAmount = max(amount, UPCOMING_MIN)
+
+            DiscalCache.loadOnce(DiscalCache.EVENTS_REGION, UpcomingKey(key, fetchAmount)) {
+                val generation = generations[stripe(key)]
+
+                load(fetchAmount).map { events ->
+                    Upcoming(fetchAmount, System.currentTimeMillis(), events.map { CachedEvent.of(it, zone) })
+                }.doOnNext { putUpcoming(key, generation, it) }
+            }.map { it.after(System.currentTimeMillis()).take(amount) }
+        }
+    }
+
+    /** The estimated heap used by everything cached, never more than `maxBytes` once Caffeine has evicted. */
+    fun weightedSize(): Long = calendars.policy().eviction().map { it.weightedSize().orElse(0) }.orElse(0)
+
+    fun invalidate(guildId: Snowflake, calNum: Int) {
+        val key = CalendarKey(guildId, calNum)
+
+        generations.incrementAndGet(stripe(key))
+        calendars.invalidate(key)
+    }
+
+    fun invalidateGuild(guildId: Snowflake) {
+        // Calendar numbers shift when a calendar is deleted, so drop every calendar the guild has
+        for (i in 0 until GENERATION_STRIPES) generations.incrementAndGet(i)
+        calendars.asMap().keys.removeIf { it.guildId == guildId }
+    }
+
+    fun invalidateAll() {
+        for (i in 0 until GENERATION_STRIPES) generations.incrementAndGet(i)
+        calendars.invalidateAll()
+    }
+
+    private fun putWindow(key: CalendarKey, generation: Long, window: Window) {
+        calendars.asMap().compute(key) { _, old ->
+            if (generations[stripe(key)] != generation) return@compute old
+
+            val now = System.currentTimeMillis()
+            val windows = listOf(window) + old?.windows.orEmpty().filter { it.isFresh(now) }
+
+            CalendarEvents(windows.take(MAX_WINDOWS), old?.upcoming?.takeIf { it.isFresh(now) })
+        }
+    }
+
+    private fun putUpcoming(key: CalendarKey, generation: Long, upcoming: Upcoming) {
+        calendars.asMap().compute(key) { _, old ->
+            if (generations[stripe(key)] != generation) return@compute old
+
+            val now = System.currentTimeMillis()
+            CalendarEvents(old?.windows.orEmpty().filter { it.isFresh(now) }, upcoming)
+        }
+    }
+
+    private fun stripe(key: CalendarKey) = (key.hashCode() and Int.MAX_VALUE) % GENERATION_STRIPES
+
+    private fun floorHour(millis: Long) = millis - Math.floorMod(millis, HOUR)
+
+    private fun ceilHour(millis: Long): Long {
+        val remainder = Math.floorMod(millis, HOUR)
+        return if (remainder == 0L) millis else millis + HOUR - remainder
+    }
+
+    private data class CalendarKey(val guildId: Snowflake, val calNum: Int)
+
+    private data class RangeKey(val calendar: CalendarKey, val start: Long, val end: Long)
+
+    private data class UpcomingKey(val calendar: CalendarKey, val amount: Int)
+
+    private inner class CalendarEvents(val windows: List<Window>, val upcoming: Upcoming?) {
+        val bytes: Int = (windows.sumOf { it.bytes.toLong() } + (upcoming?.bytes ?: 0))
+            .coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+    }
+
+    private inner class Window(val start: Long, val end: Long, val loadedAt: Long, val events: List<CachedEvent>) {
+        val bytes = events.sumOf { it.bytes }
+
+        fun isFresh(now: Long) = now - loadedAt < ttl.toMillis()
+
+        fun covers(start: Long, end: Long) = this.start <= start && this.end >= end
+
+        // Same rules google uses for timeMin/timeMax: ends after the start and starts before the end
+        fun between(start: Long, end: Long) = events.filter { it.end > start && it.start < end }.map(CachedEvent::copy)
+    }
+
+    private inner class Upcoming(val amount: Int, val loadedAt: Long, val events: List<CachedEvent>) {
+        val bytes = events.sumOf { it.bytes }
+
+        // Google returned less than we asked for, so there are no more events to find
+        val exhausted = events.size < amount
+
+        fun isFresh(now: Long) = now - loadedAt < ttl.toMillis()
+
+        fun after(now: Long) = events.filter { it.end > now }.map(CachedEvent::copy)
+    }
+
+    private companion object {
+        const val UPCOMING_MIN = 25
+        const val MAX_WINDOWS = 8
+        // Google's default (and our) page size for event lists
+        const val PAGE_SIZE = 250
+        const val GENERATION_STRIPES = 64
+        val HOUR = Duration.ofHours(1).toMillis()
+    }
+}
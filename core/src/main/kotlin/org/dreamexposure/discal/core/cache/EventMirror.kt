@@ -0,0 +1,237 @@
+package org.dreamexposure.discal.core.cache
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.github.benmanes.caffeine.cache.Weigher
+import com.google.api.services.calendar.model.Events
+import discord4j.common.util.Snowflake
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.Metrics
+import org.apache.http.HttpStatus
+import org.dreamexposure.discal.core.exceptions.google.GoogleApiException
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.ZoneId
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+import com.google.api.services.calendar.model.Event as GoogleEventModel
+
+/**
+ * Local copy of each calendar's google events, kept up to date with google's incremental sync.
+ *
+ * The first read of a calendar lists every event, with recurring events expanded into their instances, and keeps the
+ * sync token google sends with it. Reads after that are answered from the copy for up to [maxStaleness], then the
+ * token is used to pull only what changed since. Google expiring a token (410) starts over with a full sync.
+ *
+ * Writes made through DisCal mark the calendar stale rather than dropping it, so the next read only pulls that change.
+ * Calendars too big to copy are left to be listed from google directly for a while.
+ */
+internal class EventMirror(private val maxStaleness: Duration, maxBytes: Long) {
+    private val calendars: Cache<CalendarKey, MirroredCalendar> = Caffeine.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(Weigher<CalendarKey, MirroredCalendar> { _, value -> value.bytes })
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build()
+
+    private val unmirrorable: Cache<CalendarKey, Boolean> = Caffeine.newBuilder()
+        .maximumSize(10_000)
+        .expireAfterWrite(1, TimeUnit.HOURS)
+        .build()
+
+    // Bumped on invalidation so a sync that started before a write doesn't mark its result fresh
+    private val generations = AtomicLongArray(GENERATION_STRIPES)
+
+    private val counters = ConcurrentHashMap<String, Counter>()
+
+    init {
+        Gauge.builder("discal.cache.mirror.bytes", calendars) { cache ->
+            cache.policy().eviction().map { it.weightedSize().orElse(0) }.orElse(0).toDouble()
+        }.description("Estimated heap used by mirrored google events")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry)
+
+        Gauge.builder("discal.cache.mirror.size", calendars) { it.estimatedSize().toDouble() }
+            .description("Calendars with mirrored google events")
+            .register(Metrics.globalRegistry)
+    }
+
+    /**
+     * Gets the calendar's mirrored events, syncing with google first if they are missing or stale.
+     *
+     * @param sync Lists a page of the calendar's events, from the sync token if given, otherwise all of them
+     * @return The mirrored events, or [empty][Mono.empty] if the calendar can't be mirrored or syncing failed
+     */
+    fun get(
+        guildId: Snowflake,
+        calNum: Int,
+        zone: ZoneId,
+        sync: (syncToken: String?, pageToken: String?) -> Mono<Events>,
+    ): Mono<MirroredEvents> {
+        return Mono.defer {
+            val key = CalendarKey(guildId, calNum)
+            if (unmirrorable.getIfPresent(key) != null) return@defer Mono.empty()
+
+            val existing = calendars.getIfPresent(key)
+            if (existing != null && existing.isFresh(System.currentTimeMillis())) {
+                counter("hit").increment()
+                return@defer Mono.just(existing.view(zone))
+            }
+
+            DiscalCache.loadOnce(DiscalCache.MIRROR_REGION, key) {
+                DiscalCache.timeLoad(DiscalCache.MIRROR_REGION, syncCalendar(key, existing, zone, sync))
+            }.map { it.view(zone) }
+        }
+    }
+
+    fun markStale(guildId: Snowflake, calNum: Int) {
+        val key = CalendarKey(guildId, calNum)
+
+        generations.incrementAndGet(stripe(key))
+        calendars.asMap().computeIfPresent(key) { _, mirrored -> mirrored.copy(syncedAt = 0) }
+    }
+
+    fun invalidateGuild(guildId: Snowflake) {
+        // Calendar numbers shift when a calendar is deleted, so drop every calendar the guild has
+        for (i in 0 until GENERATION_STRIPES) generations.incrementAndGet(i)
+        calendars.asMap().keys.removeIf { it.guildId == guildId }
+        unmirrorable.asMap().keys.removeIf { it.guildId == guildId }
+    }
+
+    fun invalidateAll() {
+        for (i in 0 until GENERATION_STRIPES) generations.incrementAndGet(i)
+        calendars.invalidateAll()
+        unmirrorable.invalidateAll()
+    }
+
+    private fun syncCalendar(
+        key: CalendarKey,
+        existing: MirroredCalendar?,
+        zone: ZoneId,
+        sync: (String?, String?) -> Mono<Events>,
+    ): Mono<MirroredCalendar> {
+        val generation = generations[stripe(key)]
+
+        val synced = if (existing != null) {
+            pages(existing.syncToken, sync).map { applyPages(existing, it, zone) }
+                .doOnNext { counter("sync").increment() }
+                .onErrorResume({ it is GoogleApiException && it.statusCode == HttpStatus.SC_GONE }) {
+                    // Google expired the token, the only way back is listing everything again
+                    counter("resync").increment()
+                    fullSync(zone, sync)
+                }
+        } else fullSync(zone, sync)
+
+        return synced.map { mirrored ->
+            // An invalidation while syncing may have missed the change, so leave it stale for the next read
+            val fresh = generations[stripe(key)] == generation
+            val stored = if (fresh) mirrored else mirrored.copy(syncedAt = 0)
+
+            calendars.put(key, stored)
+            stored
+        }.onErrorResume {
+            // Failing to sync isn't worth failing the read over, the caller lists from google instead
+            if (it is TooManyEvents) {
+                counter("unmirrorable").increment()
+                unmirrorable.put(key, true)
+                calendars.invalidate(key)
+            } else counter("failed").increment()
+
+            Mono.empty()
+        }
+    }
+
+    private fun fullSync(zone: ZoneId, sync: (String?, String?) -> Mono<Events>): Mono<MirroredCalendar> {
+        return pages(null, sync)
+            .map { applyPages(null, it, zone) }
+            .doOnNext { counter("full_sync").increment() }
+    }
+
+    // Follows page tokens until google hands out the next sync token
+    private fun pages(syncToken: String?, sync: (String?, String?) -> Mono<Events>): Mono<List<Events>> {
+        return sync(syncToken, null)
+            .expand { page -> page.nextPageToken?.let { sync(syncToken, it) } ?: Mono.empty() }
+            .take(MAX_PAGES.toLong() + 1)
+            .collectList()
+            .flatMap { pages ->
+                when {
+                    pages.size > MAX_PAGES -> Mono.error<List<Events>>(TooManyEvents())
+                    pages.lastOrNull()?.nextSyncToken == null -> Mono.empty<List<Events>>()
+                    else -> Mono.just(pages)
+                }
+            }
+    }
+
+    private fun applyPages(existing: MirroredCalendar?, pages: List<Events>, zone: ZoneId): MirroredCalendar {
+        val events = HashMap(existing?.events.orEmpty())
+
+        pages.flatMap { it.items.orEmpty() }.forEach { event ->
+            if (event.status.equals("cancelled", true)) events.remove(event.id)
+            else events[event.id] = CachedEvent.of(event, zone)
+        }
+
+        return MirroredCalendar(pages.last().nextSyncToken, System.currentTimeMillis(), zone, events)
+    }
+
+    private fun counter(result: String): Counter = counters.computeIfAbsent(result) {
+        Metrics.counter("discal.cache.mirror", "result", it)
+    }
+
+    private fun stripe(key: CalendarKey) = (key.hashCode() and Int.MAX_VALUE) % GENERATION_STRIPES
+
+    private data class CalendarKey(val guildId: Snowflake, val calNum: Int)
+
+    private class TooManyEvents : Exception("Calendar has too many events to mirror", null, false, false)
+
+    private inner class MirroredCalendar(
+        val syncToken: String,
+        val syncedAt: Long,
+        val zone: ZoneId,
+        val events: Map<String, CachedEvent>,
+    ) {
+        val bytes: Int = events.values.sumOf { it.bytes.toLong() }.coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+
+        // Built once per sync and shared by every read until the next one
+        private val sorted by lazy { MirroredEvents(events.values.sortedBy(CachedEvent::start)) }
+
+        fun isFresh(now: Long) = now - syncedAt < maxStaleness.toMillis()
+
+        // All-day events start at midnight in the calendar's timezone, so a timezone change moves them
+        fun view(zone: ZoneId): MirroredEvents {
+            return if (zone == this.zone) sorted
+            else MirroredEvents(events.values.map { CachedEvent.of(it.event, zone) }.sortedBy(CachedEvent::start))
+        }
+
+        fun copy(syncedAt: Long) = MirroredCalendar(syncToken, syncedAt, zone, events)
+    }
+
+    private companion object {
+        // Google's largest page, a calendar needing more than MAX_PAGES of them isn't worth keeping in memory
+        const val MAX_PAGES = 10
+        const val GENERATION_STRIPES = 64
+    }
+}
+
+/**
+ * A calendar's mirrored events at one point in time, ordered by start.
+ */
+internal class MirroredEvents(private val events: List<CachedEvent>) {
+    /**
+     * The next [amount] events that haven't ended yet, the same events google lists from a timeMin of [now].
+     */
+    fun upcoming(now: Long, amount: Int): List<GoogleEventModel> {
+        return events.asSequence().filter { it.end > now }.take(amount).map(CachedEvent::copy).toList()
+    }
+
+    /**
+     * Events overlapping the range, by the same rules google uses for timeMin/timeMax.
+     */
+    fun between(start: Long, end: Long): List<GoogleEventModel> {
+        return events.asSequence()
+            .takeWhile { it.start < end }
+            .filter { it.end > start }
+            .map(CachedEvent::copy)
+            .toList()
+    }
+}
@@ -0,0 +1,51 @@
+package org.dreamexposure.discal.core.cache
+
+import org.dreamexposure.discal.core.`object`.BotSettings
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import reactor.core.publisher.Sinks
+
+/**
+ * Carries [cache invalidations][CacheInvalidation] between every node running DisCal.
+ */
+interface InvalidationBus {
+    fun publish(invalidation: CacheInvalidation): Mono<Void>
+
+    /**
+     * @return A hot [Flux] of every invalidation published on the bus, including those published by this node
+     */
+    fun receive(): Flux<CacheInvalidation>
+
+    fun close()
+
+    companion object {
+        /**
+         * Builds the bus configured by CACHE_INVALIDATION_BUS, local unless set to redis. Nodes sharing a database
+         * need redis, or they keep serving what the others wrote over until it expires.
+         */
+        fun fromSettings(): InvalidationBus {
+            return if (BotSettings.CACHE_INVALIDATION_BUS.getOrDefault("local").equals("redis", true))
+                RedisInvalidationBus.fromSettings()
+            else LocalInvalidationBus()
+        }
+    }
+}
+
+/**
+ * In-process bus, invalidations only reach subscribers in the same JVM. Used when running a single node, and lets
+ * tests stand in several nodes by sharing one instance.
+ */
+class LocalInvalidationBus : InvalidationBus {
+    private val sink = Sinks.many().multicast().directBestEffort<CacheInvalidation>()
+
+    override fun publish(invalidation: CacheInvalidation): Mono<Void> = Mono.fromRunnable {
+        // Spin on concurrent emits instead of dropping the invalidation
+        sink.emitNext(invalidation) { _, result -> result == Sinks.EmitResult.FAIL_NON_SERIALIZED }
+    }
+
+    override fun receive(): Flux<CacheInvalidation> = sink.asFlux()
+
+    override fun close() {
+        sink.tryEmitComplete()
+    }
+}
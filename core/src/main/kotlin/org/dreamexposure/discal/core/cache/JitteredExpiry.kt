@@ -0,0 +1,28 @@
+package org.dreamexposure.discal.core.cache
+
+import com.github.benmanes.caffeine.cache.Expiry
+import java.time.Duration
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * Expires entries [ttl] after they were last written, give or take up to [jitter] of it, so entries written at the
+ * same time (like everything loaded right after startup) don't all expire and get reloaded at the same instant.
+ * Reads do not extend an entry's lifetime.
+ */
+class JitteredExpiry<K : Any, V : Any>(
+    private val ttl: Duration,
+    private val jitter: Double = 0.1,
+) : Expiry<K, V> {
+    override fun expireAfterCreate(key: K, value: V, currentTime: Long): Long {
+        val nanos = ttl.toNanos()
+        val spread = (nanos * jitter).toLong()
+
+        return nanos + ThreadLocalRandom.current().nextLong(-spread, spread + 1)
+    }
+
+    override fun expireAfterUpdate(key: K, value: V, currentTime: Long, currentDuration: Long): Long {
+        return expireAfterCreate(key, value, currentTime)
+    }
+
+    override fun expireAfterRead(key: K, value: V, currentTime: Long, currentDuration: Long): Long = currentDuration
+}
@@ -0,0 +1,57 @@
+package org.dreamexposure.discal.core.cache
+
+import io.lettuce.core.RedisClient
+import io.lettuce.core.RedisURI
+import org.dreamexposure.discal.core.`object`.BotSettings
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+
+/**
+ * Redis pub/sub backed bus, invalidations reach every node subscribed to [channel].
+ *
+ * Connects when created, so startup fails fast without redis and no reactor thread ever blocks on lettuce's connect.
+ *
+ * @param release Called once the bus has closed its connections, shuts the client down unless it is shared
+ */
+class RedisInvalidationBus(
+    client: RedisClient,
+    private val channel: String = CHANNEL,
+    private val release: () -> Unit = client::shutdown,
+) : InvalidationBus {
+    private val publisher = client.connect()
+    private val subscriber = client.connectPubSub()
+
+    private val received: Flux<CacheInvalidation> = Flux.defer {
+        val commands = subscriber.reactive()
+
+        commands.subscribe(channel).thenMany(commands.observeChannels())
+            .filter { it.channel == channel }
+            .handle<CacheInvalidation> { message, sink -> CacheInvalidation.decode(message.message)?.let(sink::next) }
+    }.share()
+
+    override fun publish(invalidation: CacheInvalidation): Mono<Void> {
+        return publisher.reactive().publish(channel, invalidation.encode()).then()
+    }
+
+    override fun receive(): Flux<CacheInvalidation> = received
+
+    override fun close() {
+        subscriber.close()
+        publisher.close()
+        release()
+    }
+
+    companion object {
+        const val CHANNEL = "discal:cache:invalidate"
+
+        fun fromSettings() = RedisInvalidationBus(SharedRedisClient.acquire(), release = SharedRedisClient::release)
+
+        internal fun uriFromSettings(): RedisURI {
+            val uri = RedisURI.Builder.redis(BotSettings.REDIS_HOSTNAME.get(), BotSettings.REDIS_PORT.get().toInt())
+            if (BotSettings.REDIS_USE_PASSWORD.get().equals("true", true))
+                uri.withPassword(BotSettings.REDIS_PASSWORD.get().toCharArray())
+
+            return uri.build()
+        }
+    }
+}
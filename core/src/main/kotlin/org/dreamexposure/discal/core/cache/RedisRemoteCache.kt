@@ -0,0 +1,63 @@
+package org.dreamexposure.discal.core.cache
+
+import io.lettuce.core.RedisClient
+import io.lettuce.core.ScriptOutputType
+import io.lettuce.core.SetArgs
+import io.lettuce.core.codec.ByteArrayCodec
+import io.lettuce.core.codec.RedisCodec
+import io.lettuce.core.codec.StringCodec
+import reactor.core.publisher.Mono
+import java.time.Duration
+
+/**
+ * Redis backed [RemoteCache], values are stored as raw bytes with a redis expiry.
+ *
+ * Connects when created, so startup fails fast without redis and no reactor thread ever blocks on lettuce's connect.
+ *
+ * @param release Called once the cache has closed its connection, shuts the client down unless it is shared
+ */
+class RedisRemoteCache(
+    client: RedisClient,
+    private val release: () -> Unit = client::shutdown,
+) : RemoteCache {
+    private val connection = client.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE))
+
+    override fun get(key: String): Mono<ByteArray> = connection.reactive().get(key)
+
+    override fun set(key: String, value: ByteArray, ttl: Duration): Mono<Void> {
+        return connection.reactive().set(key, value, SetArgs.Builder.px(ttl.toMillis())).then()
+    }
+
+    override fun compareAndSet(key: String, expected: ByteArray?, value: ByteArray, ttl: Duration): Mono<Boolean> {
+        val args = arrayOf(expected ?: ByteArray(0), value, ttl.toMillis().toString().toByteArray())
+
+        return connection.reactive().eval<Long>(COMPARE_AND_SET, ScriptOutputType.INTEGER, arrayOf(key), *args)
+            .next()
+            .map { it == 1L }
+    }
+
+    override fun delete(keys: List<String>): Mono<Void> {
+        if (keys.isEmpty()) return Mono.empty()
+
+        return connection.reactive().del(*keys.toTypedArray()).then()
+    }
+
+    override fun close() {
+        connection.close()
+        release()
+    }
+
+    companion object {
+        // Stored values are never empty, so an empty expected value stands for no value at all
+        private val COMPARE_AND_SET = """
+            local held = redis.call('GET', KEYS[1])
+            if (held == false and ARGV[1] == '') or held == ARGV[1] then
+                redis.call('SET', KEYS[1], ARGV[2], 'PX', ARGV[3])
+                return 1
+            end
+            return 0
+        """.trimIndent()
+
+        fun fromSettings() = RedisRemoteCache(SharedRedisClient.acquire(), SharedRedisClient::release)
+    }
+}
@@ -0,0 +1,90 @@
+package org.dreamexposure.discal.core.cache
+
+import org.dreamexposure.discal.core.`object`.BotSettings
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Second cache tier shared by every node, sitting between each node's in-memory [DiscalCache] and the database.
+ */
+interface RemoteCache {
+    /**
+     * @return A [Mono] containing the stored value, or [empty][Mono.empty] if there is none
+     */
+    fun get(key: String): Mono<ByteArray>
+
+    /**
+     * Stores the value, replacing whatever the key holds.
+     */
+    fun set(key: String, value: ByteArray, ttl: Duration): Mono<Void>
+
+    /**
+     * Stores the value only if the key still holds [expected], or nothing at all when [expected] is null. Used when
+     * filling from the database, so a value loaded before a write can't replace what the write left in the key.
+     *
+     * @return A [Mono] containing whether the value was stored
+     */
+    fun compareAndSet(key: String, expected: ByteArray?, value: ByteArray, ttl: Duration): Mono<Boolean>
+
+    fun delete(keys: List<String>): Mono<Void>
+
+    fun close()
+
+    companion object {
+        /**
+         * Builds the remote cache configured by CACHE_REMOTE: none (default) to only cache in memory, redis, or memory.
+         */
+        fun fromSettings(): RemoteCache? {
+            return when (BotSettings.CACHE_REMOTE.getOrDefault("none").lowercase()) {
+                "redis" -> RedisRemoteCache.fromSettings()
+                "memory" -> InMemoryRemoteCache()
+                else -> null
+            }
+        }
+    }
+}
+
+/**
+ * Stands in for redis inside a single JVM, for tests and running without redis. Expired values are dropped on read.
+ */
+class InMemoryRemoteCache : RemoteCache {
+    private val values = ConcurrentHashMap<String, Stored>()
+
+    override fun get(key: String): Mono<ByteArray> = Mono.defer {
+        val stored = values[key]
+
+        if (stored != null && stored.expiresAt <= System.nanoTime()) {
+            values.remove(key, stored)
+            Mono.empty()
+        } else Mono.justOrEmpty(stored?.value)
+    }
+
+    override fun set(key: String, value: ByteArray, ttl: Duration): Mono<Void> = Mono.fromRunnable {
+        values[key] = Stored(value, System.nanoTime() + ttl.toNanos())
+    }
+
+    override fun compareAndSet(key: String, expected: ByteArray?, value: ByteArray, ttl: Duration): Mono<Boolean> {
+        return Mono.fromCallable {
+            val now = System.nanoTime()
+            var stored = false
+
+            values.compute(key) { _, old ->
+                val held = old?.takeIf { it.expiresAt > now }?.value
+                if (!held.contentEquals(expected)) return@compute old
+
+                stored = true
+                Stored(value, now + ttl.toNanos())
+            }
+            stored
+        }
+    }
+
+    override fun delete(keys: List<String>): Mono<Void> = Mono.fromRunnable {
+        keys.forEach(values::remove)
+    }
+
+    override fun close() = values.clear()
+
+    private class Stored(val value: ByteArray, val expiresAt: Long)
+}
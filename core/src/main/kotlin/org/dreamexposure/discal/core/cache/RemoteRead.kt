@@ -0,0 +1,7 @@
+package org.dreamexposure.discal.core.cache
+
+/**
+ * The result of reading a key from the [RemoteCache]. [value] is null on a miss, in which case [held] is whatever the
+ * key held instead, and a fill from the database only succeeds if the key still holds it.
+ */
+class RemoteRead<T : Any> internal constructor(val value: T?, internal val held: ByteArray?)
@@ -0,0 +1,29 @@
+package org.dreamexposure.discal.core.cache
+
+import io.lettuce.core.RedisClient
+
+/**
+ * The one [RedisClient] everything on a node built from settings shares, so the invalidation bus and remote cache run
+ * on the same event loops instead of each starting their own. Shut down once the last user releases it.
+ */
+internal object SharedRedisClient {
+    private var client: RedisClient? = null
+    private var users = 0
+
+    @Synchronized
+    fun acquire(): RedisClient {
+        users++
+        return client ?: RedisClient.create(RedisInvalidationBus.uriFromSettings()).also { client = it }
+    }
+
+    @Synchronized
+    fun release() {
+        if (users == 0) return
+
+        users--
+        if (users == 0) {
+            client?.shutdown()
+            client = null
+        }
+    }
+}
@@ -3,21 +3,22 @@
 package org.dreamexposure.discal.core.database
 
 import discord4j.common.util.Snowflake
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
 import io.r2dbc.pool.ConnectionPool
 import io.r2dbc.pool.ConnectionPoolConfiguration
 import io.r2dbc.spi.Connection
 import io.r2dbc.spi.ConnectionFactories
+import io.r2dbc.spi.ConnectionFactory
 import io.r2dbc.spi.ConnectionFactoryOptions.*
 import io.r2dbc.spi.Result
+import io.r2dbc.spi.Statement
+import org.dreamexposure.discal.core.cache.CacheInvalidation
 import org.dreamexposure.discal.core.cache.DiscalCache
-import org.dreamexposure.discal.core.enums.announcement.AnnouncementModifier
-import org.dreamexposure.discal.core.enums.announcement.AnnouncementStyle
+import org.dreamexposure.discal.core.cache.RemoteRead
 import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
-import org.dreamexposure.discal.core.enums.calendar.CalendarHost
-import org.dreamexposure.discal.core.enums.event.EventColor.Companion.fromNameOrHexOrId
-import org.dreamexposure.discal.core.enums.time.TimeFormat
 import org.dreamexposure.discal.core.extensions.asStringList
-import org.dreamexposure.discal.core.extensions.setFromString
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.`object`.BotSettings
 import org.dreamexposure.discal.core.`object`.GuildSettings
@@ -31,20 +32,31 @@ import org.dreamexposure.discal.core.`object`.google.GoogleCredentialData
 import org.dreamexposure.discal.core.`object`.web.UserAPIAccount
 import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
 import org.intellij.lang.annotations.Language
+import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import reactor.util.retry.Retry
 import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.TimeUnit
 import java.util.function.Function
+import kotlin.reflect.full.memberProperties
+import kotlin.reflect.jvm.isAccessible
 
 object DatabaseManager {
+    private const val STREAM_FETCH_SIZE = 250
+    private const val DUE_PAGE_SIZE = 500
+
     private val pool: ConnectionPool
 
+    private val acquireTimer = Timer.builder("discal.db.pool.acquire")
+        .description("Time spent waiting to acquire a pooled connection")
+        .publishPercentileHistogram()
+        .register(Metrics.globalRegistry)
+
     init {
         val factory = ConnectionFactories.get(
             builder()
-                .option(DRIVER, "pool")
-                .option(PROTOCOL, "mysql")
+                .option(DRIVER, "mysql")
                 .option(HOST, BotSettings.SQL_HOST.get())
                 .option(PORT, BotSettings.SQL_PORT.get().toInt())
                 .option(USER, BotSettings.SQL_USER.get())
@@ -53,272 +65,205 @@ object DatabaseManager {
                 .build()
         )
 
+        val initialSize = BotSettings.SQL_POOL_INITIAL_SIZE.getOrDefault("10").toInt()
+        val validation = BotSettings.SQL_POOL_VALIDATION_QUERY.getOrDefault("")
+
         val conf = ConnectionPoolConfiguration.builder()
             .connectionFactory(factory)
+            .name("discal-mysql")
+            .initialSize(initialSize)
+            .maxSize(BotSettings.SQL_POOL_MAX_SIZE.getOrDefault("$initialSize").toInt())
+            .maxIdleTime(Duration.ofMinutes(BotSettings.SQL_POOL_MAX_IDLE_MINUTES.getOrDefault("30").toLong()))
+            .maxAcquireTime(Duration.ofSeconds(BotSettings.SQL_POOL_ACQUIRE_TIMEOUT_SECONDS.getOrDefault("10").toLong()))
             .maxLifeTime(Duration.ofHours(1))
+            .apply { if (validation.isNotBlank()) validationQuery(validation) }
             .build()
 
         pool = ConnectionPool(conf)
+
+        pool.metrics.ifPresent { metrics ->
+            val registry = Metrics.globalRegistry
+            Gauge.builder("discal.db.pool.acquired", metrics) { it.acquiredSize().toDouble() }.register(registry)
+            Gauge.builder("discal.db.pool.allocated", metrics) { it.allocatedSize().toDouble() }.register(registry)
+            Gauge.builder("discal.db.pool.idle", metrics) { it.idleSize().toDouble() }.register(registry)
+            Gauge.builder("discal.db.pool.pending", metrics) { it.pendingAcquireSize().toDouble() }.register(registry)
+            Gauge.builder("discal.db.pool.max", metrics) { it.maxAllocatedSize.toDouble() }.register(registry)
+        }
     }
 
-    //FIXME: attempt to fix constant open/close of connections
+    /**
+     * The process wide connection pool, exposed so Spring beans share it instead of building their own.
+     * Its lifecycle is owned by [DatabaseManager], see [disconnectFromMySQL].
+     */
+    val connectionFactory: ConnectionFactory
+        get() = pool
+
     private fun <T> connect(connection: Function<Connection, Mono<T>>): Mono<T> {
-        return Mono.usingWhen(pool.create(), connection::apply, Connection::close)
+        return Mono.usingWhen(acquire(connection.javaClass), connection::apply, Connection::close)
+    }
+
+    /**
+     * Like [connect], but for streamed reads. The connection is held until the returned [Flux] terminates, and rows
+     * are only pulled from the server as downstream requests them.
+     */
+    private fun <T> connectMany(connection: Function<Connection, Flux<T>>): Flux<T> {
+        return Flux.usingWhen(acquire(connection.javaClass), connection::apply, Connection::close)
+    }
+
+    /**
+     * @param site The lambda class of the [connect] call, which identifies the call site. The stack is only walked for
+     * the caller's name once a query from the site has been slow, as the name is only needed for the slow query log.
+     */
+    private fun acquire(site: Class<*>): Mono<Connection> {
+        val caller = if (QueryMetrics.isSlowSite(site)) callerName() else null
+
+        return Mono.defer {
+            val start = System.nanoTime()
+            pool.create().map<Connection> {
+                val nanos = System.nanoTime() - start
+                acquireTimer.record(nanos, TimeUnit.NANOSECONDS)
+
+                TimedConnection(it, nanos, site, caller, ::queryName)
+            }
+        }
+    }
+
+    // SQL -> name of the Queries constant it came from, so statements can be tagged without touching every call site
+    private val queryNames: Map<String, String> by lazy {
+        Queries::class.memberProperties.flatMap { prop ->
+            prop.isAccessible = true
+
+            when (val value = prop.get(Queries)) {
+                is String -> listOf(value to prop.name)
+                is Map<*, *> -> value.map { (key, sql) -> sql.toString() to "${prop.name}[$key]" }
+                is List<*> -> value.mapIndexed { i, sql -> sql.toString() to "${prop.name}[$i]" }
+                else -> emptyList()
+            }
+        }.toMap()
+    }
+
+    private fun queryName(sql: String) = queryNames[sql] ?: "UNKNOWN"
+
+    /**
+     * Name of the first class outside of the database layer on the current stack. Connections are requested while the
+     * caller assembles its pipeline, so this is usually the subsystem the query is for.
+     */
+    private fun callerName(): String {
+        return StackWalker.getInstance().walk { frames ->
+            frames.map { it.className }
+                .filter { name -> ignoredCallerPrefixes.none { name.startsWith(it) } }
+                .findFirst()
+        }.map { it.substringAfterLast('.').substringBefore('$') }.orElse("unknown")
     }
 
+    private val ignoredCallerPrefixes = listOf(DatabaseManager::class.java.name, "reactor.", "java.", "kotlin.")
+
     fun disconnectFromMySQL() = pool.dispose()
 
     fun updateAPIAccount(acc: UserAPIAccount): Mono<Boolean> {
         return connect { c ->
             Mono.from(
-                c.createStatement(Queries.SELECT_API_KEY)
-                    .bind(0, acc.APIKey)
+                c.createStatement(Queries.UPSERT_API_ACCOUNT)
+                    .bind(0, acc.userId)
+                    .bind(1, acc.APIKey)
+                    .bind(2, acc.blocked)
+                    .bind(3, acc.timeIssued)
                     .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    val updateCommand = """ UPDATE ${Tables.API} SET
-                                USER_ID = ?, BLOCKED = ?
-                                WHERE API_KEY = ?
-                                """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(updateCommand)
-                            .bind(0, acc.userId)
-                            .bind(1, acc.blocked)
-                            .bind(2, acc.APIKey)
-                            .execute()
-                    ).flatMap { res -> Mono.from(res.rowsUpdated) }
-                        .thenReturn(true)
-                } else {
-                    val insertCommand = """INSERT INTO ${Tables.API}
-                                (USER_ID, API_KEY, BLOCKED, TIME_ISSUED)
-                                VALUES (?, ?, ?, ?)
-                            """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(insertCommand)
-                            .bind(0, acc.userId)
-                            .bind(1, acc.APIKey)
-                            .bind(2, acc.blocked)
-                            .bind(3, acc.timeIssued)
-                            .execute()
-                    ).flatMap { res -> Mono.from(res.rowsUpdated) }
-                        .thenReturn(true)
-                }
-            }.doOnError {
-                LOGGER.error(DEFAULT, "Failed to update API account", it)
-            }.onErrorResume { Mono.just(false) }
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .doOnError {
+                    LOGGER.error(DEFAULT, "Failed to update API account", it)
+                }.onErrorResume { Mono.just(false) }
         }
     }
 
     fun updateSettings(settings: GuildSettings): Mono<Boolean> {
-        DiscalCache.guildSettings[settings.guildID] = settings
+        DiscalCache.putSettings(settings)
 
         return connect { c ->
             Mono.from(
-                c.createStatement(Queries.SELECT_GUILD_SETTINGS)
+                c.createStatement(Queries.UPSERT_GUILD_SETTINGS)
                     .bind(0, settings.guildID.asLong())
+                    .bind(1, settings.controlRole)
+                    .bind(2, settings.announcementStyle.value)
+                    .bind(3, settings.timeFormat.value)
+                    .bind(4, settings.lang)
+                    .bind(5, settings.prefix)
+                    .bind(6, settings.patronGuild)
+                    .bind(7, settings.devGuild)
+                    .bind(8, settings.maxCalendars)
+                    .bind(9, settings.getDmAnnouncementsString())
+                    .bind(10, settings.branded)
+                    .bind(11, settings.guildID.asLong())
                     .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    val updateCommand = """UPDATE ${Tables.GUILD_SETTINGS} SET
-                                CONTROL_ROLE = ?, ANNOUNCEMENT_STYLE = ?, TIME_FORMAT = ?,
-                                LANG = ?, PREFIX = ?, PATRON_GUILD = ?, DEV_GUILD = ?,
-                                MAX_CALENDARS = ?, DM_ANNOUNCEMENTS = ?,
-                                BRANDED = ? WHERE GUILD_ID = ?
-                            """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(updateCommand)
-                            .bind(0, settings.controlRole)
-                            .bind(1, settings.announcementStyle.value)
-                            .bind(2, settings.timeFormat.value)
-                            .bind(3, settings.lang)
-                            .bind(4, settings.prefix)
-                            .bind(5, settings.patronGuild)
-                            .bind(6, settings.devGuild)
-                            .bind(7, settings.maxCalendars)
-                            .bind(8, settings.getDmAnnouncementsString())
-                            .bind(9, settings.branded)
-                            .bind(10, settings.guildID.asLong())
-                            .execute()
-                    ).flatMap { res -> Mono.from(res.rowsUpdated) }
-                        .hasElement()
-                        .thenReturn(true)
-                } else {
-                    val insertCommand = """INSERT INTO ${Tables.GUILD_SETTINGS}
-                                (GUILD_ID, CONTROL_ROLE, ANNOUNCEMENT_STYLE, TIME_FORMAT, LANG, PREFIX,
-                                PATRON_GUILD, DEV_GUILD, MAX_CALENDARS, DM_ANNOUNCEMENTS, BRANDED)
-                                VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-                            """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(insertCommand)
-                            .bind(0, settings.guildID.asLong())
-                            .bind(1, settings.controlRole)
-                            .bind(2, settings.announcementStyle.value)
-                            .bind(3, settings.timeFormat.value)
-                            .bind(4, settings.lang)
-                            .bind(5, settings.prefix)
-                            .bind(6, settings.patronGuild)
-                            .bind(7, settings.devGuild)
-                            .bind(8, settings.maxCalendars)
-                            .bind(9, settings.getDmAnnouncementsString())
-                            .bind(10, settings.branded)
-                            .execute()
-                    ).flatMap { res -> Mono.from(res.rowsUpdated) }
-                        .hasElement()
-                        .thenReturn(true)
-                }
-            }.doOnError {
-                LOGGER.error(DEFAULT, "Failed to update guild settings", it)
-            }.onErrorResume { Mono.just(false) }
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .doOnNext { DiscalCache.storeSettings(settings) }
+                .doOnError {
+                    // Don't keep serving settings that never made it to the database
+                    DiscalCache.removeSettings(settings.guildID)
+                    LOGGER.error(DEFAULT, "Failed to update guild settings", it)
+                }.onErrorResume { Mono.just(false) }
         }
     }
 
     fun updateCalendar(calData: CalendarData): Mono<Boolean> {
         return connect { c ->
             Mono.from(
-                c.createStatement(Queries.SELECT_CALENDAR_BY_GUILD)
+                c.createStatement(Queries.UPSERT_CALENDAR)
                     .bind(0, calData.guildId.asLong())
                     .bind(1, calData.calendarNumber)
+                    .bind(2, calData.host.name)
+                    .bind(3, calData.calendarId)
+                    .bind(4, calData.calendarAddress)
+                    .bind(5, calData.external)
+                    .bind(6, calData.credentialId)
+                    .bind(7, calData.privateKey)
+                    .bind(8, calData.encryptedAccessToken)
+                    .bind(9, calData.encryptedRefreshToken)
+                    .bind(10, calData.expiresAt.toEpochMilli())
+                    .bind(11, calData.guildId.asLong())
                     .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    val updateCommand = """UPDATE ${Tables.CALENDARS} SET
-                        HOST = ?, CALENDAR_ID = ?,
-                        CALENDAR_ADDRESS = ?, EXTERNAL = ?, CREDENTIAL_ID = ?,
-                        PRIVATE_KEY = ?, ACCESS_TOKEN = ?, REFRESH_TOKEN = ?, EXPIRES_AT = ?
-                        WHERE GUILD_ID = ? AND CALENDAR_NUMBER = ?
-                    """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(updateCommand)
-                            .bind(0, calData.host.name)
-                            .bind(1, calData.calendarId)
-                            .bind(2, calData.calendarAddress)
-                            .bind(3, calData.external)
-                            .bind(4, calData.credentialId)
-                            .bind(5, calData.privateKey)
-                            .bind(6, calData.encryptedAccessToken)
-                            .bind(7, calData.encryptedRefreshToken)
-                            .bind(8, calData.expiresAt.toEpochMilli())
-                            .bind(9, calData.guildId.asLong())
-                            .bind(10, calData.calendarNumber)
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else {
-                    val insertCommand = """INSERT INTO ${Tables.CALENDARS}
-                        (GUILD_ID, CALENDAR_NUMBER, HOST, CALENDAR_ID,
-                        CALENDAR_ADDRESS, EXTERNAL, CREDENTIAL_ID,
-                        PRIVATE_KEY, ACCESS_TOKEN, REFRESH_TOKEN, EXPIRES_AT) VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-                    """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(insertCommand)
-                            .bind(0, calData.guildId.asLong())
-                            .bind(1, calData.calendarNumber)
-                            .bind(2, calData.host.name)
-                            .bind(3, calData.calendarId)
-                            .bind(4, calData.calendarAddress)
-                            .bind(5, calData.external)
-                            .bind(6, calData.credentialId)
-                            .bind(7, calData.privateKey)
-                            .bind(8, calData.encryptedAccessToken)
-                            .bind(9, calData.encryptedRefreshToken)
-                            .bind(10, calData.expiresAt.toEpochMilli())
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                }
-            }.doOnError {
-                LOGGER.error(DEFAULT, "Failed to update calendar data", it)
-            }.onErrorResume { Mono.just(false) }
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .delayUntil {
+                    DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.CALENDARS, calData.guildId))
+                }.doOnError {
+                    LOGGER.error(DEFAULT, "Failed to update calendar data", it)
+                }.onErrorResume { Mono.just(false) }
         }
     }
 
     fun updateAnnouncement(announcement: Announcement): Mono<Boolean> {
         return connect { c ->
             Mono.from(
-                c.createStatement(Queries.SELECT_ANNOUNCEMENT_BY_GUILD)
-                    .bind(0, announcement.guildId.asLong())
-                    .bind(1, announcement.id)
+                c.createStatement(Queries.UPSERT_ANNOUNCEMENT)
+                    .bind(0, announcement.id)
+                    .bind(1, announcement.calendarNumber)
+                    .bind(2, announcement.guildId.asLong())
+                    .bind(3, announcement.subscriberRoleIds.asStringList())
+                    .bind(4, announcement.subscriberUserIds.asStringList())
+                    .bind(5, announcement.announcementChannelId)
+                    .bind(6, announcement.type.name)
+                    .bind(7, announcement.modifier.name)
+                    .bind(8, announcement.eventId)
+                    .bind(9, announcement.eventColor.name)
+                    .bind(10, announcement.hoursBefore)
+                    .bind(11, announcement.minutesBefore)
+                    .bind(12, announcement.info)
+                    .bind(13, announcement.enabled)
+                    .bind(14, announcement.publish)
+                    .bind(15, announcement.guildId.asLong())
                     .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    val updateCommand = """UPDATE ${Tables.ANNOUNCEMENTS} SET
-                        CALENDAR_NUMBER = ?, SUBSCRIBERS_ROLE = ?, SUBSCRIBERS_USER = ?, CHANNEL_ID = ?,
-                        ANNOUNCEMENT_TYPE = ?, MODIFIER = ?, EVENT_ID = ?, EVENT_COLOR = ?,
-                        HOURS_BEFORE = ?, MINUTES_BEFORE = ?,
-                        INFO = ?, ENABLED = ?, PUBLISH = ?
-                        WHERE ANNOUNCEMENT_ID = ? AND GUILD_ID = ?
-                    """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(updateCommand)
-                            .bind(0, announcement.calendarNumber)
-                            .bind(1, announcement.subscriberRoleIds.asStringList())
-                            .bind(2, announcement.subscriberUserIds.asStringList())
-                            .bind(3, announcement.announcementChannelId)
-                            .bind(4, announcement.type.name)
-                            .bind(5, announcement.modifier.name)
-                            .bind(6, announcement.eventId)
-                            .bind(7, announcement.eventColor.name)
-                            .bind(8, announcement.hoursBefore)
-                            .bind(9, announcement.minutesBefore)
-                            .bind(10, announcement.info)
-                            .bind(11, announcement.enabled)
-                            .bind(12, announcement.publish)
-                            .bind(13, announcement.id)
-                            .bind(14, announcement.guildId.asLong())
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else {
-                    val insertCommand = """INSERT INTO ${Tables.ANNOUNCEMENTS}
-                        (ANNOUNCEMENT_ID, CALENDAR_NUMBER, GUILD_ID, SUBSCRIBERS_ROLE, SUBSCRIBERS_USER,
-                        CHANNEL_ID, ANNOUNCEMENT_TYPE, MODIFIER, EVENT_ID, EVENT_COLOR,
-                        HOURS_BEFORE, MINUTES_BEFORE, INFO, ENABLED, PUBLISH)
-                        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-                    """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(insertCommand)
-                            .bind(0, announcement.id)
-                            .bind(1, announcement.calendarNumber)
-                            .bind(2, announcement.guildId.asLong())
-                            .bind(3, announcement.subscriberRoleIds.asStringList())
-                            .bind(4, announcement.subscriberUserIds.asStringList())
-                            .bind(5, announcement.announcementChannelId)
-                            .bind(6, announcement.type.name)
-                            .bind(7, announcement.modifier.name)
-                            .bind(8, announcement.eventId)
-                            .bind(9, announcement.eventColor.name)
-                            .bind(10, announcement.hoursBefore)
-                            .bind(11, announcement.minutesBefore)
-                            .bind(12, announcement.info)
-                            .bind(13, announcement.enabled)
-                            .bind(14, announcement.publish)
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                }
-            }.doOnError {
-                LOGGER.error(DEFAULT, "Failed to update announcement", it)
-            }.onErrorResume { Mono.just(false) }
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .doOnError {
+                    LOGGER.error(DEFAULT, "Failed to update announcement", it)
+                }.onErrorResume { Mono.just(false) }
         }
     }
 
@@ -329,179 +274,113 @@ object DatabaseManager {
             data.eventId
 
         return connect { c ->
-            Mono.from(
-                c.createStatement(Queries.SELECT_EVENT_BY_GUILD)
-                    .bind(0, data.guildId.asLong())
-                    .bind(1, id)
-                    .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    val updateCommand = """UPDATE ${Tables.EVENTS} SET
-                        CALENDAR_NUMBER = ?, IMAGE_LINK = ?, EVENT_END = ?
-                        WHERE EVENT_ID = ? AND GUILD_ID = ?
-                    """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(updateCommand)
-                            .bind(0, data.calendarNumber)
-                            .bind(1, data.imageLink)
-                            .bind(2, data.eventEnd)
-                            .bind(3, id)
-                            .bind(4, data.guildId.asLong())
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else if (data.shouldBeSaved()) {
-                    val insertCommand = """INSERT INTO ${Tables.EVENTS}
-                        (GUILD_ID, EVENT_ID, CALENDAR_NUMBER, EVENT_END, IMAGE_LINK)
-                        VALUES(?, ?, ?, ?, ?)
-                    """.trimMargin()
-
-                    Mono.from(
-                        c.createStatement(insertCommand)
-                            .bind(0, data.guildId.asLong())
-                            .bind(1, id)
-                            .bind(2, data.calendarNumber)
-                            .bind(3, data.eventEnd)
-                            .bind(4, data.imageLink)
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else {
-                    Mono.just(false)
-                }.doOnError {
-                    LOGGER.error(DEFAULT, "Failed to update event data", it)
-                }.onErrorResume { Mono.just(false) }
+            val write = if (data.shouldBeSaved()) {
+                Mono.from(
+                    c.createStatement(Queries.UPSERT_EVENT_DATA)
+                        .bind(0, data.guildId.asLong())
+                        .bind(1, id)
+                        .bind(2, data.calendarNumber)
+                        .bind(3, data.eventEnd)
+                        .bind(4, data.imageLink)
+                        .execute()
+                ).flatMapMany(Result::getRowsUpdated)
+                    .hasElements()
+                    .thenReturn(true)
+            } else {
+                // Nothing worth inserting, but an existing row still needs to reflect the change
+                Mono.from(
+                    c.createStatement(Queries.UPDATE_EVENT_DATA)
+                        .bind(0, data.calendarNumber)
+                        .bind(1, data.imageLink)
+                        .bind(2, data.eventEnd)
+                        .bind(3, id)
+                        .bind(4, data.guildId.asLong())
+                        .execute()
+                ).flatMapMany(Result::getRowsUpdated)
+                    .reduce(0) { a, b -> a + b }
+                    .map { it > 0 }
             }
+
+            write.doOnError {
+                LOGGER.error(DEFAULT, "Failed to update event data", it)
+            }.onErrorResume { Mono.just(false) }
         }
     }
 
     fun updateRsvpData(data: RsvpData): Mono<Boolean> {
         return connect { c ->
-            Mono.from(
-                c.createStatement(Queries.SELECT_RSVP_BY_GUILD)
-                    .bind(0, data.guildId.asLong())
-                    .bind(1, data.eventId)
-                    .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    val updateCommand = """UPDATE ${Tables.RSVP} SET
-                        CALENDAR_NUMBER = ?, EVENT_END = ?, GOING_ON_TIME = ?, GOING_LATE = ?,
-                        NOT_GOING = ?, UNDECIDED = ?, waitlist = ?, RSVP_LIMIT = ?, RSVP_ROLE = ?
-                        WHERE EVENT_ID = ? AND GUILD_ID = ?
-                    """.trimMargin()
-
-                    Mono.just(
-                        c.createStatement(updateCommand)
-                            .bind(0, data.calendarNumber)
-                            .bind(1, data.eventEnd)
-                            .bind(2, data.goingOnTime.asStringList())
-                            .bind(3, data.goingLate.asStringList())
-                            .bind(4, data.notGoing.asStringList())
-                            .bind(5, data.undecided.asStringList())
-                            .bind(6, data.waitlist.asStringList())
-                            .bind(7, data.limit)
-                            //8 deal with nullable role below
-                            .bind(9, data.eventId)
-                            .bind(10, data.guildId.asLong())
-                    ).doOnNext { statement ->
-                        if (data.roleId == null)
-                            statement.bindNull(8, Long::class.java)
-                        else
-                            statement.bind(8, data.roleId!!.asLong())
-                    }.flatMap {
-                        Mono.from(it.execute())
-                    }.flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else if (data.shouldBeSaved()) {
-                    val insertCommand = """INSERT INTO ${Tables.RSVP}
-                        (GUILD_ID, EVENT_ID, CALENDAR_NUMBER, EVENT_END, GOING_ON_TIME, GOING_LATE,
-                        NOT_GOING, UNDECIDED, waitlist, RSVP_LIMIT, RSVP_ROLE)
-                        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-                    """.trimMargin()
-
-                    Mono.just(
-                        c.createStatement(insertCommand)
-                            .bind(0, data.guildId.asLong())
-                            .bind(1, data.eventId)
-                            .bind(2, data.calendarNumber)
-                            .bind(3, data.eventEnd)
-                            .bind(4, data.goingOnTime.asStringList())
-                            .bind(5, data.goingLate.asStringList())
-                            .bind(6, data.notGoing.asStringList())
-                            .bind(7, data.undecided.asStringList())
-                            .bind(8, data.waitlist.asStringList())
-                            .bind(9, data.limit)
-                    ).doOnNext { statement ->
-                        if (data.roleId == null)
-                            statement.bindNull(10, Long::class.java)
-                        else
-                            statement.bind(10, data.roleId!!.asLong())
-                    }.flatMap {
-                        Mono.from(it.execute())
-                    }.flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else {
-                    Mono.just(false)
-                }.doOnError {
-                    LOGGER.error(DEFAULT, "Failed to update rsvp data", it)
-                }.onErrorResume { Mono.just(false) }
+            val write = if (data.shouldBeSaved()) {
+                Mono.just(
+                    c.createStatement(Queries.UPSERT_RSVP_DATA)
+                        .bind(0, data.guildId.asLong())
+                        .bind(1, data.eventId)
+                        .bind(2, data.calendarNumber)
+                        .bind(3, data.eventEnd)
+                        .bind(4, data.goingOnTime.asStringList())
+                        .bind(5, data.goingLate.asStringList())
+                        .bind(6, data.notGoing.asStringList())
+                        .bind(7, data.undecided.asStringList())
+                        .bind(8, data.waitlist.asStringList())
+                        .bind(9, data.limit)
+                        //10 deal with nullable role below
+                ).doOnNext { statement ->
+                    if (data.roleId == null)
+                        statement.bindNull(10, Long::class.java)
+                    else
+                        statement.bind(10, data.roleId!!.asLong())
+                }.flatMap {
+                    Mono.from(it.execute())
+                }.flatMapMany(Result::getRowsUpdated)
+                    .hasElements()
+                    .thenReturn(true)
+            } else {
+                // Nothing worth inserting, but an existing row still needs to reflect the change
+                Mono.just(
+                    c.createStatement(Queries.UPDATE_RSVP_DATA)
+                        .bind(0, data.calendarNumber)
+                        .bind(1, data.eventEnd)
+                        .bind(2, data.goingOnTime.asStringList())
+                        .bind(3, data.goingLate.asStringList())
+                        .bind(4, data.notGoing.asStringList())
+                        .bind(5, data.undecided.asStringList())
+                        .bind(6, data.waitlist.asStringList())
+                        .bind(7, data.limit)
+                        //8 deal with nullable role below
+                        .bind(9, data.eventId)
+                        .bind(10, data.guildId.asLong())
+                ).doOnNext { statement ->
+                    if (data.roleId == null)
+                        statement.bindNull(8, Long::class.java)
+                    else
+                        statement.bind(8, data.roleId!!.asLong())
+                }.flatMap {
+                    Mono.from(it.execute())
+                }.flatMapMany(Result::getRowsUpdated)
+                    .reduce(0) { a, b -> a + b }
+                    .map { it > 0 }
             }
+
+            write.doOnError {
+                LOGGER.error(DEFAULT, "Failed to update rsvp data", it)
+            }.onErrorResume { Mono.just(false) }
         }
     }
 
     fun updateCredentialData(credData: GoogleCredentialData): Mono<Boolean> {
         return connect { c ->
             Mono.from(
-                c.createStatement(Queries.SELECT_CREDENTIAL_DATA)
+                c.createStatement(Queries.UPSERT_CREDENTIAL_DATA)
                     .bind(0, credData.credentialNumber)
+                    .bind(1, credData.encryptedRefreshToken)
+                    .bind(2, credData.encryptedAccessToken)
+                    .bind(3, credData.expiresAt.toEpochMilli())
                     .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    val updateCommand = """UPDATE ${Tables.CREDS} SET
-                        REFRESH_TOKEN = ?, ACCESS_TOKEN = ?, EXPIRES_AT = ?
-                        WHERE CREDENTIAL_NUMBER = ?""".trimMargin()
-
-                    Mono.from(
-                        c.createStatement(updateCommand)
-                            .bind(0, credData.encryptedRefreshToken)
-                            .bind(1, credData.encryptedAccessToken)
-                            .bind(2, credData.expiresAt.toEpochMilli())
-                            .bind(3, credData.credentialNumber)
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else {
-                    val insertCommand = """INSERT INTO ${Tables.CREDS}
-                        |(CREDENTIAL_NUMBER, REFRESH_TOKEN, ACCESS_TOKEN, EXPIRES_AT)
-                        |VALUES(?, ?, ?, ?)""".trimMargin()
-
-                    Mono.from(
-                        c.createStatement(insertCommand)
-                            .bind(0, credData.credentialNumber)
-                            .bind(1, credData.encryptedRefreshToken)
-                            .bind(2, credData.encryptedAccessToken)
-                            .bind(3, credData.expiresAt.toEpochMilli())
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                }.doOnError {
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .doOnError {
                     LOGGER.error(DEFAULT, "Failed to update credential data", it)
                 }.onErrorResume { Mono.just(false) }
-            }
-
         }
     }
 
@@ -530,51 +409,105 @@ object DatabaseManager {
     }
 
     fun getSettings(guildId: Snowflake): Mono<GuildSettings> {
-        if (DiscalCache.guildSettings.containsKey(guildId))
-            return Mono.just(DiscalCache.guildSettings[guildId]!!)
+        val cached = DiscalCache.getSettings(guildId)
+        if (cached != null) {
+            DiscalCache.refreshAhead(DiscalCache.SETTINGS_REGION, guildId) { loadSettings(guildId) }
+            return Mono.just(cached)
+        }
+
+        return DiscalCache.timeLoad(DiscalCache.SETTINGS_REGION, loadSettings(guildId))
+    }
+
+    private fun loadSettings(guildId: Snowflake): Mono<GuildSettings> {
+        return Mono.defer {
+            // Taken before reading, so settings written while this loads aren't replaced by what it read
+            val generation = DiscalCache.generation(DiscalCache.SETTINGS_REGION, guildId)
+
+            DiscalCache.getRemoteSettings(guildId).flatMap { read ->
+                val hit = read.value
+                if (hit != null) {
+                    DiscalCache.fillSettings(hit, generation)
+                    Mono.just(hit)
+                } else loadStoredSettings(guildId, generation, read)
+            }
+        }
+    }
 
+    private fun loadStoredSettings(guildId: Snowflake, generation: Long, read: RemoteRead<*>): Mono<GuildSettings> {
         return connect { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_GUILD_SETTINGS)
                     .bind(0, guildId.asLong())
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val controlRole = row["CONTROL_ROLE", String::class.java]!!
-                    val announcementStyle = AnnouncementStyle.fromValue(row["ANNOUNCEMENT_STYLE", Int::class.java]!!)
-                    val timeFormat = TimeFormat.fromValue(row["TIME_FORMAT", Int::class.java]!!)
-                    val lang = row["LANG", String::class.java]!!
-                    val prefix = row["PREFIX", String::class.java]!!
-                    val patron = row["PATRON_GUILD", Boolean::class.java]!!
-                    val dev = row["DEV_GUILD", Boolean::class.java]!!
-                    val maxCals = row["MAX_CALENDARS", Int::class.java]!!
-                    val dmAnnouncementsString = row["DM_ANNOUNCEMENTS", String::class.java]!!
-                    val branded = row["BRANDED", Boolean::class.java]!!
-
-                    val settings = GuildSettings(
-                        guildId, controlRole, announcementStyle, timeFormat,
-                        lang, prefix, patron, dev, maxCals, branded
-                    )
-
-                    settings.dmAnnouncements.setFromString(dmAnnouncementsString)
-
-                    //Store in cache...
-                    DiscalCache.guildSettings[guildId] = settings
-
-                    settings
-                }
+                res.map(GuildSettingsMapper())
             }.next().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
-            ).doOnError {
+            ).switchIfEmpty(Mono.fromCallable {
+                // No row saved, defaults are cached the same as a stored row. Errors below are not cached.
+                GuildSettings.empty(guildId)
+            }).doOnNext {
+                DiscalCache.fillSettings(it, generation)
+                DiscalCache.fillRemoteSettings(it, read)
+            }.doOnError {
                 LOGGER.error(DEFAULT, "Failed to get guild settings", it)
-            }.onErrorReturn(GuildSettings.empty(guildId)).defaultIfEmpty(GuildSettings.empty(guildId))
+            }.onErrorResume {
+                Mono.justOrEmpty(DiscalCache.getSnapshotSettings(guildId))
+            }.defaultIfEmpty(GuildSettings.empty(guildId))
+        }
+    }
+
+    /**
+     * Loads the settings of many guilds with a few chunked queries and caches them the same as [getSettings].
+     * Guilds without a settings row get their defaults. A chunk that fails to load falls back to the cache snapshot,
+     * guilds missing from it are left to be loaded one at a time when they are needed.
+     *
+     * @return A [Flux] of the settings loaded, in no particular order
+     */
+    fun getManySettings(guildIds: Collection<Snowflake>): Flux<GuildSettings> {
+        return Flux.defer {
+            Flux.fromIterable(guildIds.distinct().chunked(Queries.MANY_GUILD_SETTINGS_BUCKETS.last()))
+                .concatMap(this::getSettingsChunk)
         }
     }
 
+    private fun getSettingsChunk(ids: List<Snowflake>): Flux<GuildSettings> {
+        // Pad out to the nearest bucket by repeating the last ID, keeps the number of distinct statements tiny
+        val size = Queries.MANY_GUILD_SETTINGS_BUCKETS.first { it >= ids.size }
+
+        return connect { c ->
+            val generations = ids.associateWith { DiscalCache.generation(DiscalCache.SETTINGS_REGION, it) }
+            val statement = c.createStatement(Queries.SELECT_MANY_GUILD_SETTINGS.getValue(size))
+            for (i in 0 until size) statement.bind(i, ids[minOf(i, ids.size - 1)].asLong())
+
+            Mono.from(statement.execute()).flatMapMany { res ->
+                res.map(GuildSettingsMapper())
+            }.retryWhen(Retry.max(3)
+                .filter(IllegalStateException::class::isInstance)
+                .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
+            ).collectMap { it.guildID }.map { found ->
+                ids.map { found[it] ?: GuildSettings.empty(it) }
+            }.doOnNext {
+                it.forEach { settings -> DiscalCache.fillSettings(settings, generations.getValue(settings.guildID)) }
+            }.doOnError {
+                LOGGER.error(DEFAULT, "Failed to get many guild settings", it)
+            }.onErrorResume {
+                Mono.just(ids.mapNotNull(DiscalCache::getSnapshotSettings))
+            }
+        }.flatMapMany { Flux.fromIterable(it) }
+    }
+
     fun getMainCalendar(guildId: Snowflake): Mono<CalendarData> = getCalendar(guildId, 1)
 
     fun getCalendar(guildId: Snowflake, calendarNumber: Int): Mono<CalendarData> {
+        // Guilds only have a few calendars, loading them all lets every node share one remote cache entry
+        if (DiscalCache.remoteEnabled) {
+            return getAllCalendars(guildId).flatMap { all ->
+                Mono.justOrEmpty(all.firstOrNull { it.calendarNumber == calendarNumber })
+            }
+        }
+
         return connect { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_CALENDAR_BY_GUILD)
@@ -582,62 +515,51 @@ object DatabaseManager {
                     .bind(1, calendarNumber)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val calId = row["CALENDAR_ID", String::class.java]!!
-                    val calNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    val calAddr = row["CALENDAR_ADDRESS", String::class.java]!!
-                    val host = CalendarHost.valueOf(row["HOST", String::class.java]!!)
-                    val external = row["EXTERNAL", Boolean::class.java]!!
-                    val credId = row["CREDENTIAL_ID", Int::class.java]!!
-                    val privateKey = row["PRIVATE_KEY", String::class.java]!!
-                    val accessToken = row["ACCESS_TOKEN", String::class.java]!!
-                    val refreshToken = row["REFRESH_TOKEN", String::class.java]!!
-                    val expiresAt = Instant.ofEpochMilli(row["EXPIRES_AT", Long::class.java]!!)
-
-                    CalendarData(
-                        guildId, calNumber, host, calId, calAddr, external,
-                        credId, privateKey, accessToken, refreshToken, expiresAt
-                    )
-                }
+                res.map(CalendarDataMapper())
             }.next().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
             ).doOnError {
-                LOGGER.error(DEFAULT, "Failed to get all guild calendars", it)
-            }.onErrorResume { Mono.empty() }
+                LOGGER.error(DEFAULT, "Failed to get guild calendar", it)
+            }.onErrorResume {
+                val all = DiscalCache.getSnapshotCalendars(guildId)
+                Mono.justOrEmpty(all?.firstOrNull { calendar -> calendar.calendarNumber == calendarNumber })
+            }
         }
     }
 
     fun getAllCalendars(guildId: Snowflake): Mono<List<CalendarData>> {
+        return loadAllCalendars(guildId).onErrorReturn(mutableListOf())
+    }
+
+    /**
+     * Same as [getAllCalendars], but a load that fails with no snapshot to fall back to is emitted as the error rather
+     * than an empty list, so callers that cache the result can tell a guild without calendars from a failure.
+     */
+    fun loadAllCalendars(guildId: Snowflake): Mono<List<CalendarData>> {
+        return DiscalCache.getRemoteCalendars(guildId).flatMap { read ->
+            read.value?.let { Mono.just(it) } ?: loadStoredCalendars(guildId, read)
+        }.doOnError {
+            LOGGER.error(DEFAULT, "Failed to get all guild calendars", it)
+        }.onErrorResume { error ->
+            DiscalCache.getSnapshotCalendars(guildId)?.let { Mono.just(it) } ?: Mono.error(error)
+        }
+    }
+
+    private fun loadStoredCalendars(guildId: Snowflake, read: RemoteRead<*>): Mono<List<CalendarData>> {
         return connect { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_ALL_CALENDARS_BY_GUILD)
                     .bind(0, guildId.asLong())
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val calId = row["CALENDAR_ID", String::class.java]!!
-                    val calNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    val calAddr = row["CALENDAR_ADDRESS", String::class.java]!!
-                    val host = CalendarHost.valueOf(row["HOST", String::class.java]!!)
-                    val external = row["EXTERNAL", Boolean::class.java]!!
-                    val credId = row["CREDENTIAL_ID", Int::class.java]!!
-                    val privateKey = row["PRIVATE_KEY", String::class.java]!!
-                    val accessToken = row["ACCESS_TOKEN", String::class.java]!!
-                    val refreshToken = row["REFRESH_TOKEN", String::class.java]!!
-                    val expiresAt = Instant.ofEpochMilli(row["EXPIRES_AT", Long::class.java]!!)
-
-                    CalendarData(
-                        guildId, calNumber, host, calId, calAddr, external,
-                        credId, privateKey, accessToken, refreshToken, expiresAt
-                    )
-                }
+                res.map(CalendarDataMapper())
             }.collectList().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
-            ).doOnError {
-                LOGGER.error(DEFAULT, "Failed to get all guild calendars", it)
-            }.onErrorReturn(mutableListOf())
+            ).doOnNext {
+                DiscalCache.fillRemoteCalendars(guildId, it, read)
+            }
         }
     }
 
@@ -692,15 +614,7 @@ object DatabaseManager {
                     .bind(1, eventIdLookup)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-
-                    val id = row["EVENT_ID", String::class.java]!!
-                    val calNum = row["CALENDAR_NUMBER", Int::class.java]!!
-                    val end = row["EVENT_END", Long::class.java]!!
-                    val img = row["IMAGE_LINK", String::class.java]!!
-
-                    EventData(guildId, id, calNum, end, img)
-                }
+                res.map(EventDataMapper())
             }.next().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -720,25 +634,7 @@ object DatabaseManager {
                     .bind(1, eventId)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val calNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-
-                    val data = RsvpData(guildId, eventId, calNumber)
-
-                    data.eventEnd = row["EVENT_END", Long::class.java]!!
-                    data.goingOnTime.setFromString(row["GOING_ON_TIME", String::class.java]!!)
-                    data.goingLate.setFromString(row["GOING_LATE", String::class.java]!!)
-                    data.notGoing.setFromString(row["NOT_GOING", String::class.java]!!)
-                    data.undecided.setFromString(row["UNDECIDED", String::class.java]!!)
-                    data.waitlist.setFromString(row["waitlist", String::class.java]!!)
-                    data.limit = row["RSVP_LIMIT", Int::class.java]!!
-
-                    //Handle new rsvp role
-                    if (row.get("RSVP_ROLE") != null)
-                        data.setRole(Snowflake.of(row["RSVP_ROLE", Long::class.java]!!))
-
-                    data
-                }
+                res.map(RsvpDataMapper())
             }.next().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -758,24 +654,7 @@ object DatabaseManager {
                     .bind(1, announcementId)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
+                res.map(AnnouncementMapper())
             }.next().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -792,26 +671,7 @@ object DatabaseManager {
                     .bind(0, guildId.asLong())
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
+                res.map(AnnouncementMapper())
             }.collectList().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -829,26 +689,7 @@ object DatabaseManager {
                     .bind(1, type.name)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
+                res.map(AnnouncementMapper())
             }.collectList().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -858,113 +699,56 @@ object DatabaseManager {
         }.defaultIfEmpty(mutableListOf())
     }
 
-    fun getAnnouncements(): Mono<List<Announcement>> {
-        return connect { c ->
+    fun getAnnouncements(): Flux<Announcement> {
+        return connectMany { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_ALL_ANNOUNCEMENTS)
+                    .fetchSize(STREAM_FETCH_SIZE)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-                    val guildId = Snowflake.of(row["GUILD_ID", Long::class.java]!!)
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
-            }.collectList().retryWhen(Retry.max(3)
+                res.map(AnnouncementMapper())
+            }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
             ).doOnError {
                 LOGGER.error(DEFAULT, "Failed to get all announcements", it)
-            }.onErrorReturn(mutableListOf())
-        }.defaultIfEmpty(mutableListOf())
+            }.onErrorResume { Mono.empty() }
+        }
     }
 
-    fun getAnnouncements(type: AnnouncementType): Mono<List<Announcement>> {
-        return connect { c ->
+    fun getAnnouncements(type: AnnouncementType): Flux<Announcement> {
+        return connectMany { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_ALL_ANNOUNCEMENTS_BY_TYPE)
+                    .fetchSize(STREAM_FETCH_SIZE)
                     .bind(0, type.name)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-                    val guildId = Snowflake.of(row["GUILD_ID", Long::class.java]!!)
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
-            }.collectList().retryWhen(Retry.max(3)
+                res.map(AnnouncementMapper())
+            }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
             ).doOnError {
                 LOGGER.error(DEFAULT, "Failed to get announcements by type", it)
-            }.onErrorReturn(mutableListOf())
-        }.defaultIfEmpty(mutableListOf())
+            }.onErrorResume { Mono.empty() }
+        }
     }
 
-    fun getEnabledAnnouncements(): Mono<List<Announcement>> {
-        return connect { c ->
+    fun getEnabledAnnouncements(): Flux<Announcement> {
+        return connectMany { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_ALL_ENABLED_ANNOUNCEMENTS)
+                    .fetchSize(STREAM_FETCH_SIZE)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-                    val guildId = Snowflake.of(row["GUILD_ID", Long::class.java]!!)
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
-            }.collectList().retryWhen(Retry.max(3)
+                res.map(AnnouncementMapper())
+            }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
             ).doOnError {
                 LOGGER.error(DEFAULT, "Failed to get enabled announcements", it)
-            }.onErrorReturn(mutableListOf())
-        }.defaultIfEmpty(mutableListOf())
+            }.onErrorResume { Mono.empty() }
+        }
     }
 
     fun getEnabledAnnouncements(guildId: Snowflake): Mono<List<Announcement>> {
@@ -974,26 +758,7 @@ object DatabaseManager {
                     .bind(0, guildId.asLong())
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
+                res.map(AnnouncementMapper())
             }.collectList().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1003,41 +768,22 @@ object DatabaseManager {
         }.defaultIfEmpty(mutableListOf())
     }
 
-    fun getEnabledAnnouncements(announcementType: AnnouncementType): Mono<List<Announcement>> {
-        return connect { c ->
+    fun getEnabledAnnouncements(announcementType: AnnouncementType): Flux<Announcement> {
+        return connectMany { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_ENABLED_ANNOUNCEMENTS_BY_TYPE)
+                    .fetchSize(STREAM_FETCH_SIZE)
                     .bind(0, announcementType.name)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-                    val guildId = Snowflake.of(row["GUILD_ID", Long::class.java]!!)
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
-            }.collectList().retryWhen(Retry.max(3)
+                res.map(AnnouncementMapper())
+            }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
             ).doOnError {
                 LOGGER.error(DEFAULT, "Failed to get enabled announcements by type", it)
-            }.onErrorReturn(mutableListOf())
-        }.defaultIfEmpty(mutableListOf())
+            }.onErrorResume { Mono.empty() }
+        }
     }
 
     fun getEnabledAnnouncements(guildId: Snowflake, type: AnnouncementType): Mono<List<Announcement>> {
@@ -1048,26 +794,7 @@ object DatabaseManager {
                     .bind(1, type.name)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
+                res.map(AnnouncementMapper())
             }.collectList().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1166,93 +893,151 @@ object DatabaseManager {
         }.defaultIfEmpty(false)
     }
 
-    fun removeRsvpRole(guildId: Snowflake, roleId: Snowflake): Mono<Boolean> {
+    /* Utility Deletion Methods */
+
+    fun deleteCalendarAndRelatedData(calendarData: CalendarData): Mono<Boolean> {
+        val guildId = calendarData.guildId.asLong()
+        val calNumber = calendarData.calendarNumber
+
         return connect { c ->
-            Mono.from(
-                c.createStatement(Queries.REMOVE_RSVP_ROLE)
-                    .bindNull(0, Long::class.java)
-                    .bind(1, guildId.asLong())
-                    .bind(2, roleId.asLong())
-                    .execute()
-            ).flatMapMany(Result::getRowsUpdated)
-                .hasElements()
+            val deletes = listOf(
+                Queries.DELETE_CALENDAR,
+                Queries.DELETE_ALL_EVENT_DATA,
+                Queries.DELETE_ALL_RSVP_DATA,
+                Queries.DELETE_ALL_ANNOUNCEMENT_DATA,
+                Queries.DELETE_ALL_STATIC_MESSAGES,
+            ).map { c.createStatement(it).bind(0, guildId).bind(1, calNumber) }
+
+            // Only calendars numbered after the deleted one need to shift down
+            val decrements = listOf(
+                Queries.DECREMENT_CALENDARS,
+                Queries.DECREMENT_EVENTS,
+                Queries.DECREMENT_RSVPS,
+                Queries.DECREMENT_ANNOUNCEMENTS,
+                Queries.DECREMENT_STATIC_MESSAGES,
+            ).map { c.createStatement(it).bind(0, guildId).bind(1, calNumber) }
+
+            executeInTransaction(c, deletes + decrements)
+                .delayUntil {
+                    DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.CALENDARS, calendarData.guildId))
+                }.thenReturn(true)
+                .doOnError {
+                    LOGGER.error(DEFAULT, "Full calendar delete failed!", it)
+                }.onErrorReturn(false)
+        }
+    }
+
+    fun deleteAllDataForGuild(guildId: Snowflake): Mono<Boolean> {
+        return connect { c ->
+            val deletes = listOf(
+                Queries.DELETE_GUILD_SETTINGS_FOR_GUILD,
+                Queries.DELETE_CALENDARS_FOR_GUILD,
+                Queries.DELETE_EVENTS_FOR_GUILD,
+                Queries.DELETE_RSVPS_FOR_GUILD,
+                Queries.DELETE_ANNOUNCEMENTS_FOR_GUILD,
+                Queries.DELETE_STATIC_MESSAGES_FOR_GUILD,
+            ).map { c.createStatement(it).bind(0, guildId.asLong()) }
+
+            executeInTransaction(c, deletes)
+                .delayUntil { DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.GUILD, guildId)) }
                 .thenReturn(true)
                 .doOnError {
-                    LOGGER.error(DEFAULT, "Failed update all rsvp with role for guild ", it)
+                    LOGGER.error(DEFAULT, "Full data delete failed!", it)
                 }.onErrorReturn(false)
-        }.defaultIfEmpty(false)
+        }
     }
 
-    /* Utility Deletion Methods */
+    /* Gateway Cleanup Methods */
 
-    fun deleteCalendarAndRelatedData(calendarData: CalendarData): Mono<Boolean> {
+    /**
+     * Disables announcements posting to a deleted channel and drops the static messages that were in it.
+     */
+    fun cleanUpDeletedChannel(guildId: Snowflake, channelId: Snowflake): Mono<Boolean> {
         return connect { c ->
-            Mono.from(
-                c.createStatement(Queries.FULL_CALENDAR_DELETE) //Monolith 8 statement query
-                    // calendar delete bindings
-                    .bind(0, calendarData.guildId.asLong())
-                    .bind(1, calendarData.calendarNumber)
-                    // event delete bindings
-                    .bind(2, calendarData.guildId.asLong())
-                    .bind(3, calendarData.calendarNumber)
-                    // rsvp delete bindings
-                    .bind(4, calendarData.guildId.asLong())
-                    .bind(5, calendarData.calendarNumber)
-                    // announcement delete bindings
-                    .bind(6, calendarData.guildId.asLong())
-                    .bind(7, calendarData.calendarNumber)
-                    // delete static message bindings
-                    .bind(8, calendarData.guildId.asLong())
-                    .bind(9, calendarData.calendarNumber)
-                    // decrement calendar bindings
-                    .bind(10, calendarData.calendarNumber)
-                    .bind(11, calendarData.guildId.asLong())
-                    // decrement event bindings
-                    .bind(12, calendarData.calendarNumber)
-                    .bind(13, calendarData.guildId.asLong())
-                    // decrement rsvp bindings
-                    .bind(14, calendarData.calendarNumber)
-                    .bind(15, calendarData.guildId.asLong())
-                    // decrement announcement bindings
-                    .bind(16, calendarData.calendarNumber)
-                    .bind(17, calendarData.guildId.asLong())
-                    // decrement static message bindings
-                    .bind(18, calendarData.calendarNumber)
-                    .bind(19, calendarData.guildId.asLong())
-                    .execute()
-            ).flatMapMany(Result::getRowsUpdated)
-                .hasElements()
+            val statements = listOf(
+                c.createStatement(Queries.DISABLE_ANNOUNCEMENTS_FOR_CHANNEL)
+                    .bind(0, guildId.asLong())
+                    .bind(1, channelId.asString()),
+                c.createStatement(Queries.DELETE_STATIC_MESSAGES_FOR_CHANNEL)
+                    .bind(0, guildId.asLong())
+                    .bind(1, channelId.asLong()),
+            )
+
+            executeInTransaction(c, statements)
                 .thenReturn(true)
                 .doOnError {
-                    LOGGER.error(DEFAULT, "Full calendar delete failed!", it)
+                    LOGGER.error(DEFAULT, "Failed to clean up deleted channel", it)
                 }.onErrorReturn(false)
-        }.defaultIfEmpty(true) // If nothing was updated and no error was emitted, it's safe to return this worked.
+        }
     }
 
-    fun deleteAllDataForGuild(guildId: Snowflake): Mono<Boolean> {
+    /**
+     * Removes a deleted role from rsvp data, announcement subscribers and the control role.
+     */
+    fun cleanUpDeletedRole(guildId: Snowflake, roleId: Snowflake): Mono<Boolean> {
         return connect { c ->
-            Mono.from(
-                c.createStatement(Queries.DELETE_EVERYTHING_FOR_GUILD) //Monolith 6 statement query
-                    // settings delete bindings
-                    .bind(0, guildId.asLong())
-                    // calendar delete bindings
+            val statements = listOf(
+                c.createStatement(Queries.REMOVE_RSVP_ROLE)
+                    .bindNull(0, Long::class.java)
                     .bind(1, guildId.asLong())
-                    // event delete bindings
-                    .bind(2, guildId.asLong())
-                    // rsvp delete bindings
-                    .bind(3, guildId.asLong())
-                    // announcement delete bindings
-                    .bind(4, guildId.asLong())
-                    // static message delete bindings
-                    .bind(5, guildId.asLong())
-                    .execute()
-            ).flatMapMany(Result::getRowsUpdated)
-                .hasElements()
-                .thenReturn(true)
+                    .bind(2, roleId.asLong()),
+                c.createStatement(Queries.REMOVE_ANNOUNCEMENT_SUBSCRIBER_ROLE)
+                    .bind(0, roleId.asString())
+                    .bind(1, guildId.asLong())
+                    .bind(2, roleId.asString()),
+                c.createStatement(Queries.RESET_CONTROL_ROLE)
+                    .bind(0, guildId.asLong())
+                    .bind(1, roleId.asString()),
+            )
+
+            executeInTransaction(c, statements)
+                .delayUntil {
+                    DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, guildId))
+                }.thenReturn(true)
                 .doOnError {
-                    LOGGER.error(DEFAULT, "Full data delete failed!", it)
+                    LOGGER.error(DEFAULT, "Failed to clean up deleted role", it)
                 }.onErrorReturn(false)
-        }.defaultIfEmpty(true) // If nothing was updated and no error was emitted, it's safe to return this worked.
+        }
+    }
+
+    /**
+     * Removes members that left from announcement subscribers and dm announcements, in one batch.
+     *
+     * @param members Pairs of guild id and the id of the user that left it
+     */
+    fun cleanUpLeftMembers(members: List<Pair<Snowflake, Snowflake>>): Mono<Boolean> {
+        if (members.isEmpty()) return Mono.just(true)
+
+        return connect { c ->
+            val subscribers = c.createStatement(Queries.REMOVE_ANNOUNCEMENT_SUBSCRIBER_USER)
+            val dmAnnouncements = c.createStatement(Queries.REMOVE_DM_ANNOUNCEMENT_USER)
+
+            members.forEachIndexed { i, (guildId, userId) ->
+                if (i > 0) {
+                    subscribers.add()
+                    dmAnnouncements.add()
+                }
+
+                subscribers.bind(0, userId.asString()).bind(1, guildId.asLong()).bind(2, userId.asString())
+                dmAnnouncements.bind(0, userId.asString()).bind(1, guildId.asLong()).bind(2, userId.asString())
+            }
+
+            executeEachInTransaction(c, listOf(subscribers, dmAnnouncements))
+                .delayUntil { (_, dmUpdates) ->
+                    // Only DM announcement users live in guild settings. Drivers answer a batch with a result per
+                    // member or with one for all of them
+                    val changed = if (dmUpdates.size == members.size) {
+                        members.filterIndexed { i, _ -> dmUpdates[i] > 0 }
+                    } else if (dmUpdates.sum() > 0) members else emptyList()
+
+                    Flux.fromIterable(changed.map { it.first }.distinct()).flatMap { guildId ->
+                        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, guildId))
+                    }
+                }.thenReturn(true)
+                .doOnError {
+                    LOGGER.error(DEFAULT, "Failed to clean up members that left", it)
+                }.onErrorReturn(false)
+        }
     }
 
     /* Static message */
@@ -1260,42 +1045,22 @@ object DatabaseManager {
     fun updateStaticMessage(message: StaticMessage): Mono<Boolean> {
         return connect { c ->
             Mono.from(
-                c.createStatement(Queries.SELECT_STATIC_MESSAGE)
+                c.createStatement(Queries.UPSERT_STATIC_MESSAGE)
                     .bind(0, message.guildId.asLong())
                     .bind(1, message.messageId.asLong())
+                    .bind(2, message.channelId.asLong())
+                    .bind(3, message.type.value)
+                    .bind(4, message.lastUpdate)
+                    .bind(5, message.scheduledUpdate)
+                    .bind(6, message.calendarNumber)
+                    .bind(7, message.guildId.asLong())
                     .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ -> row }
-            }.hasElements().flatMap { exists ->
-                if (exists) {
-                    Mono.from(
-                        c.createStatement(Queries.UPDATE_STATIC_MESSAGE)
-                            .bind(0, message.lastUpdate)
-                            .bind(1, message.scheduledUpdate)
-                            .bind(2, message.guildId.asLong())
-                            .bind(3, message.messageId.asLong())
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                } else {
-                    Mono.from(
-                        c.createStatement(Queries.INSERT_STATIC_MESSAGE)
-                            .bind(0, message.guildId.asLong())
-                            .bind(1, message.messageId.asLong())
-                            .bind(2, message.channelId.asLong())
-                            .bind(3, message.type.value)
-                            .bind(4, message.lastUpdate)
-                            .bind(5, message.scheduledUpdate)
-                            .bind(6, message.calendarNumber)
-                            .execute()
-                    ).flatMapMany(Result::getRowsUpdated)
-                        .hasElements()
-                        .thenReturn(true)
-                }.doOnError {
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .doOnError {
                     LOGGER.error(DEFAULT, "Failed to update static message data", it)
                 }.onErrorResume { Mono.just(false) }
-            }
         }
     }
 
@@ -1307,15 +1072,7 @@ object DatabaseManager {
                     .bind(1, messageId.asLong())
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val channelId = Snowflake.of(row["channel_id", Long::class.java]!!)
-                    val type = StaticMessage.Type.valueOf(row["type", Int::class.java]!!)
-                    val lastUpdate = row["last_update", Instant::class.java]!!
-                    val scheduledUpdate = row["scheduled_update", Instant::class.java]!!
-                    val calNum = row["calendar_number", Int::class.java]!!
-
-                    StaticMessage(guildId, messageId, channelId, type, lastUpdate, scheduledUpdate, calNum)
-                }
+                res.map(StaticMessageMapper())
             }.next().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1362,25 +1119,15 @@ object DatabaseManager {
         }
     }
 
-    fun getStaticMessagesForShard(shardCount: Int, shardIndex: Int): Mono<List<StaticMessage>> {
-        return connect { c ->
+    fun getStaticMessagesForShard(shardIndex: Int): Flux<StaticMessage> {
+        return connectMany { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_STATIC_MESSAGES_FOR_SHARD)
-                    .bind(0, shardCount)
-                    .bind(1, shardIndex)
+                    .fetchSize(STREAM_FETCH_SIZE)
+                    .bind(0, shardIndex)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val guildId = Snowflake.of(row["guild_id", Long::class.java]!!)
-                    val messageId = Snowflake.of(row["message_id", Long::class.java]!!)
-                    val channelId = Snowflake.of(row["channel_id", Long::class.java]!!)
-                    val type = StaticMessage.Type.valueOf(row["type", Int::class.java]!!)
-                    val lastUpdate = row["last_update", Instant::class.java]!!
-                    val scheduledUpdate = row["scheduled_update", Instant::class.java]!!
-                    val calNum = row["calendar_number", Int::class.java]!!
-
-                    StaticMessage(guildId, messageId, channelId, type, lastUpdate, scheduledUpdate, calNum)
-                }
+                res.map(StaticMessageMapper())
             }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1388,7 +1135,7 @@ object DatabaseManager {
                 LOGGER.error(DEFAULT, "Failed to get static messages for shard", it)
             }.onErrorResume {
                 Mono.empty()
-            }.collectList()
+            }
         }
     }
 
@@ -1400,15 +1147,7 @@ object DatabaseManager {
                     .bind(1, calendarNumber)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val messageId = Snowflake.of(row["message_id", Long::class.java]!!)
-                    val channelId = Snowflake.of(row["channel_id", Long::class.java]!!)
-                    val type = StaticMessage.Type.valueOf(row["type", Int::class.java]!!)
-                    val lastUpdate = row["last_update", Instant::class.java]!!
-                    val scheduledUpdate = row["scheduled_update", Instant::class.java]!!
-
-                    StaticMessage(guildId, messageId, channelId, type, lastUpdate, scheduledUpdate, calendarNumber)
-                }
+                res.map(StaticMessageMapper())
             }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1424,39 +1163,26 @@ object DatabaseManager {
 
     fun getEventsData(guildId: Snowflake, eventIds: List<String>): Mono<Map<String, EventData>> {
         // clean up IDs
-        val idsToUse = mutableListOf<String>()
-        eventIds.forEach {
-            val id = if (it.contains("_")) it.split("_")[0] else it
-
-            if (!idsToUse.contains(id)) idsToUse.add(id)
-        }
+        val idsToUse = eventIds.map { if (it.contains("_")) it.split("_")[0] else it }.distinct()
 
         if (idsToUse.isEmpty()) return Mono.just(emptyMap())
 
-        // Convert our list of IDs to sql escaped string
-        val builder = StringBuilder()
-        idsToUse.withIndex().forEach {
-            if (it.index != idsToUse.size - 1) {
-                builder.append("'${it.value}', ")
-            } else {
-                builder.append("'${it.value}'")
-            }
-        }
+        return Flux.fromIterable(idsToUse.chunked(Queries.MANY_EVENT_DATA_BUCKETS.last()))
+            .concatMap { getEventsDataChunk(guildId, it) }
+            .collectMap { it.eventId }
+    }
+
+    private fun getEventsDataChunk(guildId: Snowflake, ids: List<String>): Flux<EventData> {
+        // Pad out to the nearest bucket by repeating the last ID, keeps the number of distinct statements tiny
+        val size = Queries.MANY_EVENT_DATA_BUCKETS.first { it >= ids.size }
 
         return connect { c ->
-            Mono.from(
-                //Have to do it this way, sql injection is not possible as these IDs are not user input
-                c.createStatement(Queries.SELECT_MANY_EVENT_DATA.replace("?", builder.toString()))
-                    .execute()
-            ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val id = row["EVENT_ID", String::class.java]!!
-                    val calNum = row["CALENDAR_NUMBER", Int::class.java]!!
-                    val end = row["EVENT_END", Long::class.java]!!
-                    val img = row["IMAGE_LINK", String::class.java]!!
+            val statement = c.createStatement(Queries.SELECT_MANY_EVENT_DATA.getValue(size))
+                .bind(0, guildId.asLong())
+            for (i in 0 until size) statement.bind(i + 1, ids[minOf(i, ids.size - 1)])
 
-                    EventData(guildId, id, calNum, end, img)
-                }
+            Mono.from(statement.execute()).flatMapMany { res ->
+                res.map(EventDataMapper())
             }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1464,43 +1190,21 @@ object DatabaseManager {
                 LOGGER.error(DEFAULT, "Failed to get many event data", it)
             }.onErrorResume {
                 Mono.empty()
-            }.collectMap {
-                it.eventId
-            }.defaultIfEmpty(emptyMap())
-        }
+            }.collectList()
+        }.flatMapMany { Flux.fromIterable(it) }
     }
 
     /* Announcement Data */
 
-    fun getAnnouncementsForShard(shardCount: Int, shardIndex: Int): Mono<List<Announcement>> {
-        return connect { c ->
+    fun getAnnouncementsForShard(shardIndex: Int): Flux<Announcement> {
+        return connectMany { c ->
             Mono.from(
                 c.createStatement(Queries.SELECT_ANNOUNCEMENTS_FOR_SHARD)
-                    .bind(0, shardCount)
-                    .bind(1, shardIndex)
+                    .fetchSize(STREAM_FETCH_SIZE)
+                    .bind(0, shardIndex)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val announcementId = row["ANNOUNCEMENT_ID", String::class.java]!!
-                    val guildId = Snowflake.of(row["GUILD_ID", Long::class.java]!!)
-
-                    val a = Announcement(guildId, announcementId)
-                    a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
-                    a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
-                    a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
-                    a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
-                    a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
-                    a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
-                    a.eventId = row["EVENT_ID", String::class.java]!!
-                    a.eventColor = fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
-                    a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
-                    a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
-                    a.info = row["INFO", String::class.java]!!
-                    a.enabled = row["ENABLED", Boolean::class.java]!!
-                    a.publish = row["PUBLISH", Boolean::class.java]!!
-
-                    a
-                }
+                res.map(AnnouncementMapper())
             }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1508,7 +1212,109 @@ object DatabaseManager {
                 LOGGER.error(DEFAULT, "Failed to get announcements for shard", it)
             }.onErrorResume {
                 Mono.empty()
-            }.collectList()
+            }
+        }
+    }
+
+    /**
+     * Gets the enabled announcements for the shard whose next evaluation time is at or before [dueBy].
+     * Announcements that have never been evaluated (or were reset by a change) are always due.
+     * Rows are ordered by guild so callers can process one guild at a time.
+     *
+     * Rows are read a page at a time, each on its own connection, so a cycle making slow google calls per guild never
+     * holds a pooled connection while it does. The next page is only read once downstream asks for more rows.
+     */
+    fun getDueAnnouncementsForShard(shardIndex: Int, dueBy: Instant): Flux<Announcement> {
+        return getDueAnnouncementPage(shardIndex, dueBy, null).expand { page ->
+            if (page.size < DUE_PAGE_SIZE) Mono.empty<List<Announcement>>()
+            else getDueAnnouncementPage(shardIndex, dueBy, page.last())
+        }.concatMapIterable { it }
+    }
+
+    // Keyset paged on (GUILD_ID, ANNOUNCEMENT_ID), starting after the last row of the previous page
+    private fun getDueAnnouncementPage(
+        shardIndex: Int,
+        dueBy: Instant,
+        after: Announcement?,
+    ): Mono<List<Announcement>> {
+        val afterGuild = after?.guildId?.asLong() ?: Long.MIN_VALUE
+
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.SELECT_DUE_ANNOUNCEMENTS_PAGE)
+                    .bind(0, shardIndex)
+                    .bind(1, dueBy.toEpochMilli())
+                    .bind(2, afterGuild)
+                    .bind(3, afterGuild)
+                    .bind(4, after?.id.orEmpty())
+                    .bind(5, DUE_PAGE_SIZE)
+                    .execute()
+            ).flatMapMany { res ->
+                res.map(AnnouncementMapper())
+            }.collectList().retryWhen(Retry.max(3)
+                .filter(IllegalStateException::class::isInstance)
+                .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
+            ).doOnError {
+                LOGGER.error(DEFAULT, "Failed to get due announcements for shard", it)
+            }.onErrorResume {
+                Mono.empty()
+            }
+        }
+    }
+
+    fun updateAnnouncementNextFire(announcementId: String, nextFireAt: Instant): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.UPDATE_ANNOUNCEMENT_NEXT_FIRE)
+                    .bind(0, nextFireAt.toEpochMilli())
+                    .bind(1, announcementId)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .doOnError {
+                    LOGGER.error(DEFAULT, "Failed to update announcement next fire time", it)
+                }.onErrorReturn(false)
+        }.defaultIfEmpty(false)
+    }
+
+    /**
+     * Marks every announcement on the calendar as due so the next cycle re-evaluates them.
+     * Called whenever events on the calendar are created, changed or deleted.
+     */
+    fun resetAnnouncementsNextFire(guildId: Snowflake, calendarNumber: Int): Mono<Boolean> {
+        return connect { c ->
+            Mono.from(
+                c.createStatement(Queries.RESET_ANNOUNCEMENT_NEXT_FIRE_FOR_CALENDAR)
+                    .bind(0, guildId.asLong())
+                    .bind(1, calendarNumber)
+                    .execute()
+            ).flatMapMany(Result::getRowsUpdated)
+                .hasElements()
+                .thenReturn(true)
+                .doOnError {
+                    LOGGER.error(DEFAULT, "Failed to reset announcement next fire times", it)
+                }.onErrorReturn(false)
+        }.defaultIfEmpty(false)
+    }
+
+    /* Shard Routing */
+
+    /**
+     * Re-buckets every shard routed table for the supplied shard count if it differs from what the tables were last
+     * bucketed for, otherwise only buckets rows written before any shard count was stored. Safe to call on every
+     * startup of the server and the client, whichever starts first stores the shard count for the other.
+     *
+     * @return A [Mono] containing whether any rows were re-bucketed
+     */
+    fun rebucketShards(shardCount: Int): Mono<Boolean> {
+        return connect { c ->
+            rebucketShards(c, shardCount)
+                .doOnNext { rebucketed ->
+                    if (rebucketed) LOGGER.info(DEFAULT, "Re-bucketed shard routed tables for $shardCount shards")
+                }.doOnError {
+                    LOGGER.error(DEFAULT, "Failed to re-bucket shard routed tables", it)
+                }.onErrorReturn(false)
         }
     }
 
@@ -1559,14 +1365,7 @@ object DatabaseManager {
                     .bind(0, token)
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val userId = Snowflake.of(row["user_id", Long::class.java]!!)
-                    val expiresAt = row["expires_at", Instant::class.java]!!
-                    val accessToken = row["access_token", String::class.java]!!
-                    val refreshToken = row["refresh_token", String::class.java]!!
-
-                    WebSession(token, userId, expiresAt, accessToken, refreshToken)
-                }
+                res.map(WebSessionMapper())
             }.next().retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1585,14 +1384,7 @@ object DatabaseManager {
                     .bind(0, userId.asLong())
                     .execute()
             ).flatMapMany { res ->
-                res.map { row, _ ->
-                    val token = row["token", String::class.java]!!
-                    val expiresAt = row["expires_at", Instant::class.java]!!
-                    val accessToken = row["access_token", String::class.java]!!
-                    val refreshToken = row["refresh_token", String::class.java]!!
-
-                    WebSession(token, userId, expiresAt, accessToken, refreshToken)
-                }
+                res.map(WebSessionMapper())
             }.retryWhen(Retry.max(3)
                 .filter(IllegalStateException::class::isInstance)
                 .filter { it.message != null && it.message!!.contains("Request queue was disposed") }
@@ -1651,17 +1443,196 @@ object DatabaseManager {
     }
 }
 
-private object Queries {
+/**
+ * See [DatabaseManager.rebucketShards].
+ */
+internal fun rebucketShards(c: Connection, shardCount: Int): Mono<Boolean> {
+    return Mono.from(
+        c.createStatement(Queries.SELECT_SHARD_COUNT)
+            .execute()
+    ).flatMapMany { res ->
+        res.map { row, _ -> row["shard_count", Int::class.java]!! }
+    }.next().defaultIfEmpty(-1).flatMap { current ->
+        if (current == shardCount) {
+            // Rows only go unrouted when no shard count was stored yet, found through the shard_index indexes
+            val unrouted = Queries.REBUCKET_UNROUTED.map { c.createStatement(it).bind(0, shardCount) }
+
+            return@flatMap executeInTransaction(c, unrouted).map { it > 0 }
+        }
+
+        // The count goes last, so a failed re-bucket is rolled back and retried on the next startup
+        val rebucket = Queries.REBUCKET_SHARDS.map { c.createStatement(it).bind(0, shardCount) }
+        val count = c.createStatement(Queries.UPSERT_SHARD_COUNT).bind(0, shardCount)
+
+        executeInTransaction(c, rebucket + count).thenReturn(true)
+    }
+}
+
+/**
+ * Executes the statements in order inside a single transaction, rolling it back if any of them fail.
+ *
+ * @return A [Mono] containing the total rows updated by all statements
+ */
+internal fun executeInTransaction(c: Connection, statements: List<Statement>): Mono<Int> {
+    return executeEachInTransaction(c, statements).map { updates -> updates.sumOf { it.sum() } }
+}
+
+/**
+ * Like [executeInTransaction], but keeps the rows updated by each statement apart.
+ *
+ * @return A [Mono] containing, for each statement in order, the rows updated by each of its results
+ */
+internal fun executeEachInTransaction(c: Connection, statements: List<Statement>): Mono<List<List<Int>>> {
+    return Mono.from(c.beginTransaction())
+        .thenMany(Flux.fromIterable(statements).concatMap { statement ->
+            Flux.from(statement.execute()).concatMap(Result::getRowsUpdated).collectList()
+        }).collectList()
+        .flatMap { Mono.from(c.commitTransaction()).thenReturn(it) }
+        .onErrorResume { e -> Mono.from(c.rollbackTransaction()).then(Mono.error(e)) }
+}
+
+internal object Queries {
     @Language("MySQL")
     val SELECT_API_KEY = """SELECT * FROM ${Tables.API}
         WHERE API_KEY = ?
         """.trimMargin()
 
+    /* Shard routing */
+
+    // Shard a guild ID (bound in place of the ?) routes to, for the shard count the tables are currently bucketed for
+    private val SHARD_INDEX_OF = """COALESCE(MOD(? >> 22, (SELECT shard_count FROM ${Tables.SHARD_ROUTING} WHERE id = 1)), -1)"""
+
+    @Language("MySQL")
+    val SELECT_SHARD_COUNT = """SELECT shard_count FROM ${Tables.SHARD_ROUTING}
+        WHERE id = 1
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_SHARD_COUNT = """INSERT INTO ${Tables.SHARD_ROUTING}
+        (id, shard_count) VALUES(1, ?)
+        ON DUPLICATE KEY UPDATE shard_count = VALUES(shard_count)
+        """.trimMargin()
+
+    // Tables carrying a shard_index column, all re-bucketed together when the shard count changes
+    val SHARD_ROUTED_TABLES =
+        listOf(Tables.GUILD_SETTINGS, Tables.CALENDARS, Tables.ANNOUNCEMENTS, Tables.STATIC_MESSAGES)
+
+    val REBUCKET_SHARDS = SHARD_ROUTED_TABLES.map { "UPDATE $it SET shard_index = MOD(guild_id >> 22, ?)" }
+
+    val REBUCKET_UNROUTED = SHARD_ROUTED_TABLES.map {
+        "UPDATE $it SET shard_index = MOD(guild_id >> 22, ?) WHERE shard_index = -1"
+    }
+
+    /* Upserts, keyed on each table's primary/unique key so writes are a single round trip */
+
+    @Language("MySQL")
+    val UPSERT_API_ACCOUNT = """INSERT INTO ${Tables.API}
+        (USER_ID, API_KEY, BLOCKED, TIME_ISSUED)
+        VALUES(?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        USER_ID = VALUES(USER_ID), BLOCKED = VALUES(BLOCKED)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_GUILD_SETTINGS = """INSERT INTO ${Tables.GUILD_SETTINGS}
+        (GUILD_ID, CONTROL_ROLE, ANNOUNCEMENT_STYLE, TIME_FORMAT, LANG, PREFIX,
+        PATRON_GUILD, DEV_GUILD, MAX_CALENDARS, DM_ANNOUNCEMENTS, BRANDED, shard_index)
+        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, $SHARD_INDEX_OF)
+        ON DUPLICATE KEY UPDATE
+        CONTROL_ROLE = VALUES(CONTROL_ROLE), ANNOUNCEMENT_STYLE = VALUES(ANNOUNCEMENT_STYLE),
+        TIME_FORMAT = VALUES(TIME_FORMAT), LANG = VALUES(LANG), PREFIX = VALUES(PREFIX),
+        PATRON_GUILD = VALUES(PATRON_GUILD), DEV_GUILD = VALUES(DEV_GUILD),
+        MAX_CALENDARS = VALUES(MAX_CALENDARS), DM_ANNOUNCEMENTS = VALUES(DM_ANNOUNCEMENTS),
+        BRANDED = VALUES(BRANDED)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_CALENDAR = """INSERT INTO ${Tables.CALENDARS}
+        (GUILD_ID, CALENDAR_NUMBER, HOST, CALENDAR_ID,
+        CALENDAR_ADDRESS, EXTERNAL, CREDENTIAL_ID,
+        PRIVATE_KEY, ACCESS_TOKEN, REFRESH_TOKEN, EXPIRES_AT, shard_index)
+        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, $SHARD_INDEX_OF)
+        ON DUPLICATE KEY UPDATE
+        HOST = VALUES(HOST), CALENDAR_ID = VALUES(CALENDAR_ID),
+        CALENDAR_ADDRESS = VALUES(CALENDAR_ADDRESS), EXTERNAL = VALUES(EXTERNAL),
+        CREDENTIAL_ID = VALUES(CREDENTIAL_ID), PRIVATE_KEY = VALUES(PRIVATE_KEY),
+        ACCESS_TOKEN = VALUES(ACCESS_TOKEN), REFRESH_TOKEN = VALUES(REFRESH_TOKEN),
+        EXPIRES_AT = VALUES(EXPIRES_AT)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_ANNOUNCEMENT = """INSERT INTO ${Tables.ANNOUNCEMENTS}
+        (ANNOUNCEMENT_ID, CALENDAR_NUMBER, GUILD_ID, SUBSCRIBERS_ROLE, SUBSCRIBERS_USER,
+        CHANNEL_ID, ANNOUNCEMENT_TYPE, MODIFIER, EVENT_ID, EVENT_COLOR,
+        HOURS_BEFORE, MINUTES_BEFORE, INFO, ENABLED, PUBLISH, shard_index)
+        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, $SHARD_INDEX_OF)
+        ON DUPLICATE KEY UPDATE
+        CALENDAR_NUMBER = VALUES(CALENDAR_NUMBER), SUBSCRIBERS_ROLE = VALUES(SUBSCRIBERS_ROLE),
+        SUBSCRIBERS_USER = VALUES(SUBSCRIBERS_USER), CHANNEL_ID = VALUES(CHANNEL_ID),
+        ANNOUNCEMENT_TYPE = VALUES(ANNOUNCEMENT_TYPE), MODIFIER = VALUES(MODIFIER),
+        EVENT_ID = VALUES(EVENT_ID), EVENT_COLOR = VALUES(EVENT_COLOR),
+        HOURS_BEFORE = VALUES(HOURS_BEFORE), MINUTES_BEFORE = VALUES(MINUTES_BEFORE),
+        INFO = VALUES(INFO), ENABLED = VALUES(ENABLED), PUBLISH = VALUES(PUBLISH),
+        next_fire_at = 0
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_EVENT_DATA = """INSERT INTO ${Tables.EVENTS}
+        (GUILD_ID, EVENT_ID, CALENDAR_NUMBER, EVENT_END, IMAGE_LINK)
+        VALUES(?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        CALENDAR_NUMBER = VALUES(CALENDAR_NUMBER), EVENT_END = VALUES(EVENT_END),
+        IMAGE_LINK = VALUES(IMAGE_LINK)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPDATE_EVENT_DATA = """UPDATE ${Tables.EVENTS} SET
+        CALENDAR_NUMBER = ?, IMAGE_LINK = ?, EVENT_END = ?
+        WHERE EVENT_ID = ? AND GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_RSVP_DATA = """INSERT INTO ${Tables.RSVP}
+        (GUILD_ID, EVENT_ID, CALENDAR_NUMBER, EVENT_END, GOING_ON_TIME, GOING_LATE,
+        NOT_GOING, UNDECIDED, waitlist, RSVP_LIMIT, RSVP_ROLE)
+        VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        CALENDAR_NUMBER = VALUES(CALENDAR_NUMBER), EVENT_END = VALUES(EVENT_END),
+        GOING_ON_TIME = VALUES(GOING_ON_TIME), GOING_LATE = VALUES(GOING_LATE),
+        NOT_GOING = VALUES(NOT_GOING), UNDECIDED = VALUES(UNDECIDED), waitlist = VALUES(waitlist),
+        RSVP_LIMIT = VALUES(RSVP_LIMIT), RSVP_ROLE = VALUES(RSVP_ROLE)
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPDATE_RSVP_DATA = """UPDATE ${Tables.RSVP} SET
+        CALENDAR_NUMBER = ?, EVENT_END = ?, GOING_ON_TIME = ?, GOING_LATE = ?,
+        NOT_GOING = ?, UNDECIDED = ?, waitlist = ?, RSVP_LIMIT = ?, RSVP_ROLE = ?
+        WHERE EVENT_ID = ? AND GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val UPSERT_CREDENTIAL_DATA = """INSERT INTO ${Tables.CREDS}
+        (CREDENTIAL_NUMBER, REFRESH_TOKEN, ACCESS_TOKEN, EXPIRES_AT)
+        VALUES(?, ?, ?, ?)
+        ON DUPLICATE KEY UPDATE
+        REFRESH_TOKEN = VALUES(REFRESH_TOKEN), ACCESS_TOKEN = VALUES(ACCESS_TOKEN),
+        EXPIRES_AT = VALUES(EXPIRES_AT)
+        """.trimMargin()
+
     @Language("MySQL")
     val SELECT_GUILD_SETTINGS = """SELECT * FROM ${Tables.GUILD_SETTINGS}
         WHERE GUILD_ID = ?
         """.trimMargin()
 
+    // Bulk settings lookups are bound in fixed size buckets so only a handful of statements ever get prepared
+    val MANY_GUILD_SETTINGS_BUCKETS = intArrayOf(1, 10, 50, 100, 250, 500)
+
+    val SELECT_MANY_GUILD_SETTINGS: Map<Int, String> = MANY_GUILD_SETTINGS_BUCKETS.associateWith { size ->
+        """SELECT * FROM ${Tables.GUILD_SETTINGS}
+        WHERE GUILD_ID IN (${List(size) { "?" }.joinToString()})
+        """.trimMargin()
+    }
+
     @Language("MySQL")
     val SELECT_CALENDAR_BY_GUILD = """SELECT * FROM ${Tables.CALENDARS}
         WHERE GUILD_ID = ? AND CALENDAR_NUMBER = ?
@@ -1784,33 +1755,34 @@ private object Queries {
         """.trimMargin()
 
     @Language("MySQL")
-    val DECREMENT_CALENDARS = """UPDATE ${Tables.CALENDARS} 
+    val DECREMENT_CALENDARS = """UPDATE ${Tables.CALENDARS}
         SET calendar_number = calendar_number - 1
-        WHERE calendar_number >=? AND guild_id = ?
+        WHERE guild_id = ? AND calendar_number > ?
+        ORDER BY calendar_number
         """.trimMargin()
 
     @Language("MySQL")
     val DECREMENT_ANNOUNCEMENTS = """UPDATE ${Tables.ANNOUNCEMENTS}
         SET calendar_number = calendar_number - 1
-        WHERE calendar_number >=? AND guild_id = ?
+        WHERE guild_id = ? AND calendar_number > ?
         """.trimMargin()
 
     @Language("MySQL")
     val DECREMENT_EVENTS = """UPDATE ${Tables.EVENTS}
         SET calendar_number = calendar_number - 1
-        WHERE calendar_number >=? AND guild_id = ?
+        WHERE guild_id = ? AND calendar_number > ?
         """.trimMargin()
 
     @Language("MySQL")
     val DECREMENT_RSVPS = """UPDATE ${Tables.RSVP}
         SET calendar_number = calendar_number - 1
-        WHERE calendar_number >=? AND guild_id = ?
+        WHERE guild_id = ? AND calendar_number > ?
         """.trimMargin()
 
     @Language("MySQL")
     val DECREMENT_STATIC_MESSAGES = """UPDATE ${Tables.STATIC_MESSAGES}
         SET calendar_number = calendar_number - 1
-        WHERE calendar_number >=? AND guild_id = ?
+        WHERE guild_id = ? AND calendar_number > ?
         """.trimMargin()
 
     @Language("MySQL")
@@ -1818,12 +1790,6 @@ private object Queries {
         WHERE guild_id = ? AND calendar_number = ?
         """.trimMargin()
 
-    @Language("MySQL")
-    val FULL_CALENDAR_DELETE = """
-        $DELETE_CALENDAR;$DELETE_ALL_EVENT_DATA;$DELETE_ALL_RSVP_DATA;$DELETE_ALL_ANNOUNCEMENT_DATA;$DELETE_ALL_STATIC_MESSAGES;
-        $DECREMENT_CALENDARS;$DECREMENT_EVENTS;$DECREMENT_RSVPS;$DECREMENT_ANNOUNCEMENTS;$DECREMENT_STATIC_MESSAGES
-    """.trimIndent()
-
     @Language("MySQL")
     val SELECT_STATIC_MESSAGE = """SELECT * FROM ${Tables.STATIC_MESSAGES}
         WHERE guild_id = ? AND message_id = ?
@@ -1831,7 +1797,7 @@ private object Queries {
 
     @Language("MySQL")
     val SELECT_STATIC_MESSAGES_FOR_SHARD = """SELECT * FROM ${Tables.STATIC_MESSAGES}
-        WHERE MOD(guild_id >> 22, ?) = ?
+        WHERE shard_index = ?
     """.trimMargin()
 
     @Language("MySQL")
@@ -1840,17 +1806,13 @@ private object Queries {
     """.trimMargin()
 
     @Language("MySQL")
-    val INSERT_STATIC_MESSAGE = """INSERT INTO ${Tables.STATIC_MESSAGES}
-        (guild_id, message_id, channel_id, type, last_update, scheduled_update, calendar_number)
-        VALUES(?, ?, ?, ?, ?, ?, ?)
+    val UPSERT_STATIC_MESSAGE = """INSERT INTO ${Tables.STATIC_MESSAGES}
+        (guild_id, message_id, channel_id, type, last_update, scheduled_update, calendar_number, shard_index)
+        VALUES(?, ?, ?, ?, ?, ?, ?, $SHARD_INDEX_OF)
+        ON DUPLICATE KEY UPDATE
+        last_update = VALUES(last_update), scheduled_update = VALUES(scheduled_update)
         """.trimMargin()
 
-    @Language("MySQL")
-    val UPDATE_STATIC_MESSAGE = """UPDATE ${Tables.STATIC_MESSAGES} SET
-        last_update = ?, scheduled_update = ?
-        WHERE guild_id = ? AND message_id = ?
-         """.trimMargin()
-
     @Language("MySQL")
     val DELETE_STATIC_MESSAGE = """DELETE FROM ${Tables.STATIC_MESSAGES}
         WHERE guild_id = ? AND message_id = ?
@@ -1859,14 +1821,39 @@ private object Queries {
     @Language("MySQL")
     val SELECT_STATIC_MESSAGE_COUNT = """SELECT COUNT(*) FROM ${Tables.STATIC_MESSAGES}"""
 
+    // Bulk event data lookups are bound in fixed size buckets so only a handful of statements ever get prepared
+    val MANY_EVENT_DATA_BUCKETS = intArrayOf(1, 5, 10, 25, 50, 100)
+
+    val SELECT_MANY_EVENT_DATA: Map<Int, String> = MANY_EVENT_DATA_BUCKETS.associateWith { size ->
+        """SELECT * FROM ${Tables.EVENTS}
+        WHERE guild_id = ? AND event_id IN (${List(size) { "?" }.joinToString()})
+        """.trimMargin()
+    }
+
     @Language("MySQL")
-    val SELECT_MANY_EVENT_DATA = """SELECT * FROM ${Tables.EVENTS}
-        WHERE event_id in (?)
+    val SELECT_ANNOUNCEMENTS_FOR_SHARD = """SELECT * FROM ${Tables.ANNOUNCEMENTS}
+        WHERE shard_index = ?
     """.trimMargin()
 
+    // Rows are found through the announcements_due index, only the page's due rows are sorted
     @Language("MySQL")
-    val SELECT_ANNOUNCEMENTS_FOR_SHARD = """SELECT * FROM ${Tables.ANNOUNCEMENTS}
-        WHERE MOD(guild_id >> 22, ?) = ?
+    val SELECT_DUE_ANNOUNCEMENTS_PAGE = """SELECT * FROM ${Tables.ANNOUNCEMENTS}
+        WHERE shard_index = ? AND ENABLED = 1 AND next_fire_at <= ?
+        AND (GUILD_ID > ? OR (GUILD_ID = ? AND ANNOUNCEMENT_ID > ?))
+        ORDER BY GUILD_ID, ANNOUNCEMENT_ID
+        LIMIT ?
+    """.trimMargin()
+
+    @Language("MySQL")
+    val UPDATE_ANNOUNCEMENT_NEXT_FIRE = """UPDATE ${Tables.ANNOUNCEMENTS}
+        SET next_fire_at = ?
+        WHERE ANNOUNCEMENT_ID = ?
+    """.trimMargin()
+
+    @Language("MySQL")
+    val RESET_ANNOUNCEMENT_NEXT_FIRE_FOR_CALENDAR = """UPDATE ${Tables.ANNOUNCEMENTS}
+        SET next_fire_at = 0
+        WHERE GUILD_ID = ? AND CALENDAR_NUMBER = ?
     """.trimMargin()
 
     /* Session Data */
@@ -1907,14 +1894,70 @@ private object Queries {
     /* Delete everything */
 
     @Language("MySQL")
-    val DELETE_EVERYTHING_FOR_GUILD = """
-        delete from ${Tables.GUILD_SETTINGS} where GUILD_ID=?;
-        delete from ${Tables.CALENDARS} where GUILD_ID=?;
-        delete from ${Tables.EVENTS} where GUILD_ID=?;
-        delete from ${Tables.RSVP} where GUILD_ID=?;
-        delete from ${Tables.ANNOUNCEMENTS} where GUILD_ID=?;
-        delete from ${Tables.STATIC_MESSAGES} where guild_id=?;
-    """.trimMargin()
+    val DELETE_GUILD_SETTINGS_FOR_GUILD = """DELETE FROM ${Tables.GUILD_SETTINGS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_CALENDARS_FOR_GUILD = """DELETE FROM ${Tables.CALENDARS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_EVENTS_FOR_GUILD = """DELETE FROM ${Tables.EVENTS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_RSVPS_FOR_GUILD = """DELETE FROM ${Tables.RSVP}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_ANNOUNCEMENTS_FOR_GUILD = """DELETE FROM ${Tables.ANNOUNCEMENTS}
+        WHERE GUILD_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_STATIC_MESSAGES_FOR_GUILD = """DELETE FROM ${Tables.STATIC_MESSAGES}
+        WHERE guild_id = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DISABLE_ANNOUNCEMENTS_FOR_CHANNEL = """UPDATE ${Tables.ANNOUNCEMENTS}
+        SET ENABLED = 0
+        WHERE GUILD_ID = ? AND CHANNEL_ID = ?
+        """.trimMargin()
+
+    @Language("MySQL")
+    val DELETE_STATIC_MESSAGES_FOR_CHANNEL = """DELETE FROM ${Tables.STATIC_MESSAGES}
+        WHERE guild_id = ? AND channel_id = ?
+        """.trimMargin()
+
+    // Subscriber and dm lists are comma separated, wrap in commas so only whole ids are replaced
+    @Language("MySQL")
+    val REMOVE_ANNOUNCEMENT_SUBSCRIBER_ROLE = """UPDATE ${Tables.ANNOUNCEMENTS}
+        SET SUBSCRIBERS_ROLE = TRIM(BOTH ',' FROM REPLACE(CONCAT(',', SUBSCRIBERS_ROLE, ','), CONCAT(',', ?, ','), ','))
+        WHERE GUILD_ID = ? AND FIND_IN_SET(?, SUBSCRIBERS_ROLE) > 0
+        """.trimMargin()
+
+    @Language("MySQL")
+    val REMOVE_ANNOUNCEMENT_SUBSCRIBER_USER = """UPDATE ${Tables.ANNOUNCEMENTS}
+        SET SUBSCRIBERS_USER = TRIM(BOTH ',' FROM REPLACE(CONCAT(',', SUBSCRIBERS_USER, ','), CONCAT(',', ?, ','), ','))
+        WHERE GUILD_ID = ? AND FIND_IN_SET(?, SUBSCRIBERS_USER) > 0
+        """.trimMargin()
+
+    @Language("MySQL")
+    val REMOVE_DM_ANNOUNCEMENT_USER = """UPDATE ${Tables.GUILD_SETTINGS}
+        SET DM_ANNOUNCEMENTS = TRIM(BOTH ',' FROM REPLACE(CONCAT(',', DM_ANNOUNCEMENTS, ','), CONCAT(',', ?, ','), ','))
+        WHERE GUILD_ID = ? AND FIND_IN_SET(?, DM_ANNOUNCEMENTS) > 0
+        """.trimMargin()
+
+    @Language("MySQL")
+    val RESET_CONTROL_ROLE = """UPDATE ${Tables.GUILD_SETTINGS}
+        SET CONTROL_ROLE = 'everyone'
+        WHERE GUILD_ID = ? AND CONTROL_ROLE = ?
+        """.trimMargin()
 }
 
 private object Tables {
@@ -1946,4 +1989,7 @@ private object Tables {
 
     @Language("Kotlin")
     const val SESSIONS = "sessions"
+
+    @Language("Kotlin")
+    const val SHARD_ROUTING = "shard_routing"
 }
@@ -0,0 +1,291 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import io.r2dbc.spi.Row
+import io.r2dbc.spi.RowMetadata
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementModifier
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementStyle
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.dreamexposure.discal.core.enums.event.EventColor
+import org.dreamexposure.discal.core.enums.time.TimeFormat
+import org.dreamexposure.discal.core.extensions.setFromString
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.StaticMessage
+import org.dreamexposure.discal.core.`object`.WebSession
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import java.time.Instant
+import java.util.function.BiFunction
+
+/**
+ * Maps rows by column index rather than by name. Indexes are resolved once from the first row's metadata, so a new
+ * mapper has to be created for every result set, e.g. `res.map(AnnouncementMapper())`.
+ */
+internal abstract class IndexedRowMapper<T>(private val columns: Array<String>) : BiFunction<Row, RowMetadata, T> {
+    private var indexes: IntArray? = null
+
+    override fun apply(row: Row, metadata: RowMetadata): T {
+        val idx = indexes ?: resolve(metadata).also { indexes = it }
+
+        return map(row, idx)
+    }
+
+    protected abstract fun map(row: Row, idx: IntArray): T
+
+    private fun resolve(metadata: RowMetadata): IntArray {
+        val names = metadata.columnMetadatas.map { it.name }
+
+        return IntArray(columns.size) { i ->
+            val index = names.indexOfFirst { it.equals(columns[i], ignoreCase = true) }
+            check(index >= 0) { "Column ${columns[i]} missing from result set" }
+
+            index
+        }
+    }
+}
+
+internal class AnnouncementMapper : IndexedRowMapper<Announcement>(COLUMNS) {
+    override fun map(row: Row, idx: IntArray): Announcement {
+        val guildId = Snowflake.of(row[idx[GUILD_ID], Long::class.java]!!)
+
+        val a = Announcement(guildId, row[idx[ID], String::class.java]!!)
+        a.calendarNumber = row[idx[CALENDAR_NUMBER], Int::class.java]!!
+        a.subscriberRoleIds.setFromString(row[idx[SUBSCRIBERS_ROLE], String::class.java]!!)
+        a.subscriberUserIds.setFromString(row[idx[SUBSCRIBERS_USER], String::class.java]!!)
+        a.announcementChannelId = row[idx[CHANNEL_ID], String::class.java]!!
+        a.type = TYPES.getValue(row[idx[TYPE], String::class.java]!!)
+        a.modifier = MODIFIERS.getValue(row[idx[MODIFIER], String::class.java]!!)
+        a.eventId = row[idx[EVENT_ID], String::class.java]!!
+        a.eventColor = EventColor.fromNameOrHexOrId(row[idx[EVENT_COLOR], String::class.java]!!)
+        a.hoursBefore = row[idx[HOURS_BEFORE], Int::class.java]!!
+        a.minutesBefore = row[idx[MINUTES_BEFORE], Int::class.java]!!
+        a.info = row[idx[INFO], String::class.java]!!
+        a.enabled = row[idx[ENABLED], Boolean::class.java]!!
+        a.publish = row[idx[PUBLISH], Boolean::class.java]!!
+
+        return a
+    }
+
+    private companion object {
+        const val ID = 0
+        const val GUILD_ID = 1
+        const val CALENDAR_NUMBER = 2
+        const val SUBSCRIBERS_ROLE = 3
+        const val SUBSCRIBERS_USER = 4
+        const val CHANNEL_ID = 5
+        const val TYPE = 6
+        const val MODIFIER = 7
+        const val EVENT_ID = 8
+        const val EVENT_COLOR = 9
+        const val HOURS_BEFORE = 10
+        const val MINUTES_BEFORE = 11
+        const val INFO = 12
+        const val ENABLED = 13
+        const val PUBLISH = 14
+
+        val COLUMNS = arrayOf(
+            "ANNOUNCEMENT_ID", "GUILD_ID", "CALENDAR_NUMBER", "SUBSCRIBERS_ROLE", "SUBSCRIBERS_USER",
+            "CHANNEL_ID", "ANNOUNCEMENT_TYPE", "MODIFIER", "EVENT_ID", "EVENT_COLOR",
+            "HOURS_BEFORE", "MINUTES_BEFORE", "INFO", "ENABLED", "PUBLISH",
+        )
+
+        val TYPES = AnnouncementType.values().associateBy(AnnouncementType::name)
+        val MODIFIERS = AnnouncementModifier.values().associateBy(AnnouncementModifier::name)
+    }
+}
+
+internal class CalendarDataMapper : IndexedRowMapper<CalendarData>(COLUMNS) {
+    override fun map(row: Row, idx: IntArray): CalendarData {
+        return CalendarData(
+            Snowflake.of(row[idx[GUILD_ID], Long::class.java]!!),
+            row[idx[CALENDAR_NUMBER], Int::class.java]!!,
+            HOSTS.getValue(row[idx[HOST], String::class.java]!!),
+            row[idx[CALENDAR_ID], String::class.java]!!,
+            row[idx[CALENDAR_ADDRESS], String::class.java]!!,
+            row[idx[EXTERNAL], Boolean::class.java]!!,
+            row[idx[CREDENTIAL_ID], Int::class.java]!!,
+            row[idx[PRIVATE_KEY], String::class.java]!!,
+            row[idx[ACCESS_TOKEN], String::class.java]!!,
+            row[idx[REFRESH_TOKEN], String::class.java]!!,
+            Instant.ofEpochMilli(row[idx[EXPIRES_AT], Long::class.java]!!),
+        )
+    }
+
+    private companion object {
+        const val GUILD_ID = 0
+        const val CALENDAR_NUMBER = 1
+        const val HOST = 2
+        const val CALENDAR_ID = 3
+        const val CALENDAR_ADDRESS = 4
+        const val EXTERNAL = 5
+        const val CREDENTIAL_ID = 6
+        const val PRIVATE_KEY = 7
+        const val ACCESS_TOKEN = 8
+        const val REFRESH_TOKEN = 9
+        const val EXPIRES_AT = 10
+
+        val COLUMNS = arrayOf(
+            "GUILD_ID", "CALENDAR_NUMBER", "HOST", "CALENDAR_ID", "CALENDAR_ADDRESS", "EXTERNAL",
+            "CREDENTIAL_ID", "PRIVATE_KEY", "ACCESS_TOKEN", "REFRESH_TOKEN", "EXPIRES_AT",
+        )
+
+        val HOSTS = CalendarHost.values().associateBy(CalendarHost::name)
+    }
+}
+
+internal class EventDataMapper : IndexedRowMapper<EventData>(COLUMNS) {
+    override fun map(row: Row, idx: IntArray): EventData {
+        return EventData(
+            Snowflake.of(row[idx[GUILD_ID], Long::class.java]!!),
+            row[idx[EVENT_ID], String::class.java]!!,
+            row[idx[CALENDAR_NUMBER], Int::class.java]!!,
+            row[idx[EVENT_END], Long::class.java]!!,
+            row[idx[IMAGE_LINK], String::class.java]!!,
+        )
+    }
+
+    private companion object {
+        const val GUILD_ID = 0
+        const val EVENT_ID = 1
+        const val CALENDAR_NUMBER = 2
+        const val EVENT_END = 3
+        const val IMAGE_LINK = 4
+
+        val COLUMNS = arrayOf("GUILD_ID", "EVENT_ID", "CALENDAR_NUMBER", "EVENT_END", "IMAGE_LINK")
+    }
+}
+
+internal class RsvpDataMapper : IndexedRowMapper<RsvpData>(COLUMNS) {
+    override fun map(row: Row, idx: IntArray): RsvpData {
+        val data = RsvpData(
+            Snowflake.of(row[idx[GUILD_ID], Long::class.java]!!),
+            row[idx[EVENT_ID], String::class.java]!!,
+            row[idx[CALENDAR_NUMBER], Int::class.java]!!,
+        )
+
+        data.eventEnd = row[idx[EVENT_END], Long::class.java]!!
+        data.goingOnTime.setFromString(row[idx[GOING_ON_TIME], String::class.java]!!)
+        data.goingLate.setFromString(row[idx[GOING_LATE], String::class.java]!!)
+        data.notGoing.setFromString(row[idx[NOT_GOING], String::class.java]!!)
+        data.undecided.setFromString(row[idx[UNDECIDED], String::class.java]!!)
+        data.waitlist.setFromString(row[idx[WAITLIST], String::class.java]!!)
+        data.limit = row[idx[RSVP_LIMIT], Int::class.java]!!
+
+        //Handle new rsvp role
+        row[idx[RSVP_ROLE], Long::class.java]?.let { data.setRole(Snowflake.of(it)) }
+
+        return data
+    }
+
+    private companion object {
+        const val GUILD_ID = 0
+        const val EVENT_ID = 1
+        const val CALENDAR_NUMBER = 2
+        const val EVENT_END = 3
+        const val GOING_ON_TIME = 4
+        const val GOING_LATE = 5
+        const val NOT_GOING = 6
+        const val UNDECIDED = 7
+        const val WAITLIST = 8
+        const val RSVP_LIMIT = 9
+        const val RSVP_ROLE = 10
+
+        val COLUMNS = arrayOf(
+            "GUILD_ID", "EVENT_ID", "CALENDAR_NUMBER", "EVENT_END", "GOING_ON_TIME", "GOING_LATE",
+            "NOT_GOING", "UNDECIDED", "waitlist", "RSVP_LIMIT", "RSVP_ROLE",
+        )
+    }
+}
+
+internal class StaticMessageMapper : IndexedRowMapper<StaticMessage>(COLUMNS) {
+    override fun map(row: Row, idx: IntArray): StaticMessage {
+        return StaticMessage(
+            Snowflake.of(row[idx[GUILD_ID], Long::class.java]!!),
+            Snowflake.of(row[idx[MESSAGE_ID], Long::class.java]!!),
+            Snowflake.of(row[idx[CHANNEL_ID], Long::class.java]!!),
+            StaticMessage.Type.valueOf(row[idx[TYPE], Int::class.java]!!),
+            row[idx[LAST_UPDATE], Instant::class.java]!!,
+            row[idx[SCHEDULED_UPDATE], Instant::class.java]!!,
+            row[idx[CALENDAR_NUMBER], Int::class.java]!!,
+        )
+    }
+
+    private companion object {
+        const val GUILD_ID = 0
+        const val MESSAGE_ID = 1
+        const val CHANNEL_ID = 2
+        const val TYPE = 3
+        const val LAST_UPDATE = 4
+        const val SCHEDULED_UPDATE = 5
+        const val CALENDAR_NUMBER = 6
+
+        val COLUMNS = arrayOf(
+            "guild_id", "message_id", "channel_id", "type", "last_update", "scheduled_update", "calendar_number",
+        )
+    }
+}
+
+internal class GuildSettingsMapper : IndexedRowMapper<GuildSettings>(COLUMNS) {
+    override fun map(row: Row, idx: IntArray): GuildSettings {
+        val settings = GuildSettings(
+            Snowflake.of(row[idx[GUILD_ID], Long::class.java]!!),
+            row[idx[CONTROL_ROLE], String::class.java]!!,
+            AnnouncementStyle.fromValue(row[idx[ANNOUNCEMENT_STYLE], Int::class.java]!!),
+            TimeFormat.fromValue(row[idx[TIME_FORMAT], Int::class.java]!!),
+            row[idx[LANG], String::class.java]!!,
+            row[idx[PREFIX], String::class.java]!!,
+            row[idx[PATRON_GUILD], Boolean::class.java]!!,
+            row[idx[DEV_GUILD], Boolean::class.java]!!,
+            row[idx[MAX_CALENDARS], Int::class.java]!!,
+            row[idx[BRANDED], Boolean::class.java]!!,
+        )
+
+        settings.dmAnnouncements.setFromString(row[idx[DM_ANNOUNCEMENTS], String::class.java]!!)
+
+        return settings
+    }
+
+    private companion object {
+        const val GUILD_ID = 0
+        const val CONTROL_ROLE = 1
+        const val ANNOUNCEMENT_STYLE = 2
+        const val TIME_FORMAT = 3
+        const val LANG = 4
+        const val PREFIX = 5
+        const val PATRON_GUILD = 6
+        const val DEV_GUILD = 7
+        const val MAX_CALENDARS = 8
+        const val BRANDED = 9
+        const val DM_ANNOUNCEMENTS = 10
+
+        val COLUMNS = arrayOf(
+            "GUILD_ID", "CONTROL_ROLE", "ANNOUNCEMENT_STYLE", "TIME_FORMAT", "LANG", "PREFIX",
+            "PATRON_GUILD", "DEV_GUILD", "MAX_CALENDARS", "BRANDED", "DM_ANNOUNCEMENTS",
+        )
+    }
+}
+
+internal class WebSessionMapper : IndexedRowMapper<WebSession>(COLUMNS) {
+    override fun map(row: Row, idx: IntArray): WebSession {
+        return WebSession(
+            row[idx[TOKEN], String::class.java]!!,
+            Snowflake.of(row[idx[USER_ID], Long::class.java]!!),
+            row[idx[EXPIRES_AT], Instant::class.java]!!,
+            row[idx[ACCESS_TOKEN], String::class.java]!!,
+            row[idx[REFRESH_TOKEN], String::class.java]!!,
+        )
+    }
+
+    private companion object {
+        const val TOKEN = 0
+        const val USER_ID = 1
+        const val EXPIRES_AT = 2
+        const val ACCESS_TOKEN = 3
+        const val REFRESH_TOKEN = 4
+
+        val COLUMNS = arrayOf("token", "user_id", "expires_at", "access_token", "refresh_token")
+    }
+}
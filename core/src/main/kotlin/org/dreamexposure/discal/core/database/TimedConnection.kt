@@ -0,0 +1,153 @@
+package org.dreamexposure.discal.core.database
+
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
+import io.r2dbc.spi.Connection
+import io.r2dbc.spi.Result
+import io.r2dbc.spi.Statement
+import org.dreamexposure.discal.core.logger.LOGGER
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
+import org.reactivestreams.Publisher
+import reactor.core.publisher.Flux
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Wraps a pooled [Connection] so every statement created through it is timed under its query name.
+ *
+ * @param acquireNanos How long it took to acquire this connection from the pool, recorded once against the first
+ * statement created on it
+ * @param site The call site that requested the connection
+ * @param caller The subsystem that requested the connection, only resolved for sites that have had slow queries
+ * @param queryName Resolves the name a statement's SQL is tagged with
+ */
+internal class TimedConnection(
+    private val delegate: Connection,
+    private val acquireNanos: Long,
+    private val site: Class<*>,
+    private val caller: String?,
+    private val queryName: (String) -> String,
+) : Connection by delegate {
+    private val acquireRecorded = AtomicBoolean()
+
+    override fun createStatement(sql: String): Statement {
+        val name = queryName(sql)
+        if (acquireRecorded.compareAndSet(false, true)) {
+            QueryMetrics.acquireTimer(name).record(acquireNanos, TimeUnit.NANOSECONDS)
+        }
+
+        return TimedStatement(delegate.createStatement(sql), name, site, caller)
+    }
+}
+
+/**
+ * Times statement execution (until the server responds with a result) and tracks the shape of the bound parameters,
+ * their types but never their values, so slow queries can be logged safely.
+ */
+internal class TimedStatement(
+    private val delegate: Statement,
+    private val query: String,
+    private val site: Class<*>,
+    private val caller: String?,
+) : Statement by delegate {
+    private val shape = LinkedHashMap<String, String>()
+
+    override fun bind(index: Int, value: Any): Statement {
+        delegate.bind(index, value)
+        shape["$index"] = value.javaClass.simpleName
+        return this
+    }
+
+    override fun bind(name: String, value: Any): Statement {
+        delegate.bind(name, value)
+        shape[name] = value.javaClass.simpleName
+        return this
+    }
+
+    override fun bindNull(index: Int, type: Class<*>): Statement {
+        delegate.bindNull(index, type)
+        shape["$index"] = "null(${type.simpleName})"
+        return this
+    }
+
+    override fun bindNull(name: String, type: Class<*>): Statement {
+        delegate.bindNull(name, type)
+        shape[name] = "null(${type.simpleName})"
+        return this
+    }
+
+    override fun add(): Statement {
+        delegate.add()
+        return this
+    }
+
+    override fun fetchSize(rows: Int): Statement {
+        delegate.fetchSize(rows)
+        return this
+    }
+
+    override fun returnGeneratedValues(vararg columns: String): Statement {
+        delegate.returnGeneratedValues(*columns)
+        return this
+    }
+
+    override fun execute(): Publisher<out Result> {
+        return Flux.defer<Result> {
+            val start = System.nanoTime()
+            // The first result and a cancel can race on different threads, only one of them may record
+            val recorded = AtomicBoolean()
+            val record = {
+                if (recorded.compareAndSet(false, true)) {
+                    QueryMetrics.recordExecution(query, System.nanoTime() - start, shape, site, caller)
+                }
+            }
+
+            Flux.from<Result>(delegate.execute())
+                .doOnNext { record() }
+                .doFinally { record() }
+        }
+    }
+}
+
+internal object QueryMetrics {
+    private val slowQueryThreshold = Duration.ofMillis(BotSettings.SQL_SLOW_QUERY_MS.getOrDefault("500").toLong())
+
+    private val acquireTimers = ConcurrentHashMap<String, Timer>()
+    private val executeTimers = ConcurrentHashMap<String, Timer>()
+
+    // Call sites that have run a slow query, their callers are looked up from then on
+    private val slowSites: MutableSet<Class<*>> = ConcurrentHashMap.newKeySet()
+
+    fun isSlowSite(site: Class<*>) = site in slowSites
+
+    fun acquireTimer(query: String): Timer = acquireTimers.computeIfAbsent(query) {
+        timer("discal.db.query.acquire", "Time spent acquiring the connection a query ran on", it)
+    }
+
+    fun recordExecution(query: String, nanos: Long, shape: Map<String, String>, site: Class<*>, caller: String?) {
+        executeTimers.computeIfAbsent(query) {
+            timer("discal.db.query.execute", "Time until the database responded to a query", it)
+        }.record(nanos, TimeUnit.NANOSECONDS)
+
+        if (nanos >= slowQueryThreshold.toNanos()) {
+            val ms = TimeUnit.NANOSECONDS.toMillis(nanos)
+            slowSites.add(site)
+
+            val from = caller ?: "unresolved, looked up from the next call"
+            LOGGER.warn(DEFAULT, "Slow query | $query | ${ms}ms | caller: $from | params: $shape")
+        }
+    }
+
+    private fun timer(name: String, description: String, query: String): Timer {
+        return Timer.builder(name)
+            .description(description)
+            .tag("query", query)
+            .publishPercentileHistogram()
+            .minimumExpectedValue(Duration.ofMillis(1))
+            .maximumExpectedValue(Duration.ofSeconds(30))
+            .register(Metrics.globalRegistry)
+    }
+}
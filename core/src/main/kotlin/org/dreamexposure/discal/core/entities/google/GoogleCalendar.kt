@@ -5,7 +5,9 @@ import com.google.api.services.calendar.model.AclRule
 import com.google.api.services.calendar.model.EventDateTime
 import org.dreamexposure.discal.core.`object`.calendar.CalendarData
 import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.cache.CacheInvalidation
 import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.cache.MirroredEvents
 import org.dreamexposure.discal.core.crypto.KeyGenerator
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.entities.Calendar
@@ -68,10 +70,12 @@ class GoogleCalendar internal constructor(
                             .setRole("reader")
 
                     val new = GoogleCalendar(this.calendarData, confirmed)
-                    //Update cache
+                    //Update cache, all-day events depend on the timezone
                     DiscalCache.putCalendar(new)
+                    DiscalCache.publishInvalidation(CacheInvalidation(CacheInvalidation.Kind.CALENDARS, guildId))
 
-                    return@flatMap AclRuleWrapper.insertRule(rule, this.calendarData)
+                    return@flatMap DiscalCache.invalidateEvents(guildId, calendarNumber)
+                            .then(AclRuleWrapper.insertRule(rule, this.calendarData))
                             .thenReturn(UpdateCalendarResponse(
                                     old = this,
                                     new = new,
@@ -85,15 +89,22 @@ class GoogleCalendar internal constructor(
     }
 
     override fun getUpcomingEvents(amount: Int): Flux<Event> {
-        return EventWrapper.getEvents(calendarData, amount, System.currentTimeMillis())
-                .flatMapMany(this::loadEvents)
+        return mirrored { it.upcoming(System.currentTimeMillis(), amount) }
+                .switchIfEmpty(DiscalCache.getUpcomingEvents(guildId, calendarNumber, timezone, amount) {
+                    EventWrapper.getEvents(calendarData, it, System.currentTimeMillis())
+                }).flatMapMany(this::loadEvents)
     }
 
     override fun getOngoingEvents(): Flux<Event> {
         val start = System.currentTimeMillis() - Duration.ofDays(14).toMillis() // 2 weeks ago
         val end = System.currentTimeMillis() + Duration.ofDays(1).toMillis() // One day from now
 
-        return EventWrapper.getEvents(calendarData, start, end)
+        val listed = DiscalCache.getEventsInRange(guildId, calendarNumber, timezone, start, end) { windowStart, windowEnd ->
+            EventWrapper.getEvents(calendarData, windowStart, windowEnd)
+        }
+
+        return mirrored { it.between(start, end) }
+                .switchIfEmpty(listed)
                 .flatMapMany { Flux.fromIterable(it) }
                 .filter { it.start.asInstant(timezone).isBefore(Instant.now()) }
                 .filter { it.end.asInstant(timezone).isAfter(Instant.now()) }
@@ -102,8 +113,12 @@ class GoogleCalendar internal constructor(
     }
 
     override fun getEventsInTimeRange(start: Instant, end: Instant): Flux<Event> {
-        return EventWrapper.getEvents(calendarData, start.toEpochMilli(), end.toEpochMilli())
-                .flatMapMany(this::loadEvents)
+        return mirrored { it.between(start.toEpochMilli(), end.toEpochMilli()) }
+                .switchIfEmpty(DiscalCache.getEventsInRange(
+                        guildId, calendarNumber, timezone, start.toEpochMilli(), end.toEpochMilli()
+                ) { windowStart, windowEnd ->
+                    EventWrapper.getEvents(calendarData, windowStart, windowEnd)
+                }).flatMapMany(this::loadEvents)
     }
 
     override fun createEvent(spec: CreateEventSpec): Mono<Event> {
@@ -139,11 +154,21 @@ class GoogleCalendar internal constructor(
                     spec.image.orEmpty()
             )
 
-            return@flatMap DatabaseManager.updateEventData(data)
-                    .thenReturn(GoogleEvent(this, data, confirmed))
+            return@flatMap Mono.`when`(
+                    DiscalCache.invalidateEvents(guildId, calendarNumber),
+                    DatabaseManager.updateEventData(data),
+                    DatabaseManager.resetAnnouncementsNextFire(guildId, calendarNumber),
+            ).thenReturn(GoogleEvent(this, data, confirmed))
         }
     }
 
+    // Answers from the local event mirror when it is turned on and can hold this calendar, otherwise empty
+    private fun mirrored(query: (MirroredEvents) -> List<GoogleEventModel>): Mono<List<GoogleEventModel>> {
+        return DiscalCache.getMirroredEvents(guildId, calendarNumber, timezone) { syncToken, pageToken ->
+            EventWrapper.syncEvents(calendarData, syncToken, pageToken)
+        }.map(query)
+    }
+
     private fun loadEvents(events: List<GoogleEventModel>): Flux<GoogleEvent> {
         return DatabaseManager.getEventsData(guildId, events.map { it.id }).flatMapMany { data ->
             Flux.fromIterable(events).concatMap {
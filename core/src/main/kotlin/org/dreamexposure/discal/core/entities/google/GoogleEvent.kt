@@ -4,6 +4,7 @@ import com.google.api.client.util.DateTime
 import com.google.api.services.calendar.model.EventDateTime
 import org.dreamexposure.discal.core.`object`.event.EventData
 import org.dreamexposure.discal.core.`object`.event.Recurrence
+import org.dreamexposure.discal.core.cache.DiscalCache
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.entities.Calendar
 import org.dreamexposure.discal.core.entities.Event
@@ -143,8 +144,11 @@ class GoogleEvent internal constructor(
                     spec.image ?: this.image
             )
 
-            return@flatMap DatabaseManager.updateEventData(data)
-                    .thenReturn(UpdateEventResponse(true, old = this, GoogleEvent(this.calendar, data, confirmed)))
+            return@flatMap Mono.`when`(
+                    DiscalCache.invalidateEvents(guildId, calendar.calendarNumber),
+                    DatabaseManager.updateEventData(data),
+                    DatabaseManager.resetAnnouncementsNextFire(guildId, calendar.calendarNumber),
+            ).thenReturn(UpdateEventResponse(true, old = this, GoogleEvent(this.calendar, data, confirmed)))
         }.defaultIfEmpty(UpdateEventResponse(false, old = this))
     }
 
@@ -153,8 +157,10 @@ class GoogleEvent internal constructor(
                 .flatMap { success ->
                     if (success) {
                         Mono.`when`(
+                                DiscalCache.invalidateEvents(guildId, calendar.calendarNumber),
                                 DatabaseManager.deleteAnnouncementsForEvent(guildId, eventId),
                                 DatabaseManager.deleteEventData(eventId),
+                                DatabaseManager.resetAnnouncementsNextFire(guildId, calendar.calendarNumber),
                         ).thenReturn(true)
                     } else {
                         Mono.just(false)
@@ -19,47 +19,23 @@ enum class EventColor(val id: Int, val hex: String, val r: Int, val g: Int, val
     fun asColor(): Color = Color.of(this.r, this.g, this.b)
 
     companion object {
-        fun exists(nameOrHexOrId: String): Boolean {
-            values().forEach { c ->
-                if (c.name.equals(nameOrHexOrId, true) || c.hex == nameOrHexOrId) {
-                    return true
-                } else {
-                    try {
-                        val i = nameOrHexOrId.toInt()
-                        if (c.id == i)
-                            return true
-                    } catch (ignore: NumberFormatException) {
-                    }
-                }
-            }
-
-            return false
+        // Lookup tables so parsing a stored color doesn't walk every value, this is hit for every announcement row
+        private val byName = values().associateBy(EventColor::name)
+        private val byHex = values().associateBy(EventColor::hex)
+        private val byId = values().associateBy(EventColor::id)
+
+        private fun find(nameOrHexOrId: String): EventColor? {
+            return byName[nameOrHexOrId.uppercase()]
+                ?: byHex[nameOrHexOrId]
+                ?: nameOrHexOrId.toIntOrNull()?.let(byId::get)
         }
 
-        fun exists(id: Int): Boolean {
-            return values().any { it.id == id }
-        }
+        fun exists(nameOrHexOrId: String): Boolean = find(nameOrHexOrId) != null
 
-        fun fromNameOrHexOrId(nameOrHexOrId: String): EventColor {
-            values().forEach { c ->
-                if (c.name.equals(nameOrHexOrId, true) || c.hex == nameOrHexOrId) {
-                    return c
-                } else {
-                    try {
-                        val i = nameOrHexOrId.toInt()
-                        if (c.id == i) return c
-                    } catch (ignore: NumberFormatException) {
-                    }
-                }
-            }
-            return NONE
-        }
+        fun exists(id: Int): Boolean = byId.containsKey(id)
 
-        fun fromId(id: Int): EventColor {
-            values().forEach { c ->
-                if (c.id == id) return c
-            }
-            return NONE
-        }
+        fun fromNameOrHexOrId(nameOrHexOrId: String): EventColor = find(nameOrHexOrId) ?: NONE
+
+        fun fromId(id: Int): EventColor = byId[id] ?: NONE
     }
 }
@@ -0,0 +1,12 @@
+package org.dreamexposure.discal.core.exceptions.google
+
+/**
+ * Google responded to a calendar api call with an error status.
+ *
+ * @param reason The reason of the first error google listed, like notFound or rateLimitExceeded, if it sent one
+ */
+class GoogleApiException(
+    val statusCode: Int,
+    val reason: String?,
+    message: String?,
+) : Exception("$statusCode ${reason ?: "unknown"}: ${message.orEmpty()}")
@@ -69,11 +69,19 @@ fun RestGuild.getMainCalendar(): Mono<Calendar> = this.getCalendar(1)
 fun RestGuild.getCalendar(calNumber: Int): Mono<Calendar> {
     //Check cache first
     val cal = DiscalCache.getCalendar(id, calNumber)
-    if (cal != null) return Mono.just(cal)
+    if (cal != null) {
+        DiscalCache.refreshAhead(DiscalCache.CALENDARS_REGION, id) { loadAllCalendars() }
+        return Mono.just(cal)
+    }
+
+    //Concurrent misses for the same calendar share one database + google load
+    return DiscalCache.loadOnce(DiscalCache.CALENDARS_REGION, id to calNumber) {
+        val generation = DiscalCache.generation(DiscalCache.CALENDARS_REGION, id)
 
-    return DatabaseManager.getCalendar(this.id, calNumber)
-            .flatMap(Calendar.Companion::from)
-            .doOnNext(DiscalCache::putCalendar)
+        DatabaseManager.getCalendar(this.id, calNumber)
+                .flatMap(Calendar.Companion::from)
+                .doOnNext { DiscalCache.fillCalendar(it, generation) }
+    }
 }
 
 /**
@@ -85,12 +93,29 @@ fun RestGuild.getCalendar(calNumber: Int): Mono<Calendar> {
 fun RestGuild.getAllCalendars(): Flux<Calendar> {
     //check cache first
     val cals = DiscalCache.getAllCalendars(id)
-    if (cals != null) return Flux.fromIterable(cals)
+    if (cals != null) {
+        DiscalCache.refreshAhead(DiscalCache.CALENDARS_REGION, id) { loadAllCalendars() }
+        return Flux.fromIterable(cals)
+    }
 
-    return DatabaseManager.getAllCalendars(this.id)
-            .flatMapMany { Flux.fromIterable(it) }
-            .flatMap(Calendar.Companion::from)
-            .doOnNext(DiscalCache::putCalendar)
+    return loadAllCalendars().flatMapIterable { it }
+}
+
+private fun RestGuild.loadAllCalendars(): Mono<List<Calendar>> {
+    return DiscalCache.loadOnce(DiscalCache.CALENDARS_REGION, id) {
+        val generation = DiscalCache.generation(DiscalCache.CALENDARS_REGION, id)
+
+        DatabaseManager.loadAllCalendars(this.id).flatMap { rows ->
+            Flux.fromIterable(rows)
+                    .flatMap(Calendar.Companion::from)
+                    .collectList()
+                    // Google errors resolve to empty, so a list missing any calendar is only a partial load
+                    .doOnNext { DiscalCache.fillAllCalendars(id, it, it.size == rows.size, generation) }
+        }.onErrorResume {
+            // Already logged, a failed load is answered with no calendars and not cached
+            Mono.just(emptyList())
+        }
+    }
 }
 
 /**
@@ -9,6 +9,20 @@ enum class BotSettings {
     SQL_PASS,
     SQL_DB,
     SQL_PREFIX,
+    SQL_POOL_INITIAL_SIZE,
+    SQL_POOL_MAX_SIZE,
+    SQL_POOL_MAX_IDLE_MINUTES,
+    SQL_POOL_ACQUIRE_TIMEOUT_SECONDS,
+    SQL_POOL_VALIDATION_QUERY,
+    SQL_SLOW_QUERY_MS,
+
+    CACHE_INVALIDATION_BUS,
+    CACHE_REMOTE,
+    CACHE_SNAPSHOT_PATH,
+    CACHE_SNAPSHOT_MAX_AGE_MINUTES,
+
+    EVENT_MIRROR,
+    EVENT_MIRROR_MAX_STALENESS_SECONDS,
 
     REDIS_HOSTNAME,
     REDIS_PORT,
@@ -23,6 +37,11 @@ enum class BotSettings {
     GOOGLE_CLIENT_SECRET,
     CREDENTIALS_COUNT,
     CREDENTIALS_KEY,
+    GOOGLE_BATCH,
+    GOOGLE_BATCH_WINDOW_MS,
+    GOOGLE_RATE_LIMIT_CREDENTIAL,
+    GOOGLE_RATE_LIMIT_EXTERNAL,
+    GOOGLE_RATE_LIMIT_MAX_WAIT_SECONDS,
 
     SHARD_COUNT,
     SHARD_INDEX,
@@ -69,4 +88,6 @@ enum class BotSettings {
     }
 
     fun get() = this.value!!
+
+    fun getOrDefault(default: String) = this.value ?: default
 }
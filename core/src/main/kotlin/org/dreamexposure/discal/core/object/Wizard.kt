@@ -1,14 +1,14 @@
 package org.dreamexposure.discal.core.`object`
 
 import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.utils.LongConcurrentMap
 import reactor.core.publisher.Flux
 import java.time.Duration
 import java.time.Instant
 import java.time.temporal.ChronoUnit
-import java.util.concurrent.ConcurrentHashMap
 
 class Wizard<T: Pre> {
-    private val active = ConcurrentHashMap<Snowflake, T>()
+    private val active = LongConcurrentMap<T>()
 
     init {
         Flux.interval(Duration.ofMinutes(30))
@@ -27,13 +27,6 @@ class Wizard<T: Pre> {
     fun remove(id: Snowflake): T? = active.remove(id)
 
     private fun removeOld() {
-        val toRemove = mutableListOf<Snowflake>()
-
-        active.forEach {
-            if (Instant.now().isAfter(it.value.lastEdit.plus(30, ChronoUnit.MINUTES))) {
-                toRemove.add(it.key)
-            }
-        }
-        toRemove.forEach { active.remove(it) }
+        active.removeIf { _, pre -> Instant.now().isAfter(pre.lastEdit.plus(30, ChronoUnit.MINUTES)) }
     }
 }
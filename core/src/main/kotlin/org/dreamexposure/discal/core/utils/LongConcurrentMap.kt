@@ -0,0 +1,312 @@
+package org.dreamexposure.discal.core.utils
+
+import discord4j.common.util.Snowflake
+import java.util.concurrent.locks.StampedLock
+
+/**
+ * Concurrent map keyed by primitive longs, used for guild keyed state instead of a ConcurrentHashMap of boxed
+ * [Snowflake]s.
+ *
+ * Keys are spread over segments that each keep an open addressing table of raw longs next to an array of values, so an
+ * entry costs one slot in two arrays rather than a map node plus a Snowflake. Writes lock their segment, reads are
+ * lock free unless they race a write to the same segment.
+ *
+ * Mapping functions passed to [computeIfAbsent] run while the segment is locked and must not touch the map.
+ */
+class LongConcurrentMap<V : Any>(expectedSize: Int = 16) {
+    private val segments = Array(SEGMENTS) { Segment<V>(segmentCapacity(expectedSize)) }
+
+    val size: Int
+        get() = segments.sumOf { it.size }
+
+    fun isEmpty() = size == 0
+
+    operator fun get(key: Long): V? = segmentFor(key).get(key)
+
+    operator fun get(key: Snowflake): V? = get(key.asLong())
+
+    fun containsKey(key: Long) = get(key) != null
+
+    fun containsKey(key: Snowflake) = containsKey(key.asLong())
+
+    /**
+     * @return The value previously mapped to the key, if any
+     */
+    fun put(key: Long, value: V): V? = segmentFor(key).put(key, value)
+
+    fun put(key: Snowflake, value: V): V? = put(key.asLong(), value)
+
+    operator fun set(key: Long, value: V) {
+        put(key, value)
+    }
+
+    operator fun set(key: Snowflake, value: V) {
+        put(key.asLong(), value)
+    }
+
+    fun computeIfAbsent(key: Long, mapping: (Long) -> V): V = segmentFor(key).computeIfAbsent(key, mapping)
+
+    fun computeIfAbsent(key: Snowflake, mapping: (Snowflake) -> V): V {
+        return computeIfAbsent(key.asLong()) { mapping(key) }
+    }
+
+    /**
+     * @return The value that was mapped to the key, if any
+     */
+    fun remove(key: Long): V? = segmentFor(key).remove(key, null)
+
+    fun remove(key: Snowflake): V? = remove(key.asLong())
+
+    /**
+     * Removes the key only while it is still mapped to [value].
+     */
+    fun remove(key: Long, value: V): Boolean = segmentFor(key).remove(key, value) != null
+
+    /**
+     * Removes every entry matching the predicate, the predicate is not called while any segment is locked.
+     *
+     * @return The number of entries removed
+     */
+    fun removeIf(predicate: (Long, V) -> Boolean): Int {
+        var removed = 0
+
+        segments.forEach { segment ->
+            segment.snapshot { key, value ->
+                if (predicate(key, value) && segment.remove(key, value) != null) removed++
+            }
+        }
+
+        return removed
+    }
+
+    /**
+     * Calls [action] for a snapshot of each segment's entries, entries added or removed while iterating may be missed.
+     */
+    fun forEach(action: (Long, V) -> Unit) {
+        segments.forEach { it.snapshot(action) }
+    }
+
+    fun clear() {
+        segments.forEach(Segment<V>::clear)
+    }
+
+    private fun segmentFor(key: Long) = segments[(mix(key) ushr SEGMENT_SHIFT).toInt()]
+
+    private class Segment<V : Any>(private val initialCapacity: Int) {
+        private val lock = StampedLock()
+
+        // Keys and values are swapped as one on resize so a lock free read never pairs keys and values of two tables
+        @Volatile
+        private var table = Table(initialCapacity)
+
+        @Volatile
+        var size = 0
+            private set
+
+        fun get(key: Long): V? {
+            val stamp = lock.tryOptimisticRead()
+            if (stamp != 0L) {
+                val value = find(table, key)
+                if (lock.validate(stamp)) return value
+            }
+
+            val readStamp = lock.readLock()
+            try {
+                return find(table, key)
+            } finally {
+                lock.unlockRead(readStamp)
+            }
+        }
+
+        fun put(key: Long, value: V): V? = write {
+            val slot = slotOf(table, key)
+
+            if (slot >= 0) {
+                @Suppress("UNCHECKED_CAST")
+                val old = table.values[slot] as V
+                table.values[slot] = value
+                old
+            } else {
+                insert(key, value)
+                null
+            }
+        }
+
+        fun computeIfAbsent(key: Long, mapping: (Long) -> V): V {
+            get(key)?.let { return it }
+
+            return write {
+                val slot = slotOf(table, key)
+
+                @Suppress("UNCHECKED_CAST")
+                if (slot >= 0) table.values[slot] as V
+                else mapping(key).also { insert(key, it) }
+            }
+        }
+
+        /**
+         * @param expected Only remove while mapped to this value, null to remove whatever is mapped
+         */
+        fun remove(key: Long, expected: V?): V? = write {
+            val table = this.table
+            val slot = slotOf(table, key)
+            if (slot < 0) return@write null
+
+            @Suppress("UNCHECKED_CAST")
+            val old = table.values[slot] as V
+            if (expected != null && expected != old) return@write null
+
+            delete(table, slot)
+            size--
+            old
+        }
+
+        fun snapshot(action: (Long, V) -> Unit) {
+            val keys: LongArray
+            val values: Array<Any?>
+
+            val stamp = lock.readLock()
+            try {
+                keys = table.keys.copyOf()
+                values = table.values.copyOf()
+            } finally {
+                lock.unlockRead(stamp)
+            }
+
+            for (i in keys.indices) {
+                @Suppress("UNCHECKED_CAST")
+                val value = values[i] as V? ?: continue
+                action(keys[i], value)
+            }
+        }
+
+        fun clear() {
+            write {
+                table = Table(initialCapacity)
+                size = 0
+            }
+        }
+
+        private inline fun <T> write(block: () -> T): T {
+            val stamp = lock.writeLock()
+            try {
+                return block()
+            } finally {
+                lock.unlockWrite(stamp)
+            }
+        }
+
+        private fun find(table: Table, key: Long): V? {
+            val keys = table.keys
+            val values = table.values
+            val mask = keys.size - 1
+            var i = mix(key).toInt() and mask
+
+            // Bounded so a read racing a write can't spin forever, the caller re-validates the result anyway
+            repeat(keys.size) {
+                val value = values[i] ?: return null
+                @Suppress("UNCHECKED_CAST")
+                if (keys[i] == key) return value as V
+
+                i = (i + 1) and mask
+            }
+
+            return null
+        }
+
+        private fun slotOf(table: Table, key: Long): Int {
+            val mask = table.keys.size - 1
+            var i = mix(key).toInt() and mask
+
+            while (table.values[i] != null) {
+                if (table.keys[i] == key) return i
+                i = (i + 1) and mask
+            }
+
+            return -1
+        }
+
+        // Must hold the write lock and have checked the key is absent
+        private fun insert(key: Long, value: V) {
+            if (size + 1 > table.keys.size * LOAD_FACTOR) resize()
+
+            place(table, key, value)
+            size++
+        }
+
+        private fun place(table: Table, key: Long, value: Any) {
+            val mask = table.keys.size - 1
+            var i = mix(key).toInt() and mask
+
+            while (table.values[i] != null) i = (i + 1) and mask
+
+            table.keys[i] = key
+            table.values[i] = value
+        }
+
+        private fun resize() {
+            val old = table
+            val grown = Table(old.keys.size * 2)
+
+            for (i in old.keys.indices) {
+                val value = old.values[i] ?: continue
+                place(grown, old.keys[i], value)
+            }
+
+            table = grown
+        }
+
+        // Backward shift deletion, keeps probe chains intact without leaving tombstones behind
+        private fun delete(table: Table, slot: Int) {
+            val keys = table.keys
+            val values = table.values
+            val mask = keys.size - 1
+
+            var hole = slot
+            var i = slot
+            while (true) {
+                i = (i + 1) and mask
+                if (values[i] == null) break
+
+                val ideal = mix(keys[i]).toInt() and mask
+                // Move the entry back into the hole if the hole sits between its ideal slot and where it is now
+                if (((i - ideal) and mask) >= ((i - hole) and mask)) {
+                    keys[hole] = keys[i]
+                    values[hole] = values[i]
+                    hole = i
+                }
+            }
+
+            values[hole] = null
+        }
+    }
+
+    private class Table(capacity: Int) {
+        val keys = LongArray(capacity)
+        val values = arrayOfNulls<Any>(capacity)
+    }
+
+    private companion object {
+        const val SEGMENT_BITS = 6
+        const val SEGMENTS = 1 shl SEGMENT_BITS
+        const val SEGMENT_SHIFT = 64 - SEGMENT_BITS
+        const val LOAD_FACTOR = 0.7
+        const val MIN_CAPACITY = 4
+
+        fun segmentCapacity(expectedSize: Int): Int {
+            val needed = (expectedSize / SEGMENTS / LOAD_FACTOR).toInt() + 1
+            return Integer.highestOneBit(maxOf(needed, MIN_CAPACITY) - 1) shl 1
+        }
+
+        // Snowflakes are mostly timestamp, spread their bits before picking a segment and slot (murmur3 finalizer)
+        fun mix(key: Long): Long {
+            var h = key
+            h = h xor (h ushr 33)
+            h *= -0xae502812aa7333L
+            h = h xor (h ushr 33)
+            h *= -0x3b314601e57a13adL
+            h = h xor (h ushr 33)
+            return h
+        }
+    }
+}
@@ -1,77 +1,55 @@
 package org.dreamexposure.discal.core.wrapper.google
 
-import com.google.api.client.googleapis.json.GoogleJsonResponseException
-import com.google.api.client.util.DateTime
-import com.google.api.services.calendar.Calendar
 import com.google.api.services.calendar.model.Event
+import com.google.api.services.calendar.model.Events
 import org.apache.http.HttpStatus
 import org.dreamexposure.discal.core.`object`.calendar.CalendarData
 import org.dreamexposure.discal.core.database.DatabaseManager
+import org.dreamexposure.discal.core.exceptions.google.GoogleApiException
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal
 import reactor.core.publisher.Mono
-import reactor.core.scheduler.Schedulers
 import java.util.function.Predicate
 
 object EventWrapper {
     fun createEvent(calData: CalendarData, event: Event): Mono<Event> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
-            Mono.fromCallable {
-                service.events()
-                        .insert(calData.calendarId, event)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute()
-            }.subscribeOn(Schedulers.boundedElastic())
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.insertEvent(auth, calData.calendarId, event)
         }.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event create failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun patchEvent(calData: CalendarData, event: Event): Mono<Event> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
-            Mono.fromCallable {
-                service.events()
-                        .patch(calData.calendarId, event.id, event)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute()
-            }.subscribeOn(Schedulers.boundedElastic())
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.patchEvent(auth, calData.calendarId, event)
         }.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event patch failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun updateEvent(calData: CalendarData, event: Event): Mono<Event> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
-            Mono.fromCallable {
-                service.events()
-                        .update(calData.calendarId, event.id, event)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute()
-            }.subscribeOn(Schedulers.boundedElastic())
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.updateEvent(auth, calData.calendarId, event)
         }.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event update failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun getEvent(calData: CalendarData, id: String): Mono<Event> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
-            Mono.fromCallable {
-                service.events()
-                        .get(calData.calendarId, id)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute()
-            }.filterWhen {
-                /*
-                Don't show "deleted" events
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.getEvent(auth, calData.calendarId, id)
+        }.filterWhen {
+            /*
+            Don't show "deleted" events
 
-                See "status" flag: https://developers.google.com/calendar/api/v3/reference/events#resource
-                 */
-                if (it.status.equals("cancelled", true)) {
-                    // Delete any announcements tied to it.
-                    DatabaseManager.deleteAnnouncementsForEvent(calData.guildId, id).thenReturn(false)
-                } else Mono.just(true)
-            }.subscribeOn(Schedulers.boundedElastic())
-        }.onErrorResume(GoogleJsonResponseException::class.java) {
+            See "status" flag: https://developers.google.com/calendar/api/v3/reference/events#resource
+             */
+            if (it.status.equals("cancelled", true)) {
+                // Delete any announcements tied to it.
+                DatabaseManager.deleteAnnouncementsForEvent(calData.guildId, id).thenReturn(false)
+            } else Mono.just(true)
+        }.onErrorResume(GoogleApiException::class.java) {
             return@onErrorResume when (it.statusCode) {
                 HttpStatus.SC_GONE -> {
                     // The event is gone. Sometimes google will return this if the event is deleted.
@@ -90,90 +68,57 @@ object EventWrapper {
     }
 
     fun getEvents(calData: CalendarData, amount: Int, start: Long): Mono<List<Event>> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service ->
-            Mono.fromCallable {
-                service.events()
-                        .list(calData.calendarId)
-                        .setMaxResults(amount)
-                        .setTimeMin(DateTime(start))
-                        .setOrderBy("startTime")
-                        .setSingleEvents(true)
-                        .setShowDeleted(false)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute()
-                        .items
-            }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.listEvents(auth, calData.calendarId, start, maxResults = amount)
+        }.map { it.items.orEmpty() }.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event list(1) failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun getEvents(calData: CalendarData, amount: Int, start: Long, end: Long): Mono<List<Event>> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service: Calendar ->
-            Mono.fromCallable {
-                service.events()
-                        .list(calData.calendarId)
-                        .setMaxResults(amount)
-                        .setTimeMin(DateTime(start))
-                        .setTimeMax(DateTime(end))
-                        .setOrderBy("startTime")
-                        .setSingleEvents(true)
-                        .setShowDeleted(false)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute().items
-            }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.listEvents(auth, calData.calendarId, start, end, amount)
+        }.map { it.items.orEmpty() }.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event list(3) failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
     fun getEvents(calData: CalendarData, start: Long, end: Long): Mono<List<Event>> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service: Calendar ->
-            Mono.fromCallable {
-                service.events()
-                        .list(calData.calendarId)
-                        .setTimeMin(DateTime(start))
-                        .setTimeMax(DateTime(end))
-                        .setOrderBy("startTime")
-                        .setSingleEvents(true)
-                        .setShowDeleted(false)
-                        .setQuotaUser(calData.guildId.asString())
-                        .execute().items
-            }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError {
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.listEvents(auth, calData.calendarId, start, end)
+        }.map { it.items.orEmpty() }.doOnError {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event list(4) failure", it)
         }.onErrorResume { Mono.empty() }
     }
 
-    fun deleteEvent(calData: CalendarData, id: String?): Mono<Boolean> {
-        return GoogleAuthWrapper.getCalendarService(calData).flatMap { service: Calendar ->
-            Mono.fromCallable {
-                val response = service.events()
-                        .delete(calData.calendarAddress, id)
-                        .setQuotaUser(calData.guildId.asString())
-                        .executeUnparsed()
+    /**
+     * Lists a page of the calendar's events for the event mirror. A 410 is passed on, as it means [syncToken] expired
+     * and the mirror has to sync from scratch.
+     */
+    fun syncEvents(calData: CalendarData, syncToken: String?, pageToken: String?): Mono<Events> {
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            GoogleCalendarClient.syncEvents(auth, calData.calendarId, syncToken, pageToken)
+        }.onErrorResume({ it !is GoogleApiException || it.statusCode != HttpStatus.SC_GONE }) {
+            LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event sync failure", it)
+            Mono.empty()
+        }
+    }
 
-                //Google sends 4 possible status codes, 200, 204, 404, 410.
-                // First 2 should be treated as successful, and the other 2 as not found.
-                when (response.statusCode) {
-                    200, 204 -> {
-                        return@fromCallable true
-                    }
-                    404, 410 -> {
-                        return@fromCallable false
-                    }
-                    else -> {
-                        //Log response data and return false as google sent an unexpected response code.
-                        LOGGER.debug(GlobalVal.DEFAULT, "Event delete error | ${response.statusCode} | ${response.statusMessage}")
-                        return@fromCallable false
-                    }
+    fun deleteEvent(calData: CalendarData, id: String): Mono<Boolean> {
+        return GoogleAuthWrapper.getAuth(calData).flatMap { auth ->
+            //Google sends 4 possible status codes, 200, 204, 404, 410.
+            // First 2 should be treated as successful, and the other 2 as not found.
+            GoogleCalendarClient.deleteEvent(auth, calData.calendarAddress, id).thenReturn(true)
+        }.onErrorResume(GoogleApiException::class.java) {
+            when (it.statusCode) {
+                HttpStatus.SC_NOT_FOUND, HttpStatus.SC_GONE -> Mono.just(false)
+                else -> {
+                    //Log response data and return false as google sent an unexpected response code.
+                    LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event delete failure", it)
+                    Mono.just(false)
                 }
-            }.subscribeOn(Schedulers.boundedElastic())
-        }.doOnError(GoogleJsonResponseException::class.java) {
-            if (it.statusCode != 410 || it.statusCode != 404) {
-                LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event delete failure", it)
             }
-        }.doOnError(Predicate.not(GoogleJsonResponseException::class.java::isInstance)) {
+        }.doOnError(Predicate.not(GoogleApiException::class.java::isInstance)) {
             LOGGER.error(GlobalVal.DEFAULT, "[G.Cal] Event delete failure", it)
         }.onErrorReturn(false)
     }
@@ -1,10 +1,6 @@
 package org.dreamexposure.discal.core.wrapper.google
 
-import com.google.api.client.auth.oauth2.Credential
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential
 import com.google.api.client.http.HttpStatusCodes
-import com.google.api.client.http.javanet.NetHttpTransport
-import com.google.api.client.json.gson.GsonFactory
 import com.google.api.services.calendar.CalendarScopes
 import discord4j.common.util.Snowflake
 import okhttp3.FormBody
@@ -25,41 +21,19 @@ import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
 import org.dreamexposure.discal.core.utils.GlobalVal.HTTP_CLIENT
 import org.dreamexposure.discal.core.utils.GlobalVal.JSON_FORMAT
+import org.dreamexposure.discal.core.utils.LongConcurrentMap
 import reactor.core.publisher.Mono
 import reactor.core.scheduler.Schedulers
 import java.time.Duration
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.random.Random
-import com.google.api.services.calendar.Calendar as GoogleCalendarService
 
 @Suppress("BlockingMethodInNonBlockingContext")
 object GoogleAuthWrapper {
     private val clientData = ClientData(BotSettings.GOOGLE_CLIENT_ID.get(), BotSettings.GOOGLE_CLIENT_SECRET.get())
 
     private val discalTokens: MutableMap<Int, CredentialData> = ConcurrentHashMap()
-    private val externalTokens: MutableMap<Snowflake, CredentialData> = ConcurrentHashMap()
-
-    private fun authorize(credentialId: Int): Mono<Credential> {
-        return getAccessToken(credentialId)
-                .map(GoogleCredential()::setAccessToken)
-                .ofType(Credential::class.java) //Cast down to the class it extends
-                .switchIfEmpty(Mono.error(EmptyNotAllowedException()))
-    }
-
-    private fun authorize(calData: CalendarData): Mono<Credential> {
-        return Mono.just(calData).filter { !"N/a".equals(calData.encryptedAccessToken, true) }
-                .flatMap(this::getAccessToken)
-                .map(GoogleCredential()::setAccessToken)
-                .ofType(Credential::class.java) //Cast down to the class it extends
-                .switchIfEmpty(Mono.error(EmptyNotAllowedException()))
-    }
-
-    private fun buildService(credential: Credential): GoogleCalendarService {
-
-        return GoogleCalendarService.Builder(NetHttpTransport(), GsonFactory.getDefaultInstance(), credential)
-                .setApplicationName("DisCal")
-                .build()
-    }
+    private val externalTokens = LongConcurrentMap<CredentialData>()
 
     private fun getAccessToken(credentialId: Int): Mono<String> {
         val token = discalTokens[credentialId]
@@ -152,22 +126,35 @@ object GoogleAuthWrapper {
         }
     }
 
-    fun getCalendarService(calData: CalendarData): Mono<GoogleCalendarService> {
+    /**
+     * Authorizes calls for the calendar, as the guild's own google account for external calendars, otherwise as the
+     * DisCal credential the calendar was made with. Quota is counted against the guild, and calls are rate limited per
+     * credential or per external calendar owner.
+     */
+    internal fun getAuth(calData: CalendarData): Mono<GoogleAuth> {
         return Mono.defer {
             if (calData.external) {
-                authorize(calData).map(this::buildService)
+                Mono.just(calData).filter { !"N/a".equals(calData.encryptedAccessToken, true) }
+                        .flatMap(this::getAccessToken)
             } else {
-                getCalendarService(calData.credentialId)
+                getAccessToken(calData.credentialId)
             }
-        }.switchIfEmpty(Mono.error(EmptyNotAllowedException()))
+        }.map { GoogleAuth(it, calData.guildId.asString(), limiterKey(calData)) }
+                .switchIfEmpty(Mono.error(EmptyNotAllowedException()))
     }
 
-    fun getCalendarService(credentialId: Int): Mono<GoogleCalendarService> {
-        return authorize(credentialId)
-                .map(this::buildService)
+    internal fun getAuth(credentialId: Int, guildId: Snowflake): Mono<GoogleAuth> {
+        return getAccessToken(credentialId)
+                .map { GoogleAuth(it, guildId.asString(), "credential:$credentialId") }
                 .switchIfEmpty(Mono.error(EmptyNotAllowedException()))
     }
 
+    // An external calendar's token belongs to whoever authorized it for the guild
+    private fun limiterKey(calData: CalendarData): String {
+        return if (calData.external) "external:${calData.guildId.asString()}"
+        else "credential:${calData.credentialId}"
+    }
+
     fun randomCredentialId() = Random.nextInt(BotSettings.CREDENTIALS_COUNT.get().toInt())
 
     fun requestDeviceCode(): Mono<Response> {
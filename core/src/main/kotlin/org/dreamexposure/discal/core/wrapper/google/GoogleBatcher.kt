@@ -0,0 +1,241 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.DistributionSummary
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
+import io.netty.handler.codec.http.HttpResponseStatus
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.exceptions.google.GoogleApiException
+import reactor.core.publisher.Mono
+import reactor.core.publisher.Sinks
+import java.time.Duration
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * Coalesces reads made with the same credential into google's multipart batch requests.
+ *
+ * Reads are held for a short window, or until [MAX_BATCH] of them are waiting, then sent in one http request. Listing
+ * the events of every calendar a guild has, or syncing the event mirror for many guilds at once, then costs a single
+ * round trip per credential instead of one per calendar. A window with only one read in it sends that read as a
+ * normal request.
+ *
+ * Google still counts each call in a batch against the quota on its own, so this saves connections and latency, not
+ * quota. A batch takes a [GoogleRateLimiter] token for each of its calls when it is sent, and calls google rate limits
+ * inside it are retried on their own through the limiter.
+ */
+internal object GoogleBatcher {
+    // Google takes at most 50 calls in one batch
+    private const val MAX_BATCH = 50
+    private const val CRLF = "\r\n"
+
+    val enabled = BotSettings.GOOGLE_BATCH.getOrDefault("true").toBoolean()
+
+    private val window = Duration.ofMillis(BotSettings.GOOGLE_BATCH_WINDOW_MS.getOrDefault("10").toLong())
+
+    // access token -> reads waiting to be sent with it
+    private val pending = ConcurrentHashMap<String, Batch>()
+
+    private val batchSize = DistributionSummary.builder("discal.google.batch.size")
+        .description("Calls sent in each google batch request")
+        .publishPercentileHistogram()
+        .register(Metrics.globalRegistry)
+
+    private val batchLatency = Timer.builder("discal.google.batch.latency")
+        .description("Time from sending a google batch request to having its response")
+        .publishPercentileHistogram()
+        .register(Metrics.globalRegistry)
+
+    private val batched = requests("batched")
+    private val single = requests("single")
+
+    /**
+     * Queues a GET of the [uri], relative to the api's base path, to go out with the next batch for the credential.
+     *
+     * @param etag Sent as If-None-Match when given, the response is then [empty][Mono.empty] if google answers 304
+     */
+    fun <T : Any> submit(auth: GoogleAuth, uri: String, type: Class<T>, etag: String?): Mono<T> {
+        return Mono.defer {
+            val call = Call(uri, type, etag)
+            enqueue(auth, call)
+
+            call.result.asMono()
+        }
+    }
+
+    private fun enqueue(auth: GoogleAuth, call: Call<*>) {
+        while (true) {
+            val batch = pending.computeIfAbsent(auth.accessToken) { Batch(auth) }
+            val size = batch.add(call)
+
+            // Flushed between getting it and adding to it, the next batch takes the call
+            if (size < 0) {
+                pending.remove(auth.accessToken, batch)
+                continue
+            }
+
+            if (size == 1) Mono.delay(window).subscribe { flush(batch) }
+            if (size >= MAX_BATCH) flush(batch)
+            return
+        }
+    }
+
+    private fun flush(batch: Batch) {
+        pending.remove(batch.auth.accessToken, batch)
+        val calls = batch.close() ?: return
+
+        if (calls.size == 1) {
+            single.increment()
+            calls.first().send(batch.auth)
+            return
+        }
+
+        batched.increment(calls.size.toDouble())
+        batchSize.record(calls.size.toDouble())
+
+        val boundary = "batch_${UUID.randomUUID()}"
+        val body = body(boundary, calls)
+
+        val send = Mono.defer {
+            val start = System.nanoTime()
+
+            GoogleCalendarClient.sendBatch(batch.auth, boundary, body)
+                .doOnNext { batchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS) }
+        }
+
+        GoogleRateLimiter.limit(batch.auth, send, calls.size)
+            .subscribe({ (contentType, response) -> complete(batch.auth, calls, contentType, response) }) { error ->
+                calls.forEach { it.fail(error) }
+            }
+    }
+
+    private fun body(boundary: String, calls: List<Call<*>>): ByteArray {
+        val body = StringBuilder()
+
+        calls.forEachIndexed { i, call ->
+            body.append("--").append(boundary).append(CRLF)
+                .append("Content-Type: application/http").append(CRLF)
+                .append("Content-ID: <item").append(i).append('>').append(CRLF)
+                .append(CRLF)
+                .append("GET ").append(GoogleCalendarClient.API_PATH).append(call.uri).append(" HTTP/1.1").append(CRLF)
+
+            if (call.etag != null) body.append("If-None-Match: ").append(call.etag).append(CRLF)
+            body.append(CRLF)
+        }
+        body.append("--").append(boundary).append("--").append(CRLF)
+
+        return body.toString().toByteArray(Charsets.UTF_8)
+    }
+
+    // Google answers with a part per call, tagged with the call's Content-ID, in no promised order
+    private fun complete(auth: GoogleAuth, calls: List<Call<*>>, contentType: String, response: ByteArray) {
+        val boundary = contentType.substringAfter("boundary=", "").trim('"', ' ').substringBefore(';')
+        val answered = BooleanArray(calls.size)
+
+        if (boundary.isNotEmpty()) {
+            response.toString(Charsets.UTF_8).split("--$boundary").forEach { part ->
+                val (headers, http) = splitHead(part.trimStart())
+                val index = contentId(headers)?.takeIf { it in calls.indices && !answered[it] } ?: return@forEach
+
+                val (head, body) = splitHead(http.trimStart())
+                val status = head.lineSequence().first().split(' ').getOrNull(1)?.toIntOrNull() ?: return@forEach
+
+                answered[index] = true
+                calls[index].read(auth, status, body.trimEnd('\r', '\n'))
+            }
+        }
+
+        calls.forEachIndexed { i, call ->
+            if (!answered[i]) call.fail(GoogleApiException(502, null, "Call missing from batch response"))
+        }
+    }
+
+    private fun contentId(headers: String): Int? {
+        return headers.lineSequence()
+            .firstOrNull { it.startsWith("Content-ID:", true) }
+            ?.substringAfter("<response-item", "")
+            ?.substringBefore('>')
+            ?.toIntOrNull()
+    }
+
+    // Splits off the headers at the first blank line
+    private fun splitHead(text: String): Pair<String, String> {
+        val crlf = text.indexOf("$CRLF$CRLF")
+        val lf = text.indexOf("\n\n")
+
+        return when {
+            crlf >= 0 && (lf < 0 || crlf <= lf) -> text.substring(0, crlf) to text.substring(crlf + 4)
+            lf >= 0 -> text.substring(0, lf) to text.substring(lf + 2)
+            else -> text to ""
+        }
+    }
+
+    private fun requests(type: String): Counter = Counter.builder("discal.google.requests")
+        .description("Google event reads, by whether they went out in a batch")
+        .tag("type", type)
+        .register(Metrics.globalRegistry)
+
+    private class Batch(val auth: GoogleAuth) {
+        private val calls = ArrayList<Call<*>>(MAX_BATCH)
+        private var closed = false
+
+        // The batch's size with the call added, or -1 if it was already flushed
+        @Synchronized
+        fun add(call: Call<*>): Int {
+            if (closed) return -1
+
+            calls.add(call)
+            return calls.size
+        }
+
+        // Only the first flush gets the calls
+        @Synchronized
+        fun close(): List<Call<*>>? {
+            if (closed) return null
+
+            closed = true
+            return calls
+        }
+    }
+
+    private class Call<T : Any>(val uri: String, private val type: Class<T>, val etag: String?) {
+        val result: Sinks.One<T> = Sinks.one()
+
+        fun send(auth: GoogleAuth) {
+            GoogleRateLimiter.limit(auth, GoogleCalendarClient.get(auth, uri, type, etag)).subscribe(
+                { result.tryEmitValue(it) },
+                { result.tryEmitError(it) },
+                { result.tryEmitEmpty() }
+            )
+        }
+
+        fun read(auth: GoogleAuth, status: Int, body: String) {
+            val input = body.byteInputStream(Charsets.UTF_8)
+
+            try {
+                if (status in 200..299) result.tryEmitValue(GoogleCalendarClient.parse(input, type))
+                else if (status == HttpResponseStatus.NOT_MODIFIED.code()) result.tryEmitEmpty()
+                else retryOrFail(auth, GoogleCalendarClient.parseError(status, input))
+            } catch (e: Exception) {
+                result.tryEmitError(e)
+            }
+        }
+
+        // Rate limited inside the batch, backs off the same as a call the limiter sent itself and resends this one
+        private fun retryOrFail(auth: GoogleAuth, error: GoogleApiException) {
+            if (!GoogleRateLimiter.isRateLimited(error)) {
+                result.tryEmitError(error)
+                return
+            }
+
+            GoogleRateLimiter.backOff(auth)
+            send(auth)
+        }
+
+        fun fail(error: Throwable) {
+            result.tryEmitError(error)
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.github.benmanes.caffeine.cache.Weigher
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer
+import com.google.api.client.json.GenericJson
+import com.google.api.client.json.gson.GsonFactory
+import com.google.api.client.util.DateTime
+import com.google.api.services.calendar.model.AclRule
+import com.google.api.services.calendar.model.CalendarList
+import com.google.api.services.calendar.model.Event
+import com.google.api.services.calendar.model.Events
+import io.netty.buffer.Unpooled
+import io.netty.handler.codec.http.HttpHeaderNames
+import io.netty.handler.codec.http.HttpHeaderValues
+import io.netty.handler.codec.http.HttpMethod
+import io.netty.handler.codec.http.HttpResponseStatus
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.Metrics
+import org.dreamexposure.discal.core.cache.CachedEvent
+import org.dreamexposure.discal.core.exceptions.google.GoogleApiException
+import reactor.core.publisher.Mono
+import reactor.netty.ByteBufMono
+import reactor.netty.http.HttpProtocol
+import reactor.netty.http.client.HttpClient
+import reactor.netty.resources.ConnectionProvider
+import java.io.InputStream
+import java.net.URLEncoder
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import com.google.api.services.calendar.model.Calendar as GoogleCalendarModel
+
+/**
+ * Non-blocking client for the Google Calendar v3 calls DisCal makes, used by the wrappers in place of google's
+ * blocking api client.
+ *
+ * Every credential shares one reactor-netty connection pool, negotiating HTTP/2 with google where it can so calls to
+ * the same host are multiplexed over a few connections. Responses are stream-parsed into google's model classes
+ * straight from the response buffers. Error responses are signalled as [GoogleApiException]. Reads go through the
+ * [GoogleBatcher], and calendar and event gets are revalidated with their etag rather than downloaded again when
+ * nothing changed. Every call waits its turn in the [GoogleRateLimiter].
+ */
+internal object GoogleCalendarClient {
+    internal const val API_PATH = "/calendar/v3"
+    private const val BASE_URL = "https://www.googleapis.com$API_PATH"
+    private const val BATCH_URL = "https://www.googleapis.com/batch$API_PATH"
+
+    // List reads are only revalidated when both bounds fall on a whole minute, see [listEvents]
+    private const val ALIGNED_BOUND_MILLIS = 60_000L
+
+    private val json = GsonFactory.getDefaultInstance()
+
+    private val connections = ConnectionProvider.builder("discal-google")
+        .maxConnections(256)
+        .pendingAcquireMaxCount(4096)
+        .pendingAcquireTimeout(Duration.ofSeconds(30))
+        .maxIdleTime(Duration.ofSeconds(50))
+        .evictInBackground(Duration.ofSeconds(60))
+        .metrics(true)
+        .build()
+
+    private val http = HttpClient.create(connections)
+        .protocol(HttpProtocol.H2, HttpProtocol.HTTP11)
+        .secure()
+        .compress(true)
+        .baseUrl(BASE_URL)
+        .responseTimeout(Duration.ofSeconds(30))
+
+    // uri -> the last response to a conditional read, and the etag to revalidate it with. Bounded by estimated heap
+    // size rather than count, as one events page can hold thousands of events
+    private val validated: Cache<String, Validated> = Caffeine.newBuilder()
+        .maximumWeight(32L * 1024 * 1024)
+        .weigher(Weigher<String, Validated> { _, value -> value.bytes })
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build()
+
+    private val revalidationCounters = ConcurrentHashMap<Pair<String, String>, Counter>()
+
+    /* Calendars */
+
+    fun getCalendar(auth: GoogleAuth, calendarId: String): Mono<GoogleCalendarModel> {
+        return read(calendarPath(calendarId), auth, GoogleCalendarModel::class.java, conditional = "calendar.get")
+    }
+
+    fun insertCalendar(auth: GoogleAuth, calendar: GoogleCalendarModel): Mono<GoogleCalendarModel> {
+        return exchange(HttpMethod.POST, "/calendars", auth, GoogleCalendarModel::class.java, body = calendar)
+    }
+
+    fun patchCalendar(auth: GoogleAuth, calendarId: String, calendar: GoogleCalendarModel): Mono<GoogleCalendarModel> {
+        val type = GoogleCalendarModel::class.java
+
+        return exchange(HttpMethod.PATCH, calendarPath(calendarId), auth, type, body = calendar)
+    }
+
+    fun updateCalendar(auth: GoogleAuth, calendarId: String, calendar: GoogleCalendarModel): Mono<GoogleCalendarModel> {
+        val type = GoogleCalendarModel::class.java
+
+        return exchange(HttpMethod.PUT, calendarPath(calendarId), auth, type, body = calendar)
+    }
+
+    fun deleteCalendar(auth: GoogleAuth, calendarId: String): Mono<Void> {
+        return exchange(HttpMethod.DELETE, calendarPath(calendarId), auth)
+    }
+
+    fun listCalendars(auth: GoogleAuth, minAccessRole: String): Mono<CalendarList> {
+        val params = mapOf("minAccessRole" to minAccessRole)
+
+        return exchange(HttpMethod.GET, "/users/me/calendarList", auth, CalendarList::class.java, params)
+    }
+
+    /* Events */
+
+    /**
+     * Lists a single page of the calendar's events, with recurring events expanded into their instances and ordered
+     * by start time.
+     *
+     * Only windows whose bounds both fall on a whole minute, like a day or a month, are revalidated with their etag.
+     * Reads bounded by the current time never ask for the same window twice, so keeping their responses only costs
+     * a copy of each.
+     *
+     * @param maxResults The most events to return, null for google's default of 250
+     * @param timeMax The latest start time, as epoch millis, null for no limit
+     */
+    fun listEvents(
+        auth: GoogleAuth,
+        calendarId: String,
+        timeMin: Long,
+        timeMax: Long? = null,
+        maxResults: Int? = null,
+    ): Mono<Events> {
+        val params = mapOf(
+            "timeMin" to DateTime(timeMin).toStringRfc3339(),
+            "timeMax" to timeMax?.let { DateTime(it).toStringRfc3339() },
+            "maxResults" to maxResults,
+            "orderBy" to "startTime",
+            "singleEvents" to true,
+            "showDeleted" to false,
+        )
+
+        val aligned = timeMax != null && timeMin % ALIGNED_BOUND_MILLIS == 0L && timeMax % ALIGNED_BOUND_MILLIS == 0L
+        val conditional = if (aligned) "events.list" else null
+
+        return read("${calendarPath(calendarId)}/events", auth, Events::class.java, params, conditional)
+    }
+
+    /**
+     * Lists a page of every event on the calendar, with recurring events expanded into their instances. Without a
+     * [syncToken] this starts a full sync, with one only the events changed since are listed, deleted ones included.
+     * The last page carries the token for the next sync.
+     *
+     * Google answers 410 once a sync token has expired, the calendar then needs a full sync again.
+     */
+    fun syncEvents(auth: GoogleAuth, calendarId: String, syncToken: String?, pageToken: String?): Mono<Events> {
+        val params = mapOf(
+            "syncToken" to syncToken,
+            "pageToken" to pageToken,
+            "singleEvents" to true,
+            "maxResults" to 2500,
+        )
+
+        return read("${calendarPath(calendarId)}/events", auth, Events::class.java, params)
+    }
+
+    fun getEvent(auth: GoogleAuth, calendarId: String, eventId: String): Mono<Event> {
+        return read(eventPath(calendarId, eventId), auth, Event::class.java, conditional = "event.get")
+    }
+
+    fun insertEvent(auth: GoogleAuth, calendarId: String, event: Event): Mono<Event> {
+        return exchange(HttpMethod.POST, "${calendarPath(calendarId)}/events", auth, Event::class.java, body = event)
+    }
+
+    fun patchEvent(auth: GoogleAuth, calendarId: String, event: Event): Mono<Event> {
+        return exchange(HttpMethod.PATCH, eventPath(calendarId, event.id), auth, Event::class.java, body = event)
+    }
+
+    fun updateEvent(auth: GoogleAuth, calendarId: String, event: Event): Mono<Event> {
+        return exchange(HttpMethod.PUT, eventPath(calendarId, event.id), auth, Event::class.java, body = event)
+    }
+
+    fun deleteEvent(auth: GoogleAuth, calendarId: String, eventId: String): Mono<Void> {
+        return exchange(HttpMethod.DELETE, eventPath(calendarId, eventId), auth)
+    }
+
+    /* Acl */
+
+    fun insertAclRule(auth: GoogleAuth, calendarId: String, rule: AclRule): Mono<AclRule> {
+        return exchange(HttpMethod.POST, "${calendarPath(calendarId)}/acl", auth, AclRule::class.java, body = rule)
+    }
+
+    /* Requests */
+
+    /**
+     * Reads are the calls made in bulk, so they go through the batcher, which takes their rate limiter tokens when it
+     * sends them. Without the batcher each read is limited on its own.
+     *
+     * @param conditional The read's name for metrics if it should be revalidated with the etag of its last response
+     * rather than downloaded again, null to always download it
+     */
+    private fun <T : GenericJson> read(
+        path: String,
+        auth: GoogleAuth,
+        type: Class<T>,
+        params: Map<String, Any?> = emptyMap(),
+        conditional: String? = null,
+    ): Mono<T> {
+        return Mono.defer {
+            val uri = uri(path, params, auth)
+            val cached = if (conditional != null) validated.getIfPresent(uri)?.takeIf { type.isInstance(it.value) }
+            else null
+
+            val response = if (GoogleBatcher.enabled) GoogleBatcher.submit(auth, uri, type, cached?.etag)
+            else GoogleRateLimiter.limit(auth, get(auth, uri, type, cached?.etag))
+
+            if (conditional == null) return@defer response
+
+            response.doOnNext { fresh ->
+                val etag = fresh.etag()
+                if (etag != null) validated.put(uri, Validated.of(etag, fresh))
+                else validated.invalidate(uri)
+
+                revalidations(conditional, if (cached != null) "modified" else "unconditional").increment()
+            }.switchIfEmpty(Mono.fromCallable {
+                // Only answered 304 when an etag was sent, so the cached copy is still google's current one
+                revalidations(conditional, "not_modified").increment()
+                type.cast(cached?.value?.clone())
+            })
+        }
+    }
+
+    /**
+     * Sends a single GET for the [uri] built by [read], used by the batcher for calls it has nothing to batch with.
+     *
+     * @param etag Sent as If-None-Match when given, the response is then [empty][Mono.empty] if google answers 304
+     */
+    internal fun <T : Any> get(auth: GoogleAuth, uri: String, type: Class<T>, etag: String?): Mono<T> {
+        return send(HttpMethod.GET, uri, auth, null, etag) { it.asInputStream().map { input -> parse(input, type) } }
+    }
+
+    /**
+     * Posts a multipart/mixed batch of calls to google's batch endpoint.
+     *
+     * @return The response's content type, which holds the boundary between its parts, and its body
+     */
+    internal fun sendBatch(auth: GoogleAuth, boundary: String, body: ByteArray): Mono<Pair<String, ByteArray>> {
+        return Mono.defer {
+            http.headers { headers ->
+                headers.set(HttpHeaderNames.AUTHORIZATION, "Bearer ${auth.accessToken}")
+                headers.set(HttpHeaderNames.CONTENT_TYPE, "multipart/mixed; boundary=$boundary")
+            }.post()
+                .uri(BATCH_URL)
+                .send(Mono.fromSupplier { Unpooled.wrappedBuffer(body) })
+                .responseSingle { res, bytes ->
+                    val status = res.status().code()
+                    val contentType = res.responseHeaders().get(HttpHeaderNames.CONTENT_TYPE).orEmpty()
+
+                    if (status in 200..299) bytes.asByteArray().map { contentType to it }
+                    else bytes.asInputStream()
+                        .map { parseError(status, it) }
+                        .defaultIfEmpty(GoogleApiException(status, null, res.status().reasonPhrase()))
+                        .flatMap { Mono.error<Pair<String, ByteArray>>(it) }
+                }
+        }
+    }
+
+    private fun <T : Any> exchange(
+        method: HttpMethod,
+        path: String,
+        auth: GoogleAuth,
+        type: Class<T>,
+        params: Map<String, Any?> = emptyMap(),
+        body: Any? = null,
+    ): Mono<T> {
+        return GoogleRateLimiter.limit(auth, send(method, uri(path, params, auth), auth, body) {
+            it.asInputStream().map { input -> parse(input, type) }
+        })
+    }
+
+    // For calls google answers without a body
+    private fun exchange(method: HttpMethod, path: String, auth: GoogleAuth): Mono<Void> {
+        return GoogleRateLimiter.limit(auth, send(method, uri(path, emptyMap(), auth), auth, null) { it.then() })
+    }
+
+    private fun <T : Any> send(
+        method: HttpMethod,
+        uri: String,
+        auth: GoogleAuth,
+        body: Any?,
+        etag: String? = null,
+        read: (ByteBufMono) -> Mono<T>,
+    ): Mono<T> {
+        return Mono.defer {
+            val content = body?.let(json::toByteArray)
+
+            val request = http
+                .headers { headers ->
+                    headers.set(HttpHeaderNames.AUTHORIZATION, "Bearer ${auth.accessToken}")
+                    if (content != null) headers.set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON)
+                    if (etag != null) headers.set(HttpHeaderNames.IF_NONE_MATCH, etag)
+                }.request(method)
+                .uri(uri)
+
+            val response = if (content != null) request.send(Mono.fromSupplier { Unpooled.wrappedBuffer(content) })
+            else request
+
+            response.responseSingle { res, bytes ->
+                val status = res.status().code()
+
+                if (status in 200..299) read(bytes)
+                else if (status == HttpResponseStatus.NOT_MODIFIED.code()) Mono.empty<T>()
+                else bytes.asInputStream()
+                    .map { parseError(status, it) }
+                    .defaultIfEmpty(GoogleApiException(status, null, res.status().reasonPhrase()))
+                    .flatMap { Mono.error<T>(it) }
+            }
+        }
+    }
+
+    internal fun <T : Any> parse(input: InputStream, type: Class<T>): T {
+        return json.createJsonParser(input, Charsets.UTF_8).parseAndClose(type)
+    }
+
+    internal fun parseError(status: Int, input: InputStream): GoogleApiException {
+        return try {
+            val error = parse(input, GoogleJsonErrorContainer::class.java).error
+
+            GoogleApiException(status, error?.errors?.firstOrNull()?.reason, error?.message)
+        } catch (e: Exception) {
+            // Not every error comes from the api itself, a proxy in front of it can answer with an html page
+            GoogleApiException(status, null, null)
+        }
+    }
+
+    // Relative to the api's base path, every call carries the quota user
+    private fun uri(path: String, params: Map<String, Any?>, auth: GoogleAuth): String {
+        val query = (params + ("quotaUser" to auth.quotaUser)).entries
+            .filter { it.value != null }
+            .joinToString("&") { (name, value) -> "$name=${encode(value.toString())}" }
+
+        return "$path?$query"
+    }
+
+    private fun revalidations(name: String, result: String): Counter {
+        return revalidationCounters.computeIfAbsent(name to result) {
+            Counter.builder("discal.google.conditional")
+                .description("Google reads sent with the etag of the last response, by whether google answered 304")
+                .tags("method", name, "result", result)
+                .register(Metrics.globalRegistry)
+        }
+    }
+
+    private fun GenericJson.etag() = get("etag") as? String
+
+    private fun calendarPath(calendarId: String) = "/calendars/${encode(calendarId)}"
+
+    private fun eventPath(calendarId: String, eventId: String) = "${calendarPath(calendarId)}/events/${encode(eventId)}"
+
+    // Calendar ids are email addresses, often with a # in them, so every path segment gets encoded too
+    private fun encode(value: String) = URLEncoder.encode(value, Charsets.UTF_8).replace("+", "%20")
+}
+
+// Kept as a copy, callers are free to modify the models they are handed
+private class Validated(val etag: String, val value: GenericJson, val bytes: Int) {
+    companion object {
+        fun of(etag: String, value: GenericJson) = Validated(etag, value.clone(), CachedEvent.estimateBytes(value))
+    }
+}
+
+/**
+ * Who a google call is made as: the access token it is authorized with, and the quota user google counts it against.
+ *
+ * @param limiter The [GoogleRateLimiter] bucket the call is limited by, as kind:id
+ */
+internal data class GoogleAuth(val accessToken: String, val quotaUser: String, val limiter: String)
@@ -0,0 +1,171 @@
+package org.dreamexposure.discal.core.wrapper.google
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
+import io.netty.handler.codec.http.HttpResponseStatus
+import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.exceptions.google.GoogleApiException
+import reactor.core.publisher.Mono
+import reactor.util.retry.Retry
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Paces google calls with a token bucket per DisCal credential and per external calendar owner.
+ *
+ * Buckets refill at a rate that adapts to google: a rate limit error halves it, and every call that gets through adds
+ * a little back, up to the configured rate. Calls over the rate queue for their token instead of failing, as long as
+ * they would get it within [maxWait]. Calls that still hit google's rate limit are retried through the limiter, so the
+ * retry waits for the lowered rate.
+ */
+internal object GoogleRateLimiter {
+    private const val MAX_RETRIES = 3L
+
+    // Rates never drop below one call every 2 seconds, and grow back by 1% of the configured rate per success
+    private const val MIN_RATE = 0.5
+    private const val INCREASE = 0.01
+
+    // Errors from calls sent within the same second come from the same overload, so they only back off once
+    private val BACKOFF_COOLDOWN = Duration.ofSeconds(1).toNanos()
+
+    private val RATE_LIMIT_REASONS = setOf("rateLimitExceeded", "userRateLimitExceeded")
+
+    private val rates = mapOf(
+        "credential" to BotSettings.GOOGLE_RATE_LIMIT_CREDENTIAL.getOrDefault("20").toDouble(),
+        "external" to BotSettings.GOOGLE_RATE_LIMIT_EXTERNAL.getOrDefault("5").toDouble(),
+    )
+
+    private val maxWait = Duration.ofSeconds(BotSettings.GOOGLE_RATE_LIMIT_MAX_WAIT_SECONDS.getOrDefault("30").toLong())
+
+    // limiter key -> bucket, external owners come and go so idle buckets are dropped
+    private val buckets: Cache<String, Bucket> = Caffeine.newBuilder()
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build()
+
+    private val waitTimers = ConcurrentHashMap<String, Timer>()
+    private val counters = ConcurrentHashMap<Pair<String, String>, Counter>()
+
+    /**
+     * Subscribes to the [call] once the credential's bucket has a token for it, retrying it if google still answers
+     * with a rate limit error.
+     *
+     * @param tokens The google calls the [call] is made of, more than one for a batch request
+     * @return The call's result, or a [GoogleApiException] with the reason queueDeadlineExceeded if it would have to
+     * wait longer than [maxWait] for a token
+     */
+    fun <T> limit(auth: GoogleAuth, call: Mono<T>, tokens: Int = 1): Mono<T> {
+        val kind = auth.limiter.substringBefore(':')
+
+        return Mono.defer {
+            val bucket = bucket(auth)
+            val wait = bucket.reserve(tokens, maxWait.toNanos())
+
+            if (wait == null) {
+                counter("rejected", kind).increment()
+                return@defer Mono.error<T>(GoogleApiException(
+                    HttpResponseStatus.TOO_MANY_REQUESTS.code(),
+                    "queueDeadlineExceeded",
+                    "Waited too long for ${auth.limiter} to allow the call",
+                ))
+            }
+            waitTimer(kind).record(wait, TimeUnit.NANOSECONDS)
+
+            val delayed = if (wait > 0) Mono.delay(Duration.ofNanos(wait)).then(call) else call
+
+            delayed.doOnSuccess { bucket.increase(tokens) }
+                .doOnError(::isRateLimited) {
+                    if (bucket.decrease()) counter("backoff", kind).increment()
+                }
+        }.retryWhen(Retry.max(MAX_RETRIES).filter(::isRateLimited).doBeforeRetry {
+            counter("retried", kind).increment()
+        })
+    }
+
+    /**
+     * Lowers the credential's rate for a call google rate limited outside of [limit], like one answered inside a
+     * batch. The caller retries the call through [limit].
+     */
+    fun backOff(auth: GoogleAuth) {
+        if (bucket(auth).decrease()) counter("backoff", auth.limiter.substringBefore(':')).increment()
+    }
+
+    fun isRateLimited(error: Throwable): Boolean {
+        if (error !is GoogleApiException || error.reason !in RATE_LIMIT_REASONS) return false
+
+        return error.statusCode == HttpResponseStatus.FORBIDDEN.code() ||
+            error.statusCode == HttpResponseStatus.TOO_MANY_REQUESTS.code()
+    }
+
+    // Caffeine marks get as nullable, the mapping here never returns null
+    private fun bucket(auth: GoogleAuth): Bucket = buckets.get(auth.limiter) {
+        Bucket(rates[auth.limiter.substringBefore(':')] ?: rates.getValue("credential"))
+    }!!
+
+    private fun waitTimer(kind: String): Timer = waitTimers.computeIfAbsent(kind) {
+        Timer.builder("discal.google.limiter.wait")
+            .description("Time google calls waited for a rate limiter token")
+            .tag("limiter", kind)
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry)
+    }
+
+    private fun counter(result: String, kind: String): Counter = counters.computeIfAbsent(result to kind) {
+        Metrics.counter("discal.google.limiter", "limiter", kind, "result", result)
+    }
+
+    private class Bucket(private val maxRate: Double) {
+        private var rate = maxRate
+        private var tokens = maxRate
+        private var refilledAt = System.nanoTime()
+        private var backedOffAt = refilledAt - BACKOFF_COOLDOWN
+
+        /**
+         * Takes [count] tokens, going into debt for them if there aren't enough left so later calls queue behind these.
+         *
+         * @return Nanos to wait until the tokens are due, or null if that is more than [maxWait]
+         */
+        @Synchronized
+        fun reserve(count: Int, maxWait: Long): Long? {
+            refill()
+
+            val wait = if (tokens >= count) 0L else ((count - tokens) / rate * 1_000_000_000).toLong()
+            if (wait > maxWait) return null
+
+            tokens -= count
+            return wait
+        }
+
+        @Synchronized
+        fun increase(count: Int) {
+            refill()
+            rate = min(maxRate, rate + maxRate * INCREASE * count)
+        }
+
+        // True if the rate was lowered, false if it was already lowered for this overload
+        @Synchronized
+        fun decrease(): Boolean {
+            val now = System.nanoTime()
+            if (now - backedOffAt < BACKOFF_COOLDOWN) return false
+
+            refill()
+            backedOffAt = now
+            rate = max(MIN_RATE, rate / 2)
+            tokens = min(tokens, 0.0)
+            return true
+        }
+
+        // At most a second's worth of calls can burst through at once
+        private fun refill() {
+            val now = System.nanoTime()
+
+            tokens = min(max(rate, 1.0), tokens + (now - refilledAt) / 1_000_000_000.0 * rate)
+            refilledAt = now
+        }
+    }
+}
@@ -0,0 +1,4 @@
+# Writes are now single INSERT ... ON DUPLICATE KEY UPDATE statements, which need a key matching each lookup.
+# Every other table is already keyed the way it is written, the api table is looked up by key alone.
+ALTER TABLE api
+    ADD UNIQUE KEY api_key_unique (API_KEY);
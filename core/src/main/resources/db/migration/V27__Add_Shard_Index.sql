@@ -0,0 +1,25 @@
+# Persisted shard routing so shard scoped reads can use an index instead of scanning MOD(guild_id >> 22, ?)
+# Rows start out unrouted (-1) and are bucketed by DatabaseManager.rebucketShards once the shard count is known.
+CREATE TABLE IF NOT EXISTS shard_routing
+(
+    id          TINYINT NOT NULL,
+    shard_count INT     NOT NULL,
+    PRIMARY KEY (id)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8;
+
+ALTER TABLE guild_settings
+    ADD COLUMN shard_index SMALLINT NOT NULL DEFAULT -1,
+    ADD INDEX guild_settings_shard_index (shard_index);
+
+ALTER TABLE calendars
+    ADD COLUMN shard_index SMALLINT NOT NULL DEFAULT -1,
+    ADD INDEX calendars_shard_index (shard_index);
+
+ALTER TABLE announcements
+    ADD COLUMN shard_index SMALLINT NOT NULL DEFAULT -1,
+    ADD INDEX announcements_shard_index (shard_index);
+
+ALTER TABLE static_messages
+    ADD COLUMN shard_index SMALLINT NOT NULL DEFAULT -1,
+    ADD INDEX static_messages_shard_index (shard_index);
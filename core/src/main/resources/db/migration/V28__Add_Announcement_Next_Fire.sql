@@ -0,0 +1,5 @@
+# Precomputed next evaluation time (epoch millis) so the announcement cycle only reads rows that are due.
+# 0 means "evaluate on the next cycle", which is what every existing row and every changed row starts out as.
+ALTER TABLE announcements
+    ADD COLUMN next_fire_at BIGINT NOT NULL DEFAULT 0,
+    ADD INDEX announcements_due (shard_index, ENABLED, next_fire_at);
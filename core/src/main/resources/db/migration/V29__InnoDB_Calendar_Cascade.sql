@@ -0,0 +1,19 @@
+# Calendar and guild deletes run as a single transaction, which MyISAM tables silently ignore
+ALTER TABLE announcements ENGINE = InnoDB;
+ALTER TABLE calendars ENGINE = InnoDB;
+ALTER TABLE events ENGINE = InnoDB;
+ALTER TABLE guild_settings ENGINE = InnoDB;
+ALTER TABLE rsvp ENGINE = InnoDB;
+
+# Calendar scoped deletes and renumbering only touch (guild_id, calendar_number) ranges
+ALTER TABLE events
+    ADD INDEX events_guild_calendar (guild_id, calendar_number);
+
+ALTER TABLE rsvp
+    ADD INDEX rsvp_guild_calendar (guild_id, calendar_number);
+
+ALTER TABLE announcements
+    ADD INDEX announcements_guild_calendar (guild_id, calendar_number);
+
+ALTER TABLE static_messages
+    ADD INDEX static_messages_guild_calendar (guild_id, calendar_number);
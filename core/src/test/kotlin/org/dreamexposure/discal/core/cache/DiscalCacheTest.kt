@@ -0,0 +1,243 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.entities.Calendar
+import org.dreamexposure.discal.core.entities.google.GoogleCalendar
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Mono
+import java.time.ZoneOffset
+import java.util.concurrent.TimeUnit
+import com.google.api.services.calendar.model.Calendar as GoogleCalendarModel
+
+class DiscalCacheTest {
+    private val remote = InMemoryRemoteCache()
+    private val bus = LocalInvalidationBus()
+
+    @BeforeEach
+    fun connect() {
+        DiscalCache.connectRemoteCache(remote)
+        DiscalCache.connectInvalidationBus(bus)
+    }
+
+    @AfterEach
+    fun disconnect() {
+        DiscalCache.disconnectInvalidationBus()
+        DiscalCache.disconnectRemoteCache()
+        DiscalCache.invalidateAll()
+    }
+
+    @Test
+    fun `stored settings are written through to the remote cache`() {
+        val settings = GuildSettings(Snowflake.of(1), prefix = "?")
+
+        DiscalCache.storeSettings(settings)
+
+        assertEquals(settings, DiscalCache.getRemoteSettings(settings.guildID).block()?.value)
+    }
+
+    @Test
+    fun `database fills don't replace settings written to the remote cache`() {
+        val written = GuildSettings(Snowflake.of(2), prefix = "?")
+
+        val read = DiscalCache.getRemoteSettings(written.guildID).block()!!
+
+        DiscalCache.storeSettings(written)
+        DiscalCache.fillRemoteSettings(GuildSettings(written.guildID, prefix = "!"), read)
+
+        assertEquals(written, DiscalCache.getRemoteSettings(written.guildID).block()?.value)
+    }
+
+    @Test
+    fun `database fills don't replace settings invalidated since they were read`() {
+        val guildId = Snowflake.of(12)
+        DiscalCache.storeSettings(GuildSettings(guildId, prefix = "?"))
+        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, guildId)).block()
+        val read = DiscalCache.getRemoteSettings(guildId).block()!!
+
+        // Another node invalidates after this one read the key, whatever this one loaded may predate that write
+        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, guildId)).block()
+        DiscalCache.fillRemoteSettings(GuildSettings(guildId, prefix = "!"), read)
+
+        assertNull(DiscalCache.getRemoteSettings(guildId).block()?.value)
+    }
+
+    @Test
+    fun `database fills store settings after an invalidation`() {
+        val loaded = GuildSettings(Snowflake.of(13), prefix = "!")
+        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, loaded.guildID)).block()
+        val read = DiscalCache.getRemoteSettings(loaded.guildID).block()!!
+
+        DiscalCache.fillRemoteSettings(loaded, read)
+
+        assertEquals(loaded, DiscalCache.getRemoteSettings(loaded.guildID).block()?.value)
+    }
+
+    @Test
+    fun `calendar fills don't replace calendars invalidated since they were read`() {
+        val guildId = Snowflake.of(14)
+        val read = DiscalCache.getRemoteCalendars(guildId).block()!!
+        val loaded = listOf(CalendarData(guildId, 1, CalendarHost.GOOGLE, "cal1", "cal1", 0))
+
+        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.CALENDARS, guildId)).block()
+        DiscalCache.fillRemoteCalendars(guildId, loaded, read)
+
+        assertNull(DiscalCache.getRemoteCalendars(guildId).block()?.value)
+    }
+
+    @Test
+    fun `invalidations from other nodes evict this node's copy`() {
+        val settings = GuildSettings(Snowflake.of(3))
+        DiscalCache.putSettings(settings)
+
+        bus.publish(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, settings.guildID, origin = "other")).block()
+
+        assertNull(DiscalCache.getSettings(settings.guildID))
+    }
+
+    @Test
+    fun `this node's own invalidations don't evict what it just wrote`() {
+        val settings = GuildSettings(Snowflake.of(4))
+        DiscalCache.putSettings(settings)
+
+        DiscalCache.publishInvalidation(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, settings.guildID))
+
+        assertEquals(settings, DiscalCache.getSettings(settings.guildID))
+    }
+
+    @Test
+    fun `invalidating clears the remote copy and tells other nodes`() {
+        val settings = GuildSettings(Snowflake.of(5))
+        DiscalCache.storeSettings(settings)
+        val published = bus.receive().next().toFuture()
+
+        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, settings.guildID)).block()
+
+        assertEquals(settings.guildID, published.get(1, TimeUnit.SECONDS).guildId)
+        assertNull(DiscalCache.getRemoteSettings(settings.guildID).block()?.value)
+    }
+
+    @Test
+    fun `loads fill the cache when nothing was written meanwhile`() {
+        val loaded = GuildSettings(Snowflake.of(6))
+        val generation = DiscalCache.generation(DiscalCache.SETTINGS_REGION, loaded.guildID)
+
+        DiscalCache.fillSettings(loaded, generation)
+
+        assertEquals(loaded, DiscalCache.getSettings(loaded.guildID))
+    }
+
+    @Test
+    fun `loads don't replace settings written while they ran`() {
+        val guildId = Snowflake.of(7)
+        val generation = DiscalCache.generation(DiscalCache.SETTINGS_REGION, guildId)
+        val written = GuildSettings(guildId, prefix = "?")
+
+        DiscalCache.putSettings(written)
+        DiscalCache.fillSettings(GuildSettings(guildId, prefix = "!"), generation)
+
+        assertEquals(written, DiscalCache.getSettings(guildId))
+    }
+
+    @Test
+    fun `loads don't put back settings evicted while they ran`() {
+        val guildId = Snowflake.of(8)
+        val generation = DiscalCache.generation(DiscalCache.SETTINGS_REGION, guildId)
+
+        DiscalCache.removeSettings(guildId)
+        DiscalCache.fillSettings(GuildSettings(guildId), generation)
+
+        assertNull(DiscalCache.getSettings(guildId))
+    }
+
+    @Test
+    fun `complete calendar loads answer for the whole guild`() {
+        val guildId = Snowflake.of(9)
+        val generation = DiscalCache.generation(DiscalCache.CALENDARS_REGION, guildId)
+
+        DiscalCache.fillAllCalendars(guildId, listOf(calendar(guildId, 1), calendar(guildId, 2)), true, generation)
+
+        assertEquals(2, DiscalCache.getAllCalendars(guildId)?.size)
+    }
+
+    @Test
+    fun `partial calendar loads only answer for the calendars they found`() {
+        val guildId = Snowflake.of(10)
+        val generation = DiscalCache.generation(DiscalCache.CALENDARS_REGION, guildId)
+
+        DiscalCache.fillAllCalendars(guildId, listOf(calendar(guildId, 2)), false, generation)
+
+        assertNull(DiscalCache.getAllCalendars(guildId))
+        assertNull(DiscalCache.getCalendar(guildId, 1))
+        assertNotNull(DiscalCache.getCalendar(guildId, 2))
+    }
+
+    @Test
+    fun `partial calendar loads don't replace a cached entry`() {
+        val guildId = Snowflake.of(11)
+        val load = DiscalCache.generation(DiscalCache.CALENDARS_REGION, guildId)
+        DiscalCache.fillAllCalendars(guildId, listOf(calendar(guildId, 1), calendar(guildId, 2)), true, load)
+
+        val refresh = DiscalCache.generation(DiscalCache.CALENDARS_REGION, guildId)
+        DiscalCache.fillAllCalendars(guildId, listOf(calendar(guildId, 2)), false, refresh)
+
+        assertEquals(2, DiscalCache.getAllCalendars(guildId)?.size)
+    }
+
+    @Test
+    fun `guild invalidations reject stale fills of both settings and calendars`() {
+        val guildId = Snowflake.of(15)
+        val settingsRead = DiscalCache.getRemoteSettings(guildId).block()!!
+        val calendarsRead = DiscalCache.getRemoteCalendars(guildId).block()!!
+        DiscalCache.putSettings(GuildSettings(guildId))
+
+        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.GUILD, guildId)).block()
+        DiscalCache.fillRemoteSettings(GuildSettings(guildId, prefix = "!"), settingsRead)
+        DiscalCache.fillRemoteCalendars(guildId, listOf(calendar(guildId, 1).calendarData), calendarsRead)
+
+        assertNull(DiscalCache.getSettings(guildId))
+        assertNull(DiscalCache.getRemoteSettings(guildId).block()?.value)
+        assertNull(DiscalCache.getRemoteCalendars(guildId).block()?.value)
+    }
+
+    @Test
+    fun `loads that read the remote copy before an invalidation aren't kept`() {
+        val guildId = Snowflake.of(16)
+        DiscalCache.storeSettings(GuildSettings(guildId, prefix = "?"))
+        val generation = DiscalCache.generation(DiscalCache.SETTINGS_REGION, guildId)
+        val read = DiscalCache.getRemoteSettings(guildId).block()!!
+
+        DiscalCache.invalidate(CacheInvalidation(CacheInvalidation.Kind.SETTINGS, guildId)).block()
+        DiscalCache.fillSettings(read.value!!, generation)
+
+        assertNull(DiscalCache.getSettings(guildId))
+    }
+
+    @Test
+    fun `invalidated events are loaded again`() {
+        val guildId = Snowflake.of(17)
+        var loads = 0
+        val events = {
+            DiscalCache.getUpcomingEvents(guildId, 1, ZoneOffset.UTC, 5) { loads++; Mono.just(emptyList()) }.block()
+        }
+
+        events()
+        DiscalCache.invalidateEvents(guildId, 1).block()
+        events()
+
+        assertEquals(2, loads)
+    }
+
+    private fun calendar(guildId: Snowflake, number: Int): Calendar {
+        val data = CalendarData(guildId, number, CalendarHost.GOOGLE, "cal$number", "cal$number", 0)
+
+        return GoogleCalendar(data, GoogleCalendarModel().setId("cal$number").setTimeZone("UTC"))
+    }
+}
@@ -0,0 +1,105 @@
+package org.dreamexposure.discal.core.cache
+
+import com.google.api.client.util.DateTime
+import com.google.api.services.calendar.model.EventDateTime
+import discord4j.common.util.Snowflake
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Mono
+import java.time.Duration
+import java.time.ZoneOffset
+import java.util.concurrent.atomic.AtomicInteger
+import com.google.api.services.calendar.model.Event as GoogleEventModel
+
+class EventListCacheTest {
+    private val hour = Duration.ofHours(1).toMillis()
+    private val start = System.currentTimeMillis() - Math.floorMod(System.currentTimeMillis(), hour) + 24 * hour
+
+    private fun event(id: String, start: Long, description: String = ""): GoogleEventModel = GoogleEventModel()
+        .setId(id)
+        .setDescription(description)
+        .setStart(EventDateTime().setDateTime(DateTime(start)))
+        .setEnd(EventDateTime().setDateTime(DateTime(start + hour)))
+
+    private fun range(cache: EventListCache, guildId: Long, loads: AtomicInteger, events: List<GoogleEventModel>) =
+        cache.range(Snowflake.of(guildId), 1, ZoneOffset.UTC, start, start + hour) { _, _ ->
+            Mono.fromCallable { loads.incrementAndGet(); events }
+        }.block()!!
+
+    @Test
+    fun `cached event lists stay under the byte bound`() {
+        val maxBytes = 20_000L
+        val cache = EventListCache(Duration.ofMinutes(1), maxBytes, Runnable::run)
+        val loads = AtomicInteger()
+
+        (101L..110L).forEach { range(cache, it, loads, listOf(event("$it", start, "x".repeat(2_000)))) }
+
+        assertEquals(10, loads.get())
+        assertTrue(cache.weightedSize() in 1..maxBytes, "${cache.weightedSize()}")
+    }
+
+    @Test
+    fun `a window is served until its ttl runs out then reloaded`() {
+        val cache = EventListCache(Duration.ofMillis(200), 1_000_000, Runnable::run)
+        val loads = AtomicInteger()
+        val events = listOf(event("a", start))
+
+        assertEquals(listOf("a"), range(cache, 111, loads, events).map { it.id })
+        range(cache, 111, loads, events)
+        assertEquals(1, loads.get())
+
+        Thread.sleep(300)
+
+        range(cache, 111, loads, events)
+        assertEquals(2, loads.get())
+    }
+
+    @Test
+    fun `upcoming lists are served until their ttl runs out then reloaded`() {
+        val cache = EventListCache(Duration.ofMillis(200), 1_000_000, Runnable::run)
+        val loads = AtomicInteger()
+        val upcoming = {
+            cache.upcoming(Snowflake.of(112), 1, ZoneOffset.UTC, 5) {
+                Mono.fromCallable { loads.incrementAndGet(); listOf(event("a", start)) }
+            }.block()!!
+        }
+
+        upcoming()
+        upcoming()
+        assertEquals(1, loads.get())
+
+        Thread.sleep(300)
+
+        upcoming()
+        assertEquals(2, loads.get())
+    }
+
+    @Test
+    fun `callers editing their events leave the cached ones alone`() {
+        val cache = EventListCache(Duration.ofMinutes(1), 1_000_000, Runnable::run)
+        val loads = AtomicInteger()
+        val events = listOf(event("a", start, "cached"))
+
+        range(cache, 114, loads, events).single().description = "edited"
+        cache.upcoming(Snowflake.of(114), 1, ZoneOffset.UTC, 1) { Mono.just(events) }.block()!!
+            .single().description = "edited"
+
+        assertEquals("cached", range(cache, 114, loads, events).single().description)
+        assertEquals("cached", cache.upcoming(Snowflake.of(114), 1, ZoneOffset.UTC, 1) { Mono.empty() }
+            .block()!!.single().description)
+        assertEquals(1, loads.get())
+    }
+
+    @Test
+    fun `an invalidated calendar is reloaded`() {
+        val cache = EventListCache(Duration.ofMinutes(1), 1_000_000, Runnable::run)
+        val loads = AtomicInteger()
+
+        range(cache, 113, loads, listOf(event("a", start)))
+        cache.invalidate(Snowflake.of(113), 1)
+        range(cache, 113, loads, listOf(event("a", start)))
+
+        assertEquals(2, loads.get())
+    }
+}
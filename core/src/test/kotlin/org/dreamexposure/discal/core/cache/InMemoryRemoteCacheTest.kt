@@ -0,0 +1,77 @@
+package org.dreamexposure.discal.core.cache
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import reactor.test.StepVerifier
+import java.time.Duration
+
+class InMemoryRemoteCacheTest {
+    private val cache = InMemoryRemoteCache()
+    private val ttl = Duration.ofMinutes(1)
+
+    @Test
+    fun `missing keys are empty`() {
+        StepVerifier.create(cache.get("missing")).verifyComplete()
+    }
+
+    @Test
+    fun `writes replace the stored value`() {
+        cache.set("key", bytes("first"), ttl).block()
+        cache.set("key", bytes("second"), ttl).block()
+
+        assertArrayEquals(bytes("second"), cache.get("key").block())
+    }
+
+    @Test
+    fun `compare and set fills an empty key`() {
+        assertTrue(cache.compareAndSet("key", null, bytes("loaded"), ttl).block()!!)
+
+        assertArrayEquals(bytes("loaded"), cache.get("key").block())
+    }
+
+    @Test
+    fun `compare and set replaces the value it expects`() {
+        cache.set("key", bytes("invalidated"), ttl).block()
+
+        assertTrue(cache.compareAndSet("key", bytes("invalidated"), bytes("loaded"), ttl).block()!!)
+        assertArrayEquals(bytes("loaded"), cache.get("key").block())
+    }
+
+    @Test
+    fun `compare and set leaves a value written since the read in place`() {
+        cache.set("key", bytes("written"), ttl).block()
+
+        assertFalse(cache.compareAndSet("key", null, bytes("loaded before the write"), ttl).block()!!)
+        assertFalse(cache.compareAndSet("key", bytes("read"), bytes("loaded before the write"), ttl).block()!!)
+        assertArrayEquals(bytes("written"), cache.get("key").block())
+    }
+
+    @Test
+    fun `compare and set treats an expired value as empty`() {
+        cache.set("key", bytes("expired"), Duration.ZERO).block()
+
+        assertTrue(cache.compareAndSet("key", null, bytes("loaded"), ttl).block()!!)
+        assertArrayEquals(bytes("loaded"), cache.get("key").block())
+    }
+
+    @Test
+    fun `expired values are not read`() {
+        cache.set("key", bytes("expired"), Duration.ZERO).block()
+
+        StepVerifier.create(cache.get("key")).verifyComplete()
+    }
+
+    @Test
+    fun `deleted keys are empty`() {
+        cache.set("first", bytes("value"), ttl).block()
+        cache.set("second", bytes("value"), ttl).block()
+        cache.delete(listOf("first", "second")).block()
+
+        StepVerifier.create(cache.get("first")).verifyComplete()
+        StepVerifier.create(cache.get("second")).verifyComplete()
+    }
+
+    private fun bytes(value: String) = value.toByteArray(Charsets.UTF_8)
+}
@@ -0,0 +1,71 @@
+package org.dreamexposure.discal.core.cache
+
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.github.benmanes.caffeine.cache.Ticker
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotNull
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.time.Duration
+
+class JitteredExpiryTest {
+    private val ttl = Duration.ofMinutes(10)
+    private var now = 0L
+
+    private fun cache(): Cache<Int, String> = Caffeine.newBuilder()
+        .maximumSize(3)
+        .expireAfter(JitteredExpiry<Int, String>(ttl))
+        .ticker(Ticker { now })
+        .executor(Runnable::run)
+        .build()
+
+    private fun advance(duration: Duration) {
+        now += duration.toNanos()
+    }
+
+    @Test
+    fun `entries expire within the jitter of the ttl and not all at once`() {
+        val expiry = JitteredExpiry<Int, String>(ttl)
+
+        val durations = (0 until 1_000).map { expiry.expireAfterCreate(it, "", 0) }
+
+        durations.forEach { assertTrue(it in ttl.toNanos() * 9 / 10..ttl.toNanos() * 11 / 10, "$it") }
+        assertTrue(durations.toSet().size > 1)
+    }
+
+    @Test
+    fun `reads do not extend an entry's lifetime`() {
+        val cache = cache()
+        cache.put(1, "one")
+
+        advance(Duration.ofMinutes(8))
+        assertNotNull(cache.getIfPresent(1))
+
+        advance(Duration.ofMinutes(4))
+        assertNull(cache.getIfPresent(1))
+    }
+
+    @Test
+    fun `writes start a new lifetime`() {
+        val cache = cache()
+        cache.put(1, "one")
+
+        advance(Duration.ofMinutes(8))
+        cache.put(1, "uno")
+
+        advance(Duration.ofMinutes(8))
+        assertEquals("uno", cache.getIfPresent(1))
+    }
+
+    @Test
+    fun `the size bound holds alongside expiry`() {
+        val cache = cache()
+
+        (0 until 10).forEach { cache.put(it, "$it") }
+        cache.cleanUp()
+
+        assertEquals(3, cache.estimatedSize())
+    }
+}
@@ -0,0 +1,51 @@
+package org.dreamexposure.discal.core.cache
+
+import discord4j.common.util.Snowflake
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import reactor.core.publisher.Flux
+import reactor.core.scheduler.Schedulers
+import reactor.test.StepVerifier
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+class LocalInvalidationBusTest {
+    private val bus = LocalInvalidationBus()
+
+    @Test
+    fun `every subscriber receives each invalidation`() {
+        val invalidation = CacheInvalidation(CacheInvalidation.Kind.SETTINGS, Snowflake.of(1), origin = "node")
+        val first = bus.receive().next().toFuture()
+        val second = bus.receive().next().toFuture()
+
+        bus.publish(invalidation).block()
+
+        assertEquals(invalidation, first.get(1, TimeUnit.SECONDS))
+        assertEquals(invalidation, second.get(1, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun `concurrent publishes are not dropped`() {
+        val count = 1_000
+        val received = bus.receive().take(count.toLong()).collectList().toFuture()
+
+        Flux.range(0, count)
+            .parallel()
+            .runOn(Schedulers.parallel())
+            .flatMap { bus.publish(CacheInvalidation(CacheInvalidation.Kind.EVENTS, Snowflake.of(1), it)) }
+            .then()
+            .block(Duration.ofSeconds(10))
+
+        val numbers = received.get(10, TimeUnit.SECONDS).map(CacheInvalidation::calendarNumber)
+        assertEquals((0 until count).toSet(), numbers.toSet())
+    }
+
+    @Test
+    fun `closing completes subscribers`() {
+        val receiver = StepVerifier.create(bus.receive()).expectSubscription().expectComplete().verifyLater()
+
+        bus.close()
+
+        receiver.verify(Duration.ofSeconds(1))
+    }
+}
@@ -0,0 +1,118 @@
+package org.dreamexposure.discal.core.database
+
+import io.r2dbc.spi.ColumnMetadata
+import io.r2dbc.spi.Connection
+import io.r2dbc.spi.Result
+import io.r2dbc.spi.Row
+import io.r2dbc.spi.RowMetadata
+import io.r2dbc.spi.Statement
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.util.function.BiFunction
+
+/**
+ * A [Connection] that records what is run on it instead of talking to a database. Built from proxies so it works
+ * against whichever r2dbc spi version the build resolves.
+ *
+ * @param rowsUpdated The rows each statement reports as updated, keyed by its sql. Anything missing updates 1 row
+ * @param rows The rows each query returns, keyed by its sql, as column name to value
+ * @param failing Statements whose execution fails
+ */
+internal class FakeConnection(
+    private val rowsUpdated: Map<String, Int> = emptyMap(),
+    private val rows: Map<String, List<Map<String, Any?>>> = emptyMap(),
+    private val failing: Set<String> = emptySet(),
+) {
+    /** Everything run on the connection in order, `begin`, `commit`, `rollback` or the sql of a statement. */
+    val log = mutableListOf<String>()
+
+    val connection: Connection = fake { method, args ->
+        when (method.name) {
+            "beginTransaction" -> Mono.fromRunnable<Void> { log += "begin" }
+            "commitTransaction" -> Mono.fromRunnable<Void> { log += "commit" }
+            "rollbackTransaction" -> Mono.fromRunnable<Void> { log += "rollback" }
+            "createStatement" -> statement(args[0] as String)
+            "close" -> Mono.empty<Void>()
+            else -> throw UnsupportedOperationException(method.name)
+        }
+    }
+
+    private fun statement(sql: String): Statement {
+        lateinit var statement: Statement
+
+        statement = fake { method, _ ->
+            when (method.name) {
+                "execute" -> Mono.defer {
+                    log += sql
+                    if (sql in failing) Mono.error(IllegalStateException("$sql failed"))
+                    else Mono.just(result(rowsUpdated[sql] ?: 1, rows[sql].orEmpty()))
+                }
+                "bind", "bindNull", "add", "fetchSize", "returnGeneratedValues" -> statement
+                else -> throw UnsupportedOperationException(method.name)
+            }
+        }
+
+        return statement
+    }
+
+    private fun result(updated: Int, rows: List<Map<String, Any?>>): Result = fake { method, args ->
+        when (method.name) {
+            "getRowsUpdated" -> Mono.just(updated)
+            "map" -> {
+                @Suppress("UNCHECKED_CAST")
+                val mapper = args[0] as BiFunction<Row, RowMetadata, Any>
+                Flux.fromIterable(rows).map { mapper.apply(fakeRow(it), fakeMetadata(it.keys)) }
+            }
+            else -> throw UnsupportedOperationException(method.name)
+        }
+    }
+}
+
+/**
+ * A [Row] holding [values] in order, read by index or by case insensitive column name like the mysql driver does.
+ */
+internal fun fakeRow(values: Map<String, Any?>): Row {
+    val columns = values.entries.toList()
+
+    return fake { method, args ->
+        when (method.name) {
+            "get" -> when (val column = args[0]) {
+                is Int -> columns[column].value
+                else -> columns.first { it.key.equals(column as String, ignoreCase = true) }.value
+            }
+            else -> throw UnsupportedOperationException(method.name)
+        }
+    }
+}
+
+internal fun fakeMetadata(names: Collection<String>): RowMetadata {
+    val columns = names.map { name ->
+        fake<ColumnMetadata> { method, _ ->
+            if (method.name == "getName") name else throw UnsupportedOperationException(method.name)
+        }
+    }
+
+    return fake { method, _ ->
+        when (method.name) {
+            "getColumnMetadatas" -> columns
+            "getColumnNames" -> names
+            else -> throw UnsupportedOperationException(method.name)
+        }
+    }
+}
+
+/**
+ * Implements [T] with [handler], apart from the [Object] methods every proxy needs.
+ */
+internal inline fun <reified T> fake(crossinline handler: (Method, Array<Any?>) -> Any?): T {
+    return Proxy.newProxyInstance(T::class.java.classLoader, arrayOf(T::class.java)) { proxy, method, args ->
+        when (method.name) {
+            "toString" -> "Fake ${T::class.java.simpleName}"
+            "hashCode" -> System.identityHashCode(proxy)
+            "equals" -> proxy === args[0]
+            else -> handler(method, args ?: emptyArray())
+        }
+    } as T
+}
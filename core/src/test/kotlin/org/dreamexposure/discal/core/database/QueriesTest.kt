@@ -0,0 +1,70 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class QueriesTest {
+    // Each upsert with the columns that make up the key it is matched on, which an update must never rewrite
+    private val upserts = mapOf(
+        Queries.UPSERT_API_ACCOUNT to listOf("API_KEY"),
+        Queries.UPSERT_GUILD_SETTINGS to listOf("GUILD_ID"),
+        Queries.UPSERT_CALENDAR to listOf("GUILD_ID", "CALENDAR_NUMBER"),
+        Queries.UPSERT_ANNOUNCEMENT to listOf("ANNOUNCEMENT_ID", "GUILD_ID"),
+        Queries.UPSERT_EVENT_DATA to listOf("GUILD_ID", "EVENT_ID"),
+        Queries.UPSERT_RSVP_DATA to listOf("GUILD_ID", "EVENT_ID"),
+        Queries.UPSERT_CREDENTIAL_DATA to listOf("CREDENTIAL_NUMBER"),
+        Queries.UPSERT_STATIC_MESSAGE to listOf("guild_id", "message_id"),
+    )
+
+    @Test
+    fun `upserts are a single insert or update statement`() {
+        upserts.keys.forEach { sql ->
+            assertTrue(sql.startsWith("INSERT INTO"), sql)
+            assertTrue(sql.contains("ON DUPLICATE KEY UPDATE"), sql)
+            assertFalse(sql.contains(";"), sql)
+        }
+    }
+
+    @Test
+    fun `upserts bind a value for every column they insert`() {
+        upserts.keys.forEach { sql ->
+            val columns = sql.substringAfter("(").substringBefore(")").split(",")
+
+            assertEquals(columns.size, sql.count { it == '?' }, sql)
+        }
+    }
+
+    @Test
+    fun `upserts never rewrite the key they matched on`() {
+        upserts.forEach { (sql, key) ->
+            val updated = sql.substringAfter("ON DUPLICATE KEY UPDATE").split(",")
+                .map { it.substringBefore("=").trim() }
+
+            key.forEach { column -> assertFalse(updated.any { it.equals(column, ignoreCase = true) }, sql) }
+        }
+    }
+
+    @Test
+    fun `rsvp data is only inserted once there is something to keep`() {
+        val data = RsvpData(Snowflake.of(1), "event")
+        assertFalse(data.shouldBeSaved())
+
+        data.limit = 5
+        assertTrue(data.shouldBeSaved())
+
+        val going = RsvpData(Snowflake.of(1), "event")
+        going.goingOnTime.add("123")
+        assertTrue(going.shouldBeSaved())
+    }
+
+    @Test
+    fun `event data is only inserted once it has an image`() {
+        assertFalse(EventData(Snowflake.of(1), "event").shouldBeSaved())
+        assertTrue(EventData(Snowflake.of(1), "event", imageLink = "https://example.com/a.png").shouldBeSaved())
+    }
+}
@@ -0,0 +1,286 @@
+package org.dreamexposure.discal.core.database
+
+import discord4j.common.util.Snowflake
+import io.r2dbc.spi.Row
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementModifier
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementStyle
+import org.dreamexposure.discal.core.enums.announcement.AnnouncementType
+import org.dreamexposure.discal.core.enums.calendar.CalendarHost
+import org.dreamexposure.discal.core.enums.event.EventColor
+import org.dreamexposure.discal.core.enums.time.TimeFormat
+import org.dreamexposure.discal.core.extensions.setFromString
+import org.dreamexposure.discal.core.`object`.GuildSettings
+import org.dreamexposure.discal.core.`object`.StaticMessage
+import org.dreamexposure.discal.core.`object`.WebSession
+import org.dreamexposure.discal.core.`object`.announcement.Announcement
+import org.dreamexposure.discal.core.`object`.calendar.CalendarData
+import org.dreamexposure.discal.core.`object`.event.EventData
+import org.dreamexposure.discal.core.`object`.event.RsvpData
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.time.Instant
+import java.util.function.BiFunction
+
+/**
+ * Checks each index based mapper against the name based mapping it replaced. Rows come back with columns in another
+ * order, another case and with columns the mappers don't read, as they do from `SELECT *`.
+ */
+class RowMappersTest {
+    private val guildId = 375357265198317579L
+    private val now = Instant.ofEpochSecond(1_650_000_000)
+
+    @Test
+    fun `announcements map the same as by name`() {
+        val rows = listOf(
+            announcementRow("a1", "RED", "UNIVERSAL", "123,456", ""),
+            announcementRow("a2", "5", "COLOR", "", "789"),
+            announcementRow("a3", "A4BDFC", "SPECIFIC", "", ""),
+        )
+
+        assertMapsLikeByName(rows, AnnouncementMapper()) { row ->
+            val guildId = Snowflake.of(row["GUILD_ID", Long::class.java]!!)
+
+            val a = Announcement(guildId, row["ANNOUNCEMENT_ID", String::class.java]!!)
+            a.calendarNumber = row["CALENDAR_NUMBER", Int::class.java]!!
+            a.subscriberRoleIds.setFromString(row["SUBSCRIBERS_ROLE", String::class.java]!!)
+            a.subscriberUserIds.setFromString(row["SUBSCRIBERS_USER", String::class.java]!!)
+            a.announcementChannelId = row["CHANNEL_ID", String::class.java]!!
+            a.type = AnnouncementType.valueOf(row["ANNOUNCEMENT_TYPE", String::class.java]!!)
+            a.modifier = AnnouncementModifier.valueOf(row["MODIFIER", String::class.java]!!)
+            a.eventId = row["EVENT_ID", String::class.java]!!
+            a.eventColor = EventColor.fromNameOrHexOrId(row["EVENT_COLOR", String::class.java]!!)
+            a.hoursBefore = row["HOURS_BEFORE", Int::class.java]!!
+            a.minutesBefore = row["MINUTES_BEFORE", Int::class.java]!!
+            a.info = row["INFO", String::class.java]!!
+            a.enabled = row["ENABLED", Boolean::class.java]!!
+            a.publish = row["PUBLISH", Boolean::class.java]!!
+            a
+        }
+    }
+
+    @Test
+    fun `calendars map the same as by name`() {
+        val row = linkedMapOf<String, Any?>(
+            "calendar_id" to "abc@group.calendar.google.com",
+            "GUILD_ID" to guildId,
+            "shard_index" to 3,
+            "CALENDAR_NUMBER" to 2,
+            "HOST" to "GOOGLE",
+            "CALENDAR_ADDRESS" to "abc@group.calendar.google.com",
+            "EXTERNAL" to true,
+            "CREDENTIAL_ID" to 4,
+            "PRIVATE_KEY" to "key",
+            "ACCESS_TOKEN" to "access",
+            "REFRESH_TOKEN" to "refresh",
+            "EXPIRES_AT" to now.toEpochMilli(),
+        )
+
+        assertMapsLikeByName(listOf(row), CalendarDataMapper()) {
+            CalendarData(
+                Snowflake.of(it["GUILD_ID", Long::class.java]!!),
+                it["CALENDAR_NUMBER", Int::class.java]!!,
+                CalendarHost.valueOf(it["HOST", String::class.java]!!),
+                it["CALENDAR_ID", String::class.java]!!,
+                it["CALENDAR_ADDRESS", String::class.java]!!,
+                it["EXTERNAL", Boolean::class.java]!!,
+                it["CREDENTIAL_ID", Int::class.java]!!,
+                it["PRIVATE_KEY", String::class.java]!!,
+                it["ACCESS_TOKEN", String::class.java]!!,
+                it["REFRESH_TOKEN", String::class.java]!!,
+                Instant.ofEpochMilli(it["EXPIRES_AT", Long::class.java]!!),
+            )
+        }
+    }
+
+    @Test
+    fun `event data maps the same as by name`() {
+        val row = linkedMapOf<String, Any?>(
+            "IMAGE_LINK" to "https://example.com/a.png",
+            "EVENT_ID" to "event",
+            "GUILD_ID" to guildId,
+            "EVENT_END" to now.toEpochMilli(),
+            "CALENDAR_NUMBER" to 1,
+        )
+
+        assertMapsLikeByName(listOf(row), EventDataMapper()) {
+            EventData(
+                Snowflake.of(it["GUILD_ID", Long::class.java]!!),
+                it["EVENT_ID", String::class.java]!!,
+                it["CALENDAR_NUMBER", Int::class.java]!!,
+                it["EVENT_END", Long::class.java]!!,
+                it["IMAGE_LINK", String::class.java]!!,
+            )
+        }
+    }
+
+    @Test
+    fun `rsvp data maps the same as by name`() {
+        val rows = listOf(rsvpRow(roleId = 987654321L), rsvpRow(roleId = null))
+
+        // Rsvp lists, limit and role live outside the constructor, so they're compared apart from equals
+        val everything: (RsvpData) -> Any = {
+            listOf(it, it.eventEnd, it.limit, it.roleId) +
+                listOf(it.goingOnTime, it.goingLate, it.notGoing, it.undecided, it.waitlist)
+        }
+
+        assertMapsLikeByName(rows, RsvpDataMapper(), everything) {
+            val data = RsvpData(
+                Snowflake.of(it["GUILD_ID", Long::class.java]!!),
+                it["EVENT_ID", String::class.java]!!,
+                it["CALENDAR_NUMBER", Int::class.java]!!,
+            )
+            data.eventEnd = it["EVENT_END", Long::class.java]!!
+            data.goingOnTime.setFromString(it["GOING_ON_TIME", String::class.java]!!)
+            data.goingLate.setFromString(it["GOING_LATE", String::class.java]!!)
+            data.notGoing.setFromString(it["NOT_GOING", String::class.java]!!)
+            data.undecided.setFromString(it["UNDECIDED", String::class.java]!!)
+            data.waitlist.setFromString(it["waitlist", String::class.java]!!)
+            data.limit = it["RSVP_LIMIT", Int::class.java]!!
+            it["RSVP_ROLE", Long::class.java]?.let { role -> data.setRole(Snowflake.of(role)) }
+            data
+        }
+    }
+
+    @Test
+    fun `static messages map the same as by name`() {
+        val row = linkedMapOf<String, Any?>(
+            "shard_index" to 0,
+            "message_id" to 111L,
+            "guild_id" to guildId,
+            "channel_id" to 222L,
+            "calendar_number" to 1,
+            "type" to 1,
+            "last_update" to now,
+            "scheduled_update" to now.plusSeconds(3600),
+        )
+
+        assertMapsLikeByName(listOf(row), StaticMessageMapper()) {
+            StaticMessage(
+                Snowflake.of(it["guild_id", Long::class.java]!!),
+                Snowflake.of(it["message_id", Long::class.java]!!),
+                Snowflake.of(it["channel_id", Long::class.java]!!),
+                StaticMessage.Type.valueOf(it["type", Int::class.java]!!),
+                it["last_update", Instant::class.java]!!,
+                it["scheduled_update", Instant::class.java]!!,
+                it["calendar_number", Int::class.java]!!,
+            )
+        }
+    }
+
+    @Test
+    fun `guild settings map the same as by name`() {
+        val row = linkedMapOf<String, Any?>(
+            "shard_index" to 1,
+            "DM_ANNOUNCEMENTS" to "123,456",
+            "GUILD_ID" to guildId,
+            "CONTROL_ROLE" to "everyone",
+            "ANNOUNCEMENT_STYLE" to 2,
+            "TIME_FORMAT" to 2,
+            "LANG" to "ENGLISH",
+            "PREFIX" to "?",
+            "PATRON_GUILD" to true,
+            "DEV_GUILD" to false,
+            "MAX_CALENDARS" to 3,
+            "BRANDED" to true,
+        )
+
+        assertMapsLikeByName(listOf(row), GuildSettingsMapper(), { listOf(it, it.dmAnnouncements) }) {
+            val settings = GuildSettings(
+                Snowflake.of(it["GUILD_ID", Long::class.java]!!),
+                it["CONTROL_ROLE", String::class.java]!!,
+                AnnouncementStyle.fromValue(it["ANNOUNCEMENT_STYLE", Int::class.java]!!),
+                TimeFormat.fromValue(it["TIME_FORMAT", Int::class.java]!!),
+                it["LANG", String::class.java]!!,
+                it["PREFIX", String::class.java]!!,
+                it["PATRON_GUILD", Boolean::class.java]!!,
+                it["DEV_GUILD", Boolean::class.java]!!,
+                it["MAX_CALENDARS", Int::class.java]!!,
+                it["BRANDED", Boolean::class.java]!!,
+            )
+            settings.dmAnnouncements.setFromString(it["DM_ANNOUNCEMENTS", String::class.java]!!)
+            settings
+        }
+    }
+
+    @Test
+    fun `web sessions map the same as by name`() {
+        val row = linkedMapOf<String, Any?>(
+            "refresh_token" to "refresh",
+            "access_token" to "access",
+            "expires_at" to now,
+            "user_id" to 333L,
+            "token" to "token",
+        )
+
+        assertMapsLikeByName(listOf(row), WebSessionMapper()) {
+            WebSession(
+                it["token", String::class.java]!!,
+                Snowflake.of(it["user_id", Long::class.java]!!),
+                it["expires_at", Instant::class.java]!!,
+                it["access_token", String::class.java]!!,
+                it["refresh_token", String::class.java]!!,
+            )
+        }
+    }
+
+    @Test
+    fun `a result set missing a column fails to map`() {
+        val row = linkedMapOf<String, Any?>("token" to "token", "user_id" to 333L)
+
+        assertThrows<IllegalStateException> { WebSessionMapper().apply(fakeRow(row), fakeMetadata(row.keys)) }
+    }
+
+    /**
+     * Maps every row with one mapper, as a result set does, and compares each against [byName]. [key] picks what is
+     * compared, for types whose equals leaves out some of what is mapped.
+     */
+    private fun <T> assertMapsLikeByName(
+        rows: List<Map<String, Any?>>,
+        mapper: BiFunction<Row, io.r2dbc.spi.RowMetadata, T>,
+        key: (T) -> Any? = { it },
+        byName: (Row) -> T,
+    ) {
+        rows.forEach { values ->
+            val expected = byName(fakeRow(values))
+            val actual = mapper.apply(fakeRow(values), fakeMetadata(values.keys))
+
+            assertEquals(key(expected), key(actual))
+        }
+    }
+
+    private fun announcementRow(id: String, color: String, type: String, roles: String, users: String) =
+        linkedMapOf<String, Any?>(
+            "next_fire_at" to 0L,
+            "shard_index" to 2,
+            "announcement_id" to id,
+            "GUILD_ID" to guildId,
+            "CALENDAR_NUMBER" to 1,
+            "SUBSCRIBERS_ROLE" to roles,
+            "SUBSCRIBERS_USER" to users,
+            "CHANNEL_ID" to "444",
+            "ANNOUNCEMENT_TYPE" to type,
+            "MODIFIER" to "BEFORE",
+            "EVENT_ID" to "N/a",
+            "EVENT_COLOR" to color,
+            "HOURS_BEFORE" to 1,
+            "MINUTES_BEFORE" to 30,
+            "INFO" to "None",
+            "ENABLED" to true,
+            "PUBLISH" to false,
+        )
+
+    private fun rsvpRow(roleId: Long?) = linkedMapOf<String, Any?>(
+        "RSVP_ROLE" to roleId,
+        "WAITLIST" to "5",
+        "GUILD_ID" to guildId,
+        "EVENT_ID" to "event",
+        "CALENDAR_NUMBER" to 1,
+        "EVENT_END" to now.toEpochMilli(),
+        "GOING_ON_TIME" to "1,2",
+        "GOING_LATE" to "",
+        "NOT_GOING" to "3",
+        "UNDECIDED" to "",
+        "RSVP_LIMIT" to 10,
+    )
+}
@@ -0,0 +1,88 @@
+package org.dreamexposure.discal.core.database
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import reactor.test.StepVerifier
+
+class ShardRoutingTest {
+    private fun storedCount(count: Int) = mapOf(Queries.SELECT_SHARD_COUNT to listOf(mapOf("shard_count" to count)))
+
+    @Test
+    fun `a new shard count re-buckets every table then stores the count`() {
+        val fake = FakeConnection(rows = storedCount(2))
+
+        StepVerifier.create(rebucketShards(fake.connection, 4)).expectNext(true).verifyComplete()
+
+        val expected = listOf(Queries.SELECT_SHARD_COUNT, "begin") +
+            Queries.REBUCKET_SHARDS + Queries.UPSERT_SHARD_COUNT + "commit"
+        assertEquals(expected, fake.log)
+    }
+
+    @Test
+    fun `the first run stores the shard count`() {
+        val fake = FakeConnection()
+
+        StepVerifier.create(rebucketShards(fake.connection, 4)).expectNext(true).verifyComplete()
+
+        assertTrue(fake.log.contains(Queries.UPSERT_SHARD_COUNT))
+    }
+
+    @Test
+    fun `an unchanged shard count only routes rows written before it was stored`() {
+        val unrouted = Queries.REBUCKET_UNROUTED.associateWith { 0 } + (Queries.REBUCKET_UNROUTED.first() to 3)
+        val fake = FakeConnection(rowsUpdated = unrouted, rows = storedCount(4))
+
+        StepVerifier.create(rebucketShards(fake.connection, 4)).expectNext(true).verifyComplete()
+
+        assertEquals(listOf(Queries.SELECT_SHARD_COUNT, "begin") + Queries.REBUCKET_UNROUTED + "commit", fake.log)
+    }
+
+    @Test
+    fun `an unchanged shard count with every row routed rewrites nothing`() {
+        val fake = FakeConnection(rowsUpdated = Queries.REBUCKET_UNROUTED.associateWith { 0 }, rows = storedCount(4))
+
+        StepVerifier.create(rebucketShards(fake.connection, 4)).expectNext(false).verifyComplete()
+    }
+
+    @Test
+    fun `a failed re-bucket leaves the old count to retry on the next start`() {
+        val fake = FakeConnection(rows = storedCount(2), failing = setOf(Queries.REBUCKET_SHARDS.last()))
+
+        StepVerifier.create(rebucketShards(fake.connection, 4)).expectError().verify()
+
+        assertTrue(fake.log.contains("rollback"))
+        assertFalse(fake.log.contains(Queries.UPSERT_SHARD_COUNT))
+    }
+
+    @Test
+    fun `every table written with a shard index is re-bucketed`() {
+        val routed = listOf(
+            Queries.UPSERT_GUILD_SETTINGS,
+            Queries.UPSERT_CALENDAR,
+            Queries.UPSERT_ANNOUNCEMENT,
+            Queries.UPSERT_STATIC_MESSAGE,
+        )
+
+        routed.forEach { sql ->
+            assertTrue(sql.contains("shard_index"), sql)
+
+            val table = sql.removePrefix("INSERT INTO ").substringBefore("\n").trim()
+            assertTrue(Queries.REBUCKET_SHARDS.any { it.startsWith("UPDATE $table SET") }, table)
+            assertTrue(Queries.REBUCKET_UNROUTED.any { it.startsWith("UPDATE $table SET") }, table)
+        }
+    }
+
+    @Test
+    fun `shard reads use the shard index`() {
+        listOf(
+            Queries.SELECT_ANNOUNCEMENTS_FOR_SHARD,
+            Queries.SELECT_DUE_ANNOUNCEMENTS_PAGE,
+            Queries.SELECT_STATIC_MESSAGES_FOR_SHARD,
+        ).forEach { sql ->
+            assertTrue(sql.contains("shard_index = ?"), sql)
+            assertFalse(sql.contains("MOD("), sql)
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.dreamexposure.discal.core.database
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import reactor.test.StepVerifier
+
+class TransactionsTest {
+    private val cascade = listOf(
+        Queries.DELETE_CALENDAR,
+        Queries.DELETE_ALL_EVENT_DATA,
+        Queries.DELETE_ALL_RSVP_DATA,
+        Queries.DELETE_ALL_ANNOUNCEMENT_DATA,
+        Queries.DELETE_ALL_STATIC_MESSAGES,
+        Queries.DECREMENT_CALENDARS,
+        Queries.DECREMENT_EVENTS,
+        Queries.DECREMENT_RSVPS,
+        Queries.DECREMENT_ANNOUNCEMENTS,
+        Queries.DECREMENT_STATIC_MESSAGES,
+    )
+
+    @Test
+    fun `a cascade runs every statement in one committed transaction`() {
+        val fake = FakeConnection(rowsUpdated = mapOf(Queries.DECREMENT_CALENDARS to 3))
+        val statements = cascade.map { fake.connection.createStatement(it) }
+
+        StepVerifier.create(executeInTransaction(fake.connection, statements))
+            .expectNext(cascade.size - 1 + 3)
+            .verifyComplete()
+
+        assertEquals(listOf("begin") + cascade + "commit", fake.log)
+    }
+
+    @Test
+    fun `a failing statement rolls the whole cascade back`() {
+        val fake = FakeConnection(failing = setOf(Queries.DELETE_ALL_RSVP_DATA))
+        val statements = cascade.map { fake.connection.createStatement(it) }
+
+        StepVerifier.create(executeInTransaction(fake.connection, statements))
+            .verifyErrorMessage("${Queries.DELETE_ALL_RSVP_DATA} failed")
+
+        // Nothing after the failure runs, and nothing is committed
+        assertEquals(listOf("begin") + cascade.take(3) + "rollback", fake.log)
+    }
+
+    @Test
+    fun `rows updated are kept apart per statement`() {
+        val fake = FakeConnection(rowsUpdated = mapOf("first" to 2, "second" to 0))
+        val statements = listOf("first", "second").map { fake.connection.createStatement(it) }
+
+        StepVerifier.create(executeEachInTransaction(fake.connection, statements))
+            .expectNext(listOf(listOf(2), listOf(0)))
+            .verifyComplete()
+    }
+
+    @Test
+    fun `renumbering only touches calendars after the deleted one`() {
+        cascade.filter { it.startsWith("UPDATE") }.forEach { sql ->
+            assertTrue(sql.contains("calendar_number > ?", ignoreCase = true), sql)
+        }
+    }
+}
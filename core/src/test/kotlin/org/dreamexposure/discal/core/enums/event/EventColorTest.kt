@@ -0,0 +1,38 @@
+package org.dreamexposure.discal.core.enums.event
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+
+class EventColorTest {
+    // Every form a color is stored or typed in, plus some that match nothing
+    private val inputs = EventColor.values().flatMap {
+        listOf(it.name, it.name.lowercase(), it.hex, it.hex.lowercase(), it.id.toString())
+    } + listOf("", "0", "13", "-1", "purple", "#A4BDFC", " 1")
+
+    @Test
+    fun `lookups match a scan of every color`() {
+        inputs.forEach { input ->
+            assertEquals(scan(input) ?: EventColor.NONE, EventColor.fromNameOrHexOrId(input), input)
+            assertEquals(scan(input) != null, EventColor.exists(input), input)
+        }
+    }
+
+    @Test
+    fun `unknown colors are none`() {
+        assertEquals(EventColor.NONE, EventColor.fromNameOrHexOrId("purple"))
+        assertEquals(EventColor.NONE, EventColor.fromId(0))
+    }
+
+    @Test
+    fun `ids resolve to their color`() {
+        EventColor.values().forEach {
+            assertEquals(it, EventColor.fromId(it.id))
+            assertEquals(true, EventColor.exists(it.id))
+        }
+    }
+
+    // How colors were parsed before the lookup tables
+    private fun scan(input: String): EventColor? = EventColor.values().firstOrNull {
+        it.name.equals(input, true) || it.hex == input || input.toIntOrNull() == it.id
+    }
+}
@@ -0,0 +1,163 @@
+package org.dreamexposure.discal.core.utils
+
+import discord4j.common.util.Snowflake
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import java.lang.ref.Reference
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+class LongConcurrentMapTest {
+    @Test
+    fun `snowflake and long keys are the same key`() {
+        val map = LongConcurrentMap<String>()
+
+        map[Snowflake.of(42)] = "value"
+
+        assertEquals("value", map[42L])
+        assertTrue(map.containsKey(Snowflake.of(42)))
+        assertEquals("value", map.remove(42L))
+        assertTrue(map.isEmpty())
+    }
+
+    @Test
+    fun `put returns the replaced value`() {
+        val map = LongConcurrentMap<String>()
+
+        assertNull(map.put(1, "first"))
+        assertEquals("first", map.put(1, "second"))
+        assertEquals("second", map[1])
+        assertEquals(1, map.size)
+    }
+
+    @Test
+    fun `compute if absent only maps missing keys`() {
+        val map = LongConcurrentMap<String>()
+        map[1] = "stored"
+
+        assertEquals("stored", map.computeIfAbsent(1) { "mapped" })
+        assertEquals("mapped", map.computeIfAbsent(2) { "mapped" })
+        assertEquals(2, map.size)
+    }
+
+    @Test
+    fun `conditional remove leaves a replaced value in place`() {
+        val map = LongConcurrentMap<String>()
+        map[1] = "replaced"
+
+        assertFalse(map.remove(1, "old"))
+        assertTrue(map.remove(1, "replaced"))
+        assertNull(map[1])
+    }
+
+    @Test
+    fun `remove if only removes matching entries`() {
+        val map = LongConcurrentMap<Long>()
+        for (key in 0L until 1000) map[key] = key
+
+        assertEquals(500, map.removeIf { key, _ -> key % 2 == 0L })
+        assertEquals(500, map.size)
+        map.forEach { key, value -> assertEquals(key, value) }
+        assertNull(map[2])
+    }
+
+    @Test
+    fun `matches a hash map through random puts and removes`() {
+        val map = LongConcurrentMap<Long>()
+        val expected = HashMap<Long, Long>()
+        val random = Random(19)
+
+        // A small key range keeps probe chains long, so removes have to shift entries back through them
+        repeat(200_000) {
+            val key = random.nextLong(4096) shl 22
+            if (random.nextInt(3) == 0) assertEquals(expected.remove(key), map.remove(key))
+            else assertEquals(expected.put(key, it.toLong()), map.put(key, it.toLong()))
+        }
+
+        assertEquals(expected.size, map.size)
+        expected.forEach { (key, value) -> assertEquals(value, map[key]) }
+
+        val seen = HashMap<Long, Long>()
+        map.forEach { key, value -> seen[key] = value }
+        assertEquals(expected, seen)
+    }
+
+    @Test
+    fun `concurrent writers don't lose entries`() {
+        val map = LongConcurrentMap<Long>()
+        val threads = 8
+        val perThread = 50_000L
+        val pool = Executors.newFixedThreadPool(threads)
+        val start = CountDownLatch(1)
+
+        try {
+            val done = (0 until threads).map { thread ->
+                pool.submit {
+                    start.await()
+                    for (i in 0 until perThread) {
+                        val key = snowflake(thread * perThread + i)
+                        map[key] = key
+                        // Readers on other threads race the resizes these writes cause
+                        assertEquals(key, map[key])
+                        if (i % 4 == 0L) map.remove(key)
+                    }
+                }
+            }
+            start.countDown()
+            done.forEach { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            pool.shutdownNow()
+        }
+
+        assertEquals((threads * perThread * 3 / 4).toInt(), map.size)
+        for (i in 0 until threads * perThread) {
+            val key = snowflake(i)
+            if (i % perThread % 4 == 0L) assertNull(map[key]) else assertEquals(key, map[key])
+        }
+    }
+
+    @Test
+    fun `holds guild keys in less heap than a map of snowflakes`() {
+        val value = Any()
+
+        for (guilds in listOf(100_000, 500_000, 1_000_000)) {
+            val keys = LongArray(guilds) { snowflake(it.toLong()) }
+
+            val compact = retained {
+                LongConcurrentMap<Any>().also { map -> keys.forEach { map[it] = value } }
+            }
+            val boxed = retained {
+                ConcurrentHashMap<Snowflake, Any>().also { map -> keys.forEach { map[Snowflake.of(it)] = value } }
+            }
+
+            println("$guilds guilds: LongConcurrentMap ${compact / guilds} B/guild, " +
+                "ConcurrentHashMap<Snowflake, _> ${boxed / guilds} B/guild")
+            assertTrue(compact * 3 < boxed * 2, "$guilds guilds: $compact bytes against $boxed")
+        }
+    }
+
+    // Roughly spaced like real guild ids, a timestamp in the high bits and a counter in the low ones
+    private fun snowflake(i: Long) = ((1_420_070_400_000L + i * 997) shl 22) or (i and 0xFFF)
+
+    private fun retained(build: () -> Any): Long {
+        val before = usedHeap()
+        val built = build()
+        val after = usedHeap()
+
+        Reference.reachabilityFence(built)
+        return after - before
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) { System.gc() }
+
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
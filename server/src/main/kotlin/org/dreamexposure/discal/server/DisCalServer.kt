@@ -2,6 +2,9 @@ package org.dreamexposure.discal.server
 
 import org.dreamexposure.discal.Application
 import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.cache.DiscalCache
+import org.dreamexposure.discal.core.cache.InvalidationBus
+import org.dreamexposure.discal.core.cache.RemoteCache
 import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
@@ -21,6 +24,8 @@ class DisCalServer {
     fun onShutdown() {
         LOGGER.info(STATUS, "API shutting down.")
         DatabaseManager.disconnectFromMySQL()
+        DiscalCache.disconnectInvalidationBus()
+        DiscalCache.disconnectRemoteCache()
     }
 
     companion object {
@@ -31,6 +36,10 @@ class DisCalServer {
             p.load(FileReader("settings.properties"))
             BotSettings.init(p)
 
+            //Share cached data with other nodes, and evict what they write to
+            DiscalCache.connectRemoteCache(RemoteCache.fromSettings())
+            DiscalCache.connectInvalidationBus(InvalidationBus.fromSettings())
+
             //Start up spring
             try {
                 SpringApplicationBuilder(Application::class.java)
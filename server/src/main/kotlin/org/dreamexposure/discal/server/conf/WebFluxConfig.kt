@@ -1,9 +1,8 @@
 package org.dreamexposure.discal.server.conf
 
-import io.r2dbc.spi.ConnectionFactories
 import io.r2dbc.spi.ConnectionFactory
-import io.r2dbc.spi.ConnectionFactoryOptions
 import org.dreamexposure.discal.core.`object`.BotSettings
+import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.utils.GlobalVal
 import org.springframework.boot.web.server.ConfigurableWebServerFactory
 import org.springframework.boot.web.server.ErrorPage
@@ -49,18 +48,9 @@ class WebFluxConfig : WebServerFactoryCustomizer<ConfigurableWebServerFactory>,
         return LettuceConnectionFactory(rsc)
     }
 
-    @Bean(name = ["mysqlDatasource"])
-    fun mysqlConnectionFactory(): ConnectionFactory {
-        return ConnectionFactories.get(ConnectionFactoryOptions.builder()
-                .option(ConnectionFactoryOptions.DRIVER, "pool")
-                .option(ConnectionFactoryOptions.PROTOCOL, "mysql")
-                .option(ConnectionFactoryOptions.HOST, BotSettings.SQL_HOST.get())
-                .option(ConnectionFactoryOptions.PORT, BotSettings.SQL_PORT.get().toInt())
-                .option(ConnectionFactoryOptions.USER, BotSettings.SQL_USER.get())
-                .option(ConnectionFactoryOptions.PASSWORD, BotSettings.SQL_PASS.get())
-                .option(ConnectionFactoryOptions.DATABASE, BotSettings.SQL_DB.get())
-                .build())
-    }
+    // Share the DatabaseManager pool rather than opening a second one, DatabaseManager owns its lifecycle
+    @Bean(name = ["mysqlDatasource"], destroyMethod = "")
+    fun mysqlConnectionFactory(): ConnectionFactory = DatabaseManager.connectionFactory
 
     override fun configureHttpMessageCodecs(configurer: ServerCodecConfigurer) {
         val codecs = configurer.defaultCodecs()
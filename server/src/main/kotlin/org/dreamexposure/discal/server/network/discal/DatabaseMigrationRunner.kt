@@ -1,7 +1,9 @@
 package org.dreamexposure.discal.server.network.discal
 
 import com.zaxxer.hikari.HikariDataSource
+import org.dreamexposure.discal.Application
 import org.dreamexposure.discal.core.`object`.BotSettings.*
+import org.dreamexposure.discal.core.database.DatabaseManager
 import org.dreamexposure.discal.core.logger.LOGGER
 import org.dreamexposure.discal.core.utils.GlobalVal.DEFAULT
 import org.flywaydb.core.Flyway
@@ -46,6 +48,9 @@ class DatabaseMigrationRunner : ApplicationRunner {
 
             source.close()
             LOGGER.info(DEFAULT, "Migrations successful | $sm migrations applied!")
+
+            // Make sure shard routed tables match the current shard count, no-op unless it changed
+            DatabaseManager.rebucketShards(Application.getShardCount()).block()
         } catch (e: FlywayValidateException) {
             LOGGER.error(DEFAULT, "Migrations failure (validate)", e)
             exitProcess(3)